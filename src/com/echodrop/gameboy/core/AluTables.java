@@ -0,0 +1,126 @@
+/**
+ * AluTables.java
+ * 
+ * @author anewkirk
+ * 
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.core;
+
+import com.echodrop.gameboy.util.NumberUtils;
+
+/**
+ * Results and flags of the 8-bit ALU operations, worked out once for every
+ * combination of operands and carry when the class is loaded, and shared by
+ * every CPU.
+ * 
+ * Each entry holds the result in its low byte, and the Z, N, H and C bits of
+ * F in its high byte. Tables are indexed with index(), and the ones for
+ * operations that depend on the carry flag have a second half for when it's
+ * set.
+ */
+final class AluTables {
+
+	/* ADD, indexed by the two operands */
+	static final char[] ADD = new char[0x10000];
+
+	/*
+	 * ADD A,(HL), which only differs from ADD in setting Z from the result
+	 * instead of the sum
+	 */
+	static final char[] ADD_MEM = new char[0x10000];
+
+	/* SUB, indexed by A and the value subtracted. CP (HL) sets the same flags. */
+	static final char[] SUB = new char[0x10000];
+
+	/* SBC, indexed by carry, A and the value subtracted with the carry added */
+	static final char[] SBC = new char[0x20000];
+
+	/* CP, indexed by carry, A and the value compared. The result is A. */
+	static final char[] CP = new char[0x20000];
+
+	/* INC and DEC, indexed by carry and the operand */
+	static final char[] INC = new char[0x200];
+	static final char[] DEC = new char[0x200];
+
+	/*
+	 * AND and OR or XOR. Their flags only depend on the result, so these are
+	 * indexed by it, and give the result back in the low byte.
+	 */
+	static final char[] AND = new char[0x100];
+	static final char[] LOGIC = new char[0x100];
+
+	static {
+		for (int i = 0; i < 0x10000; i++) {
+			byte a = (byte) (i >>> 8);
+			byte b = (byte) i;
+			byte sum = (byte) (a + b);
+			byte difference = (byte) (a - b);
+			boolean halfCarry = NumberUtils.byteAdditionNibbleOverflow(a, b);
+			boolean fullCarry = NumberUtils.byteAdditionOverflow(a, b);
+			boolean halfBorrow = NumberUtils.byteSubtractionNibbleBorrow(a, b);
+
+			ADD[i] = entry(sum, a + b == 0, false, halfCarry, fullCarry);
+			ADD_MEM[i] = entry(sum, sum == 0, false, halfCarry, fullCarry);
+			SUB[i] = entry(difference, difference == 0, true, halfBorrow, NumberUtils.byteSubtractionBorrow(a, b));
+
+			// The carry out of these two is sticky
+			for (int carry = 0; carry < 2; carry++) {
+				SBC[carry << 16 | i] = entry(difference, difference == 0, true, halfBorrow, carry != 0 || difference < 0);
+				CP[carry << 16 | i] = entry(a, a == b, true, halfBorrow, carry != 0 || a < b);
+			}
+		}
+
+		for (int i = 0; i < 0x200; i++) {
+			byte value = (byte) i;
+			boolean carry = i > 0xFF;
+			byte incremented = (byte) (value + 1);
+			byte decremented = (byte) (value - 1);
+			INC[i] = entry(incremented, incremented == 0, false,
+					NumberUtils.byteAdditionNibbleOverflow(value, (byte) 1), carry);
+			DEC[i] = entry(decremented, decremented == 0, true,
+					NumberUtils.byteSubtractionNibbleBorrow(value, (byte) 1), carry);
+		}
+
+		for (int i = 0; i < 0x100; i++) {
+			AND[i] = entry(i, i == 0, false, true, false);
+			LOGIC[i] = entry(i, i == 0, false, false, false);
+		}
+	}
+
+	private AluTables() {
+	}
+
+	/**
+	 * @return index of an operand in a one-operand table
+	 */
+	static int index(boolean carry, byte value) {
+		return (carry ? 0x100 : 0) | (value & 0xFF);
+	}
+
+	/**
+	 * @return index of a pair of operands in a two-operand table
+	 */
+	static int index(boolean carry, byte a, byte b) {
+		return (carry ? 0x10000 : 0) | (a & 0xFF) << 8 | (b & 0xFF);
+	}
+
+	private static char entry(int result, boolean zero, boolean operation, boolean halfCarry, boolean fullCarry) {
+		int flags = 0;
+		if (zero) {
+			flags |= CPU.ZERO_FLAG;
+		}
+		if (operation) {
+			flags |= CPU.OPERATION_FLAG;
+		}
+		if (halfCarry) {
+			flags |= CPU.HALF_CARRY_FLAG;
+		}
+		if (fullCarry) {
+			flags |= CPU.FULL_CARRY_FLAG;
+		}
+		return (char) (flags << 8 | (result & 0xFF));
+	}
+
+}
@@ -0,0 +1,441 @@
+/**
+ * BlockCache.java
+ * 
+ * @author anewkirk
+ * 
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.core;
+
+import java.util.Arrays;
+
+import com.echodrop.gameboy.logging.TraceBuffer;
+import com.echodrop.gameboy.util.NumberUtils;
+
+/**
+ * Decoded basic blocks for the CPU, keyed by start address.
+ * 
+ * A block is a straight run of instructions from one 256-byte page of ROM,
+ * working RAM or the zero page, ending at the first instruction that can
+ * change pc (or at the end of the page). Each instruction is stored already
+ * looked up, with its immediate operand already read.
+ * 
+ * A block remembers the write generation of its page when it was decoded,
+ * and is thrown away once that changes, so code that gets written over
+ * (self-modifying code, BIOS unmapping) is decoded again. Blocks in the
+ * switchable ROM bank at 0x4000-0x7FFF are kept apart for each bank instead,
+ * since the ROM never changes, so switching back to a bank finds its blocks
+ * still there.
+ * 
+ * With fusion on, each block that contains a known sequence of instructions
+ * also gets a fused copy, where the sequence is a single entry run by one
+ * handler.
+ */
+class BlockCache {
+
+	static final int MAX_BLOCK_LENGTH = 32;
+
+	/* Instruction lengths in bytes, indexed by opcode. CB prefixed opcodes are all 2. */
+	private static final byte[] LENGTHS = new byte[256];
+
+	/* Opcodes that can jump, call, return, halt or change interrupts */
+	private static final boolean[] ENDS_BLOCK = new boolean[256];
+
+	/*
+	 * Opcodes that can run over and over in a polling loop without changing
+	 * anything after the first pass, as long as the memory they read stays
+	 * the same. They only load A from memory, or set A and F from A, the
+	 * flags and registers the loop doesn't write.
+	 */
+	private static final boolean[] IDEMPOTENT = new boolean[256];
+
+	/* CB prefixed opcodes that can run in a polling loop, see IDEMPOTENT */
+	private static final boolean[] CB_IDEMPOTENT = new boolean[256];
+
+	static {
+		Arrays.fill(LENGTHS, (byte) 1);
+		int[] twoBytes = { 0x06, 0x0E, 0x10, 0x16, 0x18, 0x1E, 0x20, 0x26, 0x28, 0x2E, 0x30, 0x36, 0x38, 0x3E, 0xC6,
+				0xCB, 0xCE, 0xD6, 0xDE, 0xE0, 0xE6, 0xE8, 0xEE, 0xF0, 0xF6, 0xF8, 0xFE };
+		int[] threeBytes = { 0x01, 0x08, 0x11, 0x21, 0x31, 0xC2, 0xC3, 0xC4, 0xCA, 0xCC, 0xCD, 0xD2, 0xD4, 0xDA, 0xDC,
+				0xEA, 0xFA };
+		int[] endsBlock = { 0x10, 0x18, 0x20, 0x28, 0x30, 0x38, 0x76, 0xC0, 0xC2, 0xC3, 0xC4, 0xC7, 0xC8, 0xC9, 0xCA,
+				0xCC, 0xCD, 0xCF, 0xD0, 0xD2, 0xD4, 0xD7, 0xD8, 0xD9, 0xDA, 0xDC, 0xDF, 0xE7, 0xE9, 0xEF, 0xF3, 0xF7,
+				0xFB, 0xFF };
+		for (int opcode : twoBytes) {
+			LENGTHS[opcode] = 2;
+		}
+		for (int opcode : threeBytes) {
+			LENGTHS[opcode] = 3;
+		}
+		for (int opcode : endsBlock) {
+			ENDS_BLOCK[opcode] = true;
+		}
+
+		// NOP, LD A,(DE), LD A,(HL), LDH A,(n), LD A,(nn), AND n, CP n
+		int[] idempotent = { 0x00, 0x1A, 0x7E, 0xF0, 0xFA, 0xE6, 0xFE };
+		for (int opcode : idempotent) {
+			IDEMPOTENT[opcode] = true;
+		}
+		// AND r, OR r, CP r
+		for (int opcode = 0xA0; opcode < 0xA8; opcode++) {
+			IDEMPOTENT[opcode] = true;
+			IDEMPOTENT[opcode + 0x10] = true;
+			IDEMPOTENT[opcode + 0x18] = true;
+		}
+		// BIT b,r, except the register that BIT 7 F tests, which it also writes
+		for (int opcode = 0x40; opcode < 0x80; opcode++) {
+			CB_IDEMPOTENT[opcode] = (opcode & 7) != 7;
+		}
+	}
+
+	/**
+	 * A decoded run of instructions
+	 */
+	static class Block {
+
+		/* Instructions in the block, in order */
+		final Opcode[] instructions;
+
+		/* Opcode of each instruction, 0xCBxx if prefixed. Only used for tracing. */
+		final int[] opcodes;
+
+		/* Where pc points while each instruction runs, just past its opcode */
+		final char[] operandAddresses;
+
+		/* Immediate operand of each instruction, or -1 if it has none */
+		final int[] operands;
+
+		final int length;
+		final int page;
+		final int generation;
+
+		/* Times the block has run from the cache, counted until it's compiled */
+		int runs;
+
+		/* JIT compiled version of the block, if it has been compiled */
+		CompiledBlock compiled;
+
+		/*
+		 * Cycles taken by one pass if the block is a polling loop, one that
+		 * only reads and ends in a conditional jump back to its start.
+		 * Otherwise 0.
+		 */
+		int loopCycles;
+
+		/* Most cycles the block can take, with every conditional taken */
+		int maxCycles;
+
+		/* Copy of the block with sequences fused, or null if it has none */
+		Block fused;
+
+		/*
+		 * In a fused copy, the number of instructions each entry stands for.
+		 * Null otherwise.
+		 */
+		int[] parts;
+
+		Block(int length, int page, int generation) {
+			this.instructions = new Opcode[length];
+			this.opcodes = new int[length];
+			this.operandAddresses = new char[length];
+			this.operands = new int[length];
+			this.length = length;
+			this.page = page;
+			this.generation = generation;
+		}
+	}
+
+	private final MMU mem;
+	private final Opcode[] opCodes;
+	private final Opcode[] cbOpCodes;
+	private final Opcode unimplemented;
+
+	/* Allocated on first use, since most CPUs never run from the cache */
+	private Block[] blocks;
+
+	/*
+	 * Blocks at 0x4000-0x7FFF for each bank of the cartridge ROM, which is
+	 * bankedRom. Each bank's are allocated once it has run from the cache.
+	 */
+	private Block[][] bankBlocks;
+	private byte[] bankedRom;
+
+	/* Sequences of opcodes (0xCBxx if prefixed) and the handlers that run them */
+	private final int[][] fusedSequences;
+	private final Opcode[] fusedHandlers;
+	private boolean fusionEnabled;
+
+	private long decodeCount;
+
+	/**
+	 * The opcode tables and fused sequences are only read, so they can be
+	 * shared with other caches. Each fused handler gets the immediate
+	 * operands of its sequence packed together, the first in the lowest
+	 * byte, and pc pointing just past the first opcode.
+	 */
+	BlockCache(MMU mem, Opcode[] opCodes, Opcode[] cbOpCodes, Opcode unimplemented, int[][] fusedSequences,
+			Opcode[] fusedHandlers) {
+		this.mem = mem;
+		this.opCodes = opCodes;
+		this.cbOpCodes = cbOpCodes;
+		this.unimplemented = unimplemented;
+		this.fusedSequences = fusedSequences;
+		this.fusedHandlers = fusedHandlers;
+	}
+
+	/**
+	 * @return the block starting at address, decoding it if needed, or null if
+	 *         the address can't be cached. The block is empty if its first
+	 *         instruction can't be cached either.
+	 */
+	Block lookup(char address) {
+		if (blocks == null) {
+			blocks = new Block[0x10000];
+		}
+		// Nothing is run from memory OAM DMA has locked the CPU out of, even if
+		// it's already been decoded
+		if (mem.isBusLocked() && address < 0xFF00) {
+			return null;
+		}
+		Block[] window = blocks;
+		int index = address;
+		if (address >= 0x4000 && address < 0x8000) {
+			int bankOffset = mem.getRomBankOffset();
+			if (bankOffset >= 0) {
+				window = getBank(bankOffset);
+				index = address - 0x4000;
+			}
+		}
+		Block block = window[index];
+		if (block != null && (window != blocks || block.generation == mem.getPageGeneration(block.page))) {
+			return block;
+		}
+		if (!isCacheable(address)) {
+			return null;
+		}
+		block = decode(address);
+		window[index] = block;
+		return block;
+	}
+
+	/**
+	 * @return the blocks of the cartridge ROM bank at an offset, starting
+	 *         afresh whenever a different ROM has been loaded
+	 */
+	private Block[] getBank(int bankOffset) {
+		byte[] rom = mem.getLoadedRomFile().romData;
+		if (rom != bankedRom) {
+			bankedRom = rom;
+			bankBlocks = new Block[(rom.length + 0x3FFF) >>> 14][];
+		}
+		int bank = bankOffset >>> 14;
+		if (bankBlocks[bank] == null) {
+			bankBlocks[bank] = new Block[0x4000];
+		}
+		return bankBlocks[bank];
+	}
+
+	boolean isFusionEnabled() {
+		return fusionEnabled;
+	}
+
+	/**
+	 * Turns fusion on or off, throwing away every block decoded so far
+	 */
+	void setFusionEnabled(boolean fusionEnabled) {
+		this.fusionEnabled = fusionEnabled;
+		blocks = null;
+		bankBlocks = null;
+		bankedRom = null;
+	}
+
+	/**
+	 * @return length in bytes of an instruction, given its opcode (0xCBxx if
+	 *         prefixed)
+	 */
+	static int instructionLength(int opcode) {
+		return opcode > 0xFF ? 2 : LENGTHS[opcode];
+	}
+
+	/**
+	 * Only ROM, working RAM and the zero page are decoded. Everything else,
+	 * including echo RAM and the I/O registers, is left to the interpreter.
+	 */
+	static boolean isCacheable(char address) {
+		return address < 0x8000 || (address >= 0xC000 && address < 0xE000) || (address >= 0xFF80 && address < 0xFFFF);
+	}
+
+	private Block decode(char start) {
+		int page = start >>> 8;
+		int generation = mem.getPageGeneration(page);
+
+		Opcode[] instructions = new Opcode[MAX_BLOCK_LENGTH];
+		int[] opcodes = new int[MAX_BLOCK_LENGTH];
+		char[] operandAddresses = new char[MAX_BLOCK_LENGTH];
+		int[] operands = new int[MAX_BLOCK_LENGTH];
+		int length = 0;
+		int address = start;
+
+		while (length < MAX_BLOCK_LENGTH && (address >>> 8) == page) {
+			int opcode = mem.readByte((char) address) & 0xFF;
+			int size = LENGTHS[opcode];
+
+			// Stop before an instruction that runs off the end of the page
+			// (or into the interrupt enable register)
+			if (((address + size - 1) >>> 8) != page || (page == 0xFF && address + size > 0xFFFF)) {
+				break;
+			}
+
+			Opcode instruction;
+			int operand = -1;
+			int code = opcode;
+			if (opcode == 0xCB) {
+				code = 0xCB00 | (mem.readByte((char) (address + 1)) & 0xFF);
+				instruction = cbOpCodes[code & 0xFF];
+			} else {
+				instruction = opCodes[opcode];
+				if (size == 2) {
+					operand = mem.readByte((char) (address + 1)) & 0xFF;
+				} else if (size == 3) {
+					operand = NumberUtils.bytesToWord(mem.readByte((char) (address + 1)),
+							mem.readByte((char) (address + 2)));
+				}
+			}
+			if (instruction == unimplemented) {
+				break;
+			}
+
+			instructions[length] = instruction;
+			opcodes[length] = code;
+			operandAddresses[length] = (char) (address + (opcode == 0xCB ? 2 : 1));
+			operands[length] = operand;
+			length++;
+			address += size;
+
+			if (ENDS_BLOCK[opcode]) {
+				break;
+			}
+		}
+
+		decodeCount++;
+		Block block = new Block(length, page, generation);
+		System.arraycopy(instructions, 0, block.instructions, 0, length);
+		System.arraycopy(opcodes, 0, block.opcodes, 0, length);
+		System.arraycopy(operandAddresses, 0, block.operandAddresses, 0, length);
+		System.arraycopy(operands, 0, block.operands, 0, length);
+		block.loopCycles = loopCycles(block, start);
+		for (int i = 0; i < length; i++) {
+			block.maxCycles += Math.max(instructions[i].getMTime(), instructions[i].getConditional_time());
+		}
+		if (fusionEnabled && !TraceBuffer.ENABLED) {
+			block.fused = fuse(block);
+		}
+		return block;
+	}
+
+	/**
+	 * @return a copy of the block with every known sequence replaced by its
+	 *         fused handler, or null if there are none
+	 */
+	private Block fuse(Block block) {
+		int[] match = new int[block.length];
+		int entries = 0;
+		boolean found = false;
+		for (int i = 0; i < block.length; entries++) {
+			match[entries] = -1;
+			for (int f = 0; f < fusedSequences.length; f++) {
+				if (matches(block, i, fusedSequences[f])) {
+					match[entries] = f;
+					found = true;
+					break;
+				}
+			}
+			i += match[entries] < 0 ? 1 : fusedSequences[match[entries]].length;
+		}
+		if (!found) {
+			return null;
+		}
+
+		Block fused = new Block(entries, block.page, block.generation);
+		fused.parts = new int[entries];
+		int i = 0;
+		for (int entry = 0; entry < entries; entry++) {
+			int parts = match[entry] < 0 ? 1 : fusedSequences[match[entry]].length;
+			fused.instructions[entry] = match[entry] < 0 ? block.instructions[i] : fusedHandlers[match[entry]];
+			fused.opcodes[entry] = block.opcodes[i];
+			fused.operandAddresses[entry] = block.operandAddresses[i];
+			fused.parts[entry] = parts;
+
+			int operand = -1;
+			int shift = 0;
+			for (int part = i; part < i + parts; part++) {
+				if (block.operands[part] >= 0) {
+					operand = (operand < 0 ? 0 : operand) | block.operands[part] << shift;
+					shift += (instructionLength(block.opcodes[part]) - 1) * 8;
+				}
+			}
+			fused.operands[entry] = operand;
+			i += parts;
+		}
+		return fused;
+	}
+
+	private static boolean matches(Block block, int start, int[] sequence) {
+		if (start + sequence.length > block.length) {
+			return false;
+		}
+		for (int i = 0; i < sequence.length; i++) {
+			if (block.opcodes[start + i] != sequence[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return cycles for one pass of the block if it is a polling loop, or 0
+	 */
+	private static int loopCycles(Block block, char start) {
+		if (block.length == 0) {
+			return 0;
+		}
+
+		int cycles = 0;
+		for (int i = 0; i < block.length - 1; i++) {
+			int code = block.opcodes[i];
+			if (code > 0xFF ? !CB_IDEMPOTENT[code & 0xFF] : !IDEMPOTENT[code]) {
+				return 0;
+			}
+			// Timer counters change without an event to stop at
+			if (code == 0xF0 && Timer.isCounter(0xFF00 | block.operands[i])
+					|| code == 0xFA && Timer.isCounter(block.operands[i])) {
+				return 0;
+			}
+			cycles += block.instructions[i].getMTime();
+		}
+
+		int last = block.length - 1;
+		int jump = block.opcodes[last];
+		int target;
+		if (jump == 0x20 || jump == 0x28 || jump == 0x30 || jump == 0x38) {
+			target = (block.operandAddresses[last] + 1 + (byte) block.operands[last]) & 0xFFFF;
+		} else if (jump == 0xC2 || jump == 0xCA || jump == 0xD2 || jump == 0xDA) {
+			target = block.operands[last];
+		} else {
+			return 0;
+		}
+		if (target != start) {
+			return 0;
+		}
+		return cycles + block.instructions[last].getMTime();
+	}
+
+	/**
+	 * @return number of blocks decoded so far
+	 */
+	long getDecodeCount() {
+		return decodeCount;
+	}
+
+}
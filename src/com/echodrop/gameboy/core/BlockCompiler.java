@@ -0,0 +1,869 @@
+/**
+ * BlockCompiler.java
+ * 
+ * @author anewkirk
+ * 
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup.ClassOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+
+/**
+ * Translates hot blocks from the block cache into JVM bytecode.
+ * 
+ * Each compiled block is a hidden class in the CPU's nest, so it can use the
+ * register file, pc and computeFlags() directly. The registers live in locals
+ * while the block runs and are written back once at the end.
+ * 
+ * Only register loads, ALU operations, plain memory loads and stores and
+ * jumps are translated. A block is compiled up to its first instruction that
+ * isn't, and the interpreter picks up from there. At run time, compiled code
+ * also hands back to the interpreter before any access to 0xFF00 and up, and
+ * after any write to the block's own page.
+ * 
+ * The scheduler is brought up to date before every memory access and when
+ * the block exits, so events see memory in the same order as when
+ * interpreting.
+ * 
+ * Hidden classes need Java 15, and the CPU uses this class directly, so the
+ * core needs at least that to build.
+ */
+class BlockCompiler {
+
+	private static final Logger logger = Logger.getLogger(BlockCompiler.class.getName());
+
+	/* Number of times a block runs from the cache before it gets compiled */
+	static final int HOT_THRESHOLD = 16;
+
+	/* Register file index of each 3-bit register field in an opcode. 6 is (HL). */
+	private static final int[] REGISTER_FIELDS = { CPU.B, CPU.C, CPU.D, CPU.E, CPU.H, CPU.L, -1, CPU.A };
+
+	/* Lowest address the compiled code leaves to the interpreter */
+	private static final int IO_START = 0xFF00;
+
+	/* Class files are written for the running JVM, 61 on Java 17 */
+	private static final int CLASS_VERSION = 44 + Runtime.version().feature();
+
+	private static final String CPU_CLASS = "com/echodrop/gameboy/core/CPU";
+	private static final String MMU_CLASS = "com/echodrop/gameboy/core/MMU";
+	private static final String SCHEDULER_CLASS = "com/echodrop/gameboy/core/Scheduler";
+	private static final String BLOCK_CLASS = "com/echodrop/gameboy/core/CompiledBlock";
+
+	/*
+	 * Locals of the generated run method. Registers are kept as sign extended
+	 * bytes, the same values the register file holds.
+	 */
+	private static final int LOCAL_CPU = 1;
+	private static final int LOCAL_REGISTERS = 2;
+	private static final int LOCAL_FIRST_REGISTER = 3;
+	private static final int LOCAL_PC = 11;
+	private static final int LOCAL_COUNT = 12;
+	private static final int LOCAL_ADDRESS = 13;
+	private static final int LOCAL_TEMP = 14;
+	private static final int LOCAL_GENERATION = 15;
+	private static final int LOCAL_TOTAL = 16;
+
+	/* JVM opcodes used by the generated code */
+	private static final int ICONST_0 = 0x03;
+	private static final int BIPUSH = 0x10;
+	private static final int SIPUSH = 0x11;
+	private static final int LDC_W = 0x13;
+	private static final int ILOAD = 0x15;
+	private static final int ALOAD = 0x19;
+	private static final int BALOAD = 0x33;
+	private static final int ISTORE = 0x36;
+	private static final int ASTORE = 0x3A;
+	private static final int BASTORE = 0x54;
+	private static final int DUP = 0x59;
+	private static final int IADD = 0x60;
+	private static final int ISUB = 0x64;
+	private static final int ISHL = 0x78;
+	private static final int ISHR = 0x7A;
+	private static final int IAND = 0x7E;
+	private static final int IOR = 0x80;
+	private static final int IXOR = 0x82;
+	private static final int I2B = 0x91;
+	private static final int I2C = 0x92;
+	private static final int IFEQ = 0x99;
+	private static final int IFNE = 0x9A;
+	private static final int IF_ICMPEQ = 0x9F;
+	private static final int IF_ICMPLT = 0xA1;
+	private static final int GOTO = 0xA7;
+	private static final int IRETURN = 0xAC;
+	private static final int RETURN = 0xB1;
+	private static final int GETFIELD = 0xB4;
+	private static final int PUTFIELD = 0xB5;
+	private static final int INVOKEVIRTUAL = 0xB6;
+	private static final int INVOKESPECIAL = 0xB7;
+	private static final int INVOKESTATIC = 0xB8;
+
+	private final MethodHandles.Lookup lookup;
+
+	private long compileCount;
+
+	/* State of the block being compiled */
+	private ConstantPool pool;
+	private Code code;
+	private int exitLabel;
+	private int pendingCycles;
+
+	/**
+	 * @param lookup
+	 *            a lookup with full access to CPU, so the compiled blocks can
+	 *            join its nest
+	 */
+	BlockCompiler(MethodHandles.Lookup lookup) {
+		this.lookup = lookup;
+	}
+
+	/**
+	 * @return the compiled block, or null if its first instruction can't be
+	 *         compiled
+	 */
+	CompiledBlock compile(BlockCache.Block block) {
+		pool = new ConstantPool();
+		code = new Code();
+		exitLabel = code.newLabel();
+		pendingCycles = 0;
+
+		loadRegisters();
+		loadPageGeneration(block);
+		code.store(LOCAL_GENERATION);
+		int count = 0;
+		while (count < block.length && translate(block, count)) {
+			count++;
+		}
+		if (count == 0) {
+			return null;
+		}
+
+		// The last instruction translated either jumped, or falls through to here
+		if (!isJump(block.opcodes[count - 1])) {
+			exit(nextAddress(block, count - 1), count, pendingCycles);
+		}
+		storeRegisters();
+
+		String name = BLOCK_CLASS + "$" + Integer.toHexString(instructionStart(block, 0));
+		try {
+			byte[] classFile = writeClass(name);
+			Class<?> compiled = lookup.defineHiddenClass(classFile, true, ClassOption.NESTMATE).lookupClass();
+			compileCount++;
+			return (CompiledBlock) compiled.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError | IOException e) {
+			logger.warning("Unable to compile block at " + Integer.toHexString(block.operandAddresses[0]) + ": " + e);
+			return null;
+		} finally {
+			pool = null;
+			code = null;
+		}
+	}
+
+	/**
+	 * @return number of blocks compiled so far
+	 */
+	long getCompileCount() {
+		return compileCount;
+	}
+
+	/**
+	 * Emits the code for one instruction of the block
+	 * 
+	 * @return false if the instruction can't be compiled, in which case
+	 *         nothing was emitted
+	 */
+	private boolean translate(BlockCache.Block block, int i) {
+		int opcode = block.opcodes[i];
+		int operand = block.operands[i];
+		Opcode instruction = block.instructions[i];
+		int cycles = instruction.getMTime();
+		int x = (opcode >>> 3) & 7;
+		int z = opcode & 7;
+
+		if (opcode == 0x00) {
+			// NOP
+		} else if (opcode >= 0x40 && opcode < 0x80 && x != 6 && z != 6) {
+			// LD r,r'
+			code.load(reg(REGISTER_FIELDS[z]));
+			code.store(reg(REGISTER_FIELDS[x]));
+		} else if (opcode < 0x40 && z == 6 && x != 6) {
+			// LD r,n
+			code.push((byte) operand);
+			code.store(reg(REGISTER_FIELDS[x]));
+		} else if (opcode < 0x40 && (z == 4 || z == 5) && x != 6) {
+			// INC r, DEC r
+			int r = reg(REGISTER_FIELDS[x]);
+			code.load(r);
+			code.store(LOCAL_TEMP);
+			code.load(r);
+			code.push(1);
+			code.op(z == 4 ? IADD : ISUB);
+			code.op(I2B);
+			code.store(r);
+			setFlags(z == 4 ? CPU.FLAGS_INC : CPU.FLAGS_DEC, LOCAL_TEMP, -1, r, 1);
+		} else if (opcode == 0x01 || opcode == 0x11 || opcode == 0x21) {
+			// LD rr,nn
+			int high = REGISTER_FIELDS[(x & 6)];
+			code.push((byte) (operand >>> 8));
+			code.store(reg(high));
+			code.push((byte) operand);
+			code.store(reg(high + 1));
+		} else if (opcode == 0x31) {
+			// LD SP,nn
+			code.op(ALOAD, LOCAL_CPU);
+			code.push(operand);
+			code.field(PUTFIELD, CPU_CLASS, "sp", "C");
+		} else if (opcode == 0x03 || opcode == 0x13 || opcode == 0x23 || opcode == 0x0B || opcode == 0x1B
+				|| opcode == 0x2B) {
+			// INC rr, DEC rr
+			int high = REGISTER_FIELDS[(x & 6)];
+			loadDual(high, high + 1);
+			code.push(1);
+			code.op((x & 1) == 0 ? IADD : ISUB);
+			storeDual(high, high + 1);
+		} else if (opcode == 0x19) {
+			// ADD HL,DE
+			loadDual(CPU.H, CPU.L);
+			loadDual(CPU.D, CPU.E);
+			code.op(IADD);
+			storeDual(CPU.H, CPU.L);
+			setFlags(CPU.FLAGS_ADD16, reg(CPU.H), reg(CPU.L), reg(CPU.L), 0);
+		} else if (opcode >= 0xA0 && opcode < 0xB8 && z != 6) {
+			// AND r, XOR r, OR r
+			int[] ops = { IAND, IXOR, IOR };
+			code.load(reg(CPU.A));
+			code.load(reg(REGISTER_FIELDS[z]));
+			code.op(ops[x - 4]);
+			code.store(reg(CPU.A));
+			int flags = x == 4 ? CPU.FLAGS_AND : CPU.FLAGS_LOGIC;
+			setFlags(flags, reg(CPU.A), reg(CPU.A), reg(CPU.A), 0);
+		} else if (opcode >= 0x90 && opcode < 0x98 && z != 6) {
+			// SUB r. Both operands are copied first, since r may be A.
+			code.load(reg(CPU.A));
+			code.store(LOCAL_TEMP);
+			code.load(reg(REGISTER_FIELDS[z]));
+			code.store(LOCAL_ADDRESS);
+			code.load(LOCAL_TEMP);
+			code.load(LOCAL_ADDRESS);
+			code.op(ISUB);
+			code.op(I2B);
+			code.store(reg(CPU.A));
+			setFlags(CPU.FLAGS_SUB, LOCAL_TEMP, LOCAL_ADDRESS, reg(CPU.A), 0);
+		} else if (opcode == 0x87) {
+			// ADD A,A
+			code.load(reg(CPU.A));
+			code.store(LOCAL_TEMP);
+			code.load(reg(CPU.A));
+			code.load(reg(CPU.A));
+			code.op(IADD);
+			code.op(I2B);
+			code.store(reg(CPU.A));
+			setFlags(CPU.FLAGS_ADD, LOCAL_TEMP, LOCAL_TEMP, reg(CPU.A), 0);
+		} else if (opcode == 0x2F) {
+			// CPL
+			code.load(reg(CPU.A));
+			code.push(-1);
+			code.op(IXOR);
+			code.store(reg(CPU.A));
+			setFlags(CPU.FLAGS_CPL, reg(CPU.A), reg(CPU.A), reg(CPU.A), 0);
+		} else if (opcode == 0xE6) {
+			// AND n
+			code.load(reg(CPU.A));
+			code.push((byte) operand);
+			code.op(IAND);
+			code.store(reg(CPU.A));
+			setFlags(CPU.FLAGS_AND, reg(CPU.A), reg(CPU.A), reg(CPU.A), 0);
+		} else if (opcode == 0xFE) {
+			// CP n
+			code.push((byte) operand);
+			code.store(LOCAL_TEMP);
+			setFlags(CPU.FLAGS_CP, reg(CPU.A), LOCAL_TEMP, reg(CPU.A), 0);
+		} else if (opcode == 0x86 || opcode == 0xBE) {
+			// ADD A,(HL), CP (HL)
+			loadDual(CPU.H, CPU.L);
+			readMemory(block, i);
+			code.store(LOCAL_TEMP);
+			if (opcode == 0x86) {
+				code.load(reg(CPU.A));
+				code.store(LOCAL_ADDRESS);
+				code.load(reg(CPU.A));
+				code.load(LOCAL_TEMP);
+				code.op(IADD);
+				code.op(I2B);
+				code.store(reg(CPU.A));
+				setFlags(CPU.FLAGS_ADD_MEM, LOCAL_ADDRESS, LOCAL_TEMP, reg(CPU.A), 0);
+			} else {
+				setFlags(CPU.FLAGS_CP_MEM, reg(CPU.A), LOCAL_TEMP, reg(CPU.A), 0);
+			}
+		} else if ((opcode >= 0x40 && opcode < 0x80 && z == 6 && x != 6) || opcode == 0x1A || opcode == 0x2A) {
+			// LD r,(HL), LD A,(DE), LD A,(HL+)
+			if (opcode == 0x1A) {
+				loadDual(CPU.D, CPU.E);
+			} else {
+				loadDual(CPU.H, CPU.L);
+			}
+			readMemory(block, i);
+			code.store(reg(opcode < 0x40 ? CPU.A : REGISTER_FIELDS[x]));
+			if (opcode == 0x2A) {
+				code.load(LOCAL_ADDRESS);
+				code.push(1);
+				code.op(IADD);
+				storeDual(CPU.H, CPU.L);
+			}
+		} else if (opcode == 0xFA) {
+			// LD A,(nn)
+			if (operand >= IO_START) {
+				return false;
+			}
+			code.push(operand);
+			readMemory(block, i);
+			code.store(reg(CPU.A));
+		} else if ((opcode >= 0x70 && opcode < 0x78 && z != 6) || opcode == 0x12 || opcode == 0x36
+				|| opcode == 0x22 || opcode == 0x32) {
+			// LD (HL),r, LD (DE),A, LD (HL),n, LDI (HL),A, LDD (HL),A
+			if (opcode == 0x12) {
+				loadDual(CPU.D, CPU.E);
+			} else {
+				loadDual(CPU.H, CPU.L);
+			}
+			if (opcode == 0x36) {
+				writeMemory(block, i, -1, (byte) operand);
+			} else {
+				writeMemory(block, i, reg(opcode >= 0x70 ? REGISTER_FIELDS[z] : CPU.A), 0);
+			}
+			if (opcode == 0x22 || opcode == 0x32) {
+				code.load(LOCAL_ADDRESS);
+				code.push(1);
+				code.op(opcode == 0x22 ? IADD : ISUB);
+				storeDual(CPU.H, CPU.L);
+			}
+			return checkPage(block, i);
+		} else if (opcode == 0xEA) {
+			// LD (nn),A
+			if (operand >= IO_START) {
+				return false;
+			}
+			code.push(operand);
+			writeMemory(block, i, reg(CPU.A), 0);
+			return checkPage(block, i);
+		} else if (opcode == 0x18 || opcode == 0xC3) {
+			// JR n, JP nn
+			int target = opcode == 0x18 ? relativeTarget(block, i) : operand;
+			exit(target, i + 1, pendingCycles + cycles);
+			return true;
+		} else if (opcode == 0x20 || opcode == 0x28 || opcode == 0xC2 || opcode == 0xCA) {
+			// JR NZ/Z,n, JP NZ/Z,nn
+			int target = opcode < 0x40 ? relativeTarget(block, i) : operand;
+			int notTaken = code.newLabel();
+			code.load(reg(CPU.F));
+			code.push(CPU.ZERO_FLAG);
+			code.op(IAND);
+			code.jump((opcode & 0x08) == 0 ? IFNE : IFEQ, notTaken);
+			exit(target, i + 1, pendingCycles + cycles);
+			code.bind(notTaken);
+			exit(nextAddress(block, i), i + 1, pendingCycles + instruction.getConditional_time());
+			return true;
+		} else if (opcode == 0xCB7C || opcode == 0xCB7F) {
+			// BIT 7,H, BIT 7,F. Bit 7 is the lowest bit, see RegisterUtils.readBit
+			int r = reg(opcode == 0xCB7C ? CPU.H : CPU.F);
+			code.load(r);
+			code.push(1);
+			code.op(IAND);
+			code.store(LOCAL_TEMP);
+			setFlags(CPU.FLAGS_BIT, r, LOCAL_TEMP, LOCAL_TEMP, 0);
+		} else if (opcode == 0xCB87) {
+			// RES 0,A, which clears the highest bit, see RegisterUtils.setBit
+			code.load(reg(CPU.A));
+			code.push(0x7F);
+			code.op(IAND);
+			code.store(reg(CPU.A));
+		} else {
+			return false;
+		}
+
+		pendingCycles += cycles;
+		return true;
+	}
+
+	/**
+	 * Emits a call to computeFlags for the operation, with operands and result
+	 * taken from locals. y is a constant instead of a local if its local is -1.
+	 */
+	private void setFlags(int op, int x, int y, int result, int constantY) {
+		code.push(op);
+		code.load(x);
+		if (y < 0) {
+			code.push(constantY);
+		} else {
+			code.load(y);
+		}
+		code.load(result);
+		code.load(reg(CPU.F));
+		code.invoke(INVOKESTATIC, CPU_CLASS, "computeFlags", "(IBBBB)B");
+		code.store(reg(CPU.F));
+	}
+
+	/**
+	 * Reads the byte at the address on top of the stack, or leaves the block
+	 * before instruction i if it's an I/O address. Leaves the address in
+	 * LOCAL_ADDRESS and the byte on the stack.
+	 */
+	private void beginAccess(BlockCache.Block block, int i) {
+		code.store(LOCAL_ADDRESS);
+		int inRange = code.newLabel();
+		code.load(LOCAL_ADDRESS);
+		code.push(IO_START);
+		code.jump(IF_ICMPLT, inRange);
+		exit(instructionStart(block, i), i, pendingCycles);
+		code.bind(inRange);
+
+		if (pendingCycles > 0) {
+			advance(pendingCycles);
+			pendingCycles = 0;
+		}
+		code.op(ALOAD, LOCAL_CPU);
+		code.field(GETFIELD, CPU_CLASS, "mem", "L" + MMU_CLASS + ";");
+		code.load(LOCAL_ADDRESS);
+		code.op(I2C);
+	}
+
+	private void readMemory(BlockCache.Block block, int i) {
+		beginAccess(block, i);
+		code.invoke(INVOKEVIRTUAL, MMU_CLASS, "readByte", "(C)B");
+	}
+
+	/**
+	 * Writes a register, or a constant if the register is -1, to the address
+	 * on top of the stack
+	 */
+	private void writeMemory(BlockCache.Block block, int i, int register, int constant) {
+		beginAccess(block, i);
+		if (register < 0) {
+			code.push(constant);
+		} else {
+			code.load(register);
+		}
+		code.invoke(INVOKEVIRTUAL, MMU_CLASS, "writeByte", "(CB)V");
+	}
+
+	/**
+	 * Leaves the block after instruction i if it wrote to the block's own
+	 * page, since the code that follows may have changed
+	 */
+	private boolean checkPage(BlockCache.Block block, int i) {
+		pendingCycles += block.instructions[i].getMTime();
+		int unchanged = code.newLabel();
+		loadPageGeneration(block);
+		code.load(LOCAL_GENERATION);
+		code.jump(IF_ICMPEQ, unchanged);
+		exit(nextAddress(block, i), i + 1, pendingCycles);
+		code.bind(unchanged);
+		return true;
+	}
+
+	/**
+	 * Pushes the current write generation of the block's page. It's read
+	 * when the block starts, since a block from a switchable ROM bank can be
+	 * older than its page's generation.
+	 */
+	private void loadPageGeneration(BlockCache.Block block) {
+		code.op(ALOAD, LOCAL_CPU);
+		code.field(GETFIELD, CPU_CLASS, "mem", "L" + MMU_CLASS + ";");
+		code.push(block.page);
+		code.invoke(INVOKEVIRTUAL, MMU_CLASS, "getPageGeneration", "(I)I");
+	}
+
+	/**
+	 * Leaves the block with pc at the given address, after advancing the
+	 * scheduler
+	 */
+	private void exit(int pc, int count, int cycles) {
+		if (cycles > 0) {
+			advance(cycles);
+		}
+		code.push(pc);
+		code.store(LOCAL_PC);
+		code.push(count);
+		code.store(LOCAL_COUNT);
+		code.jump(GOTO, exitLabel);
+	}
+
+	private void advance(int cycles) {
+		code.op(ALOAD, LOCAL_CPU);
+		code.field(GETFIELD, CPU_CLASS, "scheduler", "L" + SCHEDULER_CLASS + ";");
+		code.push(cycles);
+		code.invoke(INVOKEVIRTUAL, SCHEDULER_CLASS, "advance", "(I)V");
+	}
+
+	/**
+	 * Pushes r1r2 as an unsigned 16-bit value
+	 */
+	private void loadDual(int r1, int r2) {
+		code.load(reg(r1));
+		code.push(0xFF);
+		code.op(IAND);
+		code.push(8);
+		code.op(ISHL);
+		code.load(reg(r2));
+		code.push(0xFF);
+		code.op(IAND);
+		code.op(IOR);
+	}
+
+	/**
+	 * Pops a 16-bit value into r1r2. Anything above bit 15 is dropped.
+	 */
+	private void storeDual(int r1, int r2) {
+		code.op(DUP);
+		code.push(8);
+		code.op(ISHR);
+		code.op(I2B);
+		code.store(reg(r1));
+		code.op(I2B);
+		code.store(reg(r2));
+	}
+
+	/**
+	 * Copies the register file into locals
+	 */
+	private void loadRegisters() {
+		code.op(ALOAD, LOCAL_CPU);
+		code.field(GETFIELD, CPU_CLASS, "registers", "[B");
+		code.op(ASTORE, LOCAL_REGISTERS);
+		for (int r = 0; r < 8; r++) {
+			code.op(ALOAD, LOCAL_REGISTERS);
+			code.push(r);
+			code.op(BALOAD);
+			code.store(reg(r));
+		}
+		for (int local = LOCAL_PC; local < LOCAL_TOTAL; local++) {
+			code.op(ICONST_0);
+			code.store(local);
+		}
+	}
+
+	/**
+	 * The shared exit: copies the locals back to the register file, sets pc
+	 * and returns the instruction count
+	 */
+	private void storeRegisters() {
+		code.bind(exitLabel);
+		for (int r = 0; r < 8; r++) {
+			code.op(ALOAD, LOCAL_REGISTERS);
+			code.push(r);
+			code.load(reg(r));
+			code.op(BASTORE);
+		}
+		code.op(ALOAD, LOCAL_CPU);
+		code.load(LOCAL_PC);
+		code.field(PUTFIELD, CPU_CLASS, "pc", "C");
+		code.load(LOCAL_COUNT);
+		code.op(IRETURN);
+	}
+
+	private static int reg(int r) {
+		return LOCAL_FIRST_REGISTER + r;
+	}
+
+	private static boolean isJump(int opcode) {
+		return opcode == 0x18 || opcode == 0x20 || opcode == 0x28 || opcode == 0xC2 || opcode == 0xC3
+				|| opcode == 0xCA;
+	}
+
+	private static int instructionStart(BlockCache.Block block, int i) {
+		return block.operandAddresses[i] - (block.opcodes[i] > 0xFF ? 2 : 1);
+	}
+
+	/**
+	 * @return the address just past instruction i
+	 */
+	private static int nextAddress(BlockCache.Block block, int i) {
+		return (instructionStart(block, i) + BlockCache.instructionLength(block.opcodes[i])) & 0xFFFF;
+	}
+
+	private static int relativeTarget(BlockCache.Block block, int i) {
+		return (block.operandAddresses[i] + 1 + (byte) block.operands[i]) & 0xFFFF;
+	}
+
+	/**
+	 * Builds the class file: a constructor and run(CPU)
+	 */
+	private byte[] writeClass(String name) throws IOException {
+		int thisClass = pool.classRef(name);
+		int superClass = pool.classRef("java/lang/Object");
+		int blockInterface = pool.classRef(BLOCK_CLASS);
+		int objectInit = pool.methodRef("java/lang/Object", "<init>", "()V");
+		int codeName = pool.utf8("Code");
+		int stackMapName = pool.utf8("StackMapTable");
+		int initName = pool.utf8("<init>");
+		int initType = pool.utf8("()V");
+		int runName = pool.utf8("run");
+		int runType = pool.utf8("(L" + CPU_CLASS + ";)I");
+		int cpuClass = pool.classRef(CPU_CLASS);
+		int arrayClass = pool.classRef("[B");
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0xCAFEBABE);
+		out.writeShort(0);
+		out.writeShort(CLASS_VERSION);
+		pool.write(out);
+		out.writeShort(0x0010 | 0x0020); // final, super
+		out.writeShort(thisClass);
+		out.writeShort(superClass);
+		out.writeShort(1);
+		out.writeShort(blockInterface);
+		out.writeShort(0); // fields
+		out.writeShort(2); // methods
+
+		// public <init>() { super(); }
+		byte[] init = { 0x2A, (byte) INVOKESPECIAL, (byte) (objectInit >>> 8), (byte) objectInit, (byte) RETURN };
+		out.writeShort(0x0001);
+		out.writeShort(initName);
+		out.writeShort(initType);
+		out.writeShort(1);
+		out.writeShort(codeName);
+		out.writeInt(12 + init.length);
+		out.writeShort(1);
+		out.writeShort(1);
+		out.writeInt(init.length);
+		out.write(init);
+		out.writeShort(0);
+		out.writeShort(0);
+
+		// public int run(CPU)
+		byte[] body = code.toByteArray();
+		byte[] frames = code.stackMapFrames(thisClass, cpuClass, arrayClass);
+		out.writeShort(0x0001);
+		out.writeShort(runName);
+		out.writeShort(runType);
+		out.writeShort(1);
+		out.writeShort(codeName);
+		out.writeInt(12 + body.length + (frames.length > 0 ? 6 + frames.length : 0));
+		out.writeShort(8);
+		out.writeShort(LOCAL_TOTAL);
+		out.writeInt(body.length);
+		out.write(body);
+		out.writeShort(0);
+		if (frames.length > 0) {
+			out.writeShort(1);
+			out.writeShort(stackMapName);
+			out.writeInt(frames.length);
+			out.write(frames);
+		} else {
+			out.writeShort(0);
+		}
+
+		out.writeShort(0); // class attributes
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Constant pool of the class being written
+	 */
+	private static class ConstantPool {
+
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final DataOutputStream out = new DataOutputStream(bytes);
+		private final Map<String, Integer> entries = new HashMap<>();
+		private int count = 1;
+
+		int utf8(String value) {
+			return entry("U" + value, () -> {
+				out.writeByte(1);
+				out.writeUTF(value);
+			});
+		}
+
+		int integer(int value) {
+			return entry("I" + value, () -> {
+				out.writeByte(3);
+				out.writeInt(value);
+			});
+		}
+
+		int classRef(String name) {
+			int nameIndex = utf8(name);
+			return entry("C" + name, () -> {
+				out.writeByte(7);
+				out.writeShort(nameIndex);
+			});
+		}
+
+		int fieldRef(String owner, String name, String type) {
+			return memberRef(9, owner, name, type);
+		}
+
+		int methodRef(String owner, String name, String type) {
+			return memberRef(10, owner, name, type);
+		}
+
+		private int memberRef(int tag, String owner, String name, String type) {
+			int ownerIndex = classRef(owner);
+			int nameIndex = utf8(name);
+			int typeIndex = utf8(type);
+			int nameAndType = entry("N" + name + ":" + type, () -> {
+				out.writeByte(12);
+				out.writeShort(nameIndex);
+				out.writeShort(typeIndex);
+			});
+			return entry(tag + owner + "." + name + ":" + type, () -> {
+				out.writeByte(tag);
+				out.writeShort(ownerIndex);
+				out.writeShort(nameAndType);
+			});
+		}
+
+		private int entry(String key, Entry writer) {
+			Integer index = entries.get(key);
+			if (index == null) {
+				try {
+					writer.write();
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+				index = count++;
+				entries.put(key, index);
+			}
+			return index;
+		}
+
+		void write(DataOutputStream classFile) throws IOException {
+			classFile.writeShort(count);
+			classFile.write(bytes.toByteArray());
+		}
+
+		private interface Entry {
+			void write() throws IOException;
+		}
+
+	}
+
+	/**
+	 * Bytecode of run(CPU), with forward branches patched once their labels
+	 * are bound
+	 */
+	private class Code {
+
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final List<Integer> labels = new ArrayList<>();
+		private final List<int[]> branches = new ArrayList<>();
+		private final TreeSet<Integer> targets = new TreeSet<>();
+
+		void op(int opcode) {
+			bytes.write(opcode);
+		}
+
+		void op(int opcode, int index) {
+			bytes.write(opcode);
+			bytes.write(index);
+		}
+
+		void load(int local) {
+			op(ILOAD, local);
+		}
+
+		void store(int local) {
+			op(ISTORE, local);
+		}
+
+		void push(int value) {
+			if (value >= -1 && value <= 5) {
+				op(ICONST_0 + value);
+			} else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+				op(BIPUSH, value & 0xFF);
+			} else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+				op(SIPUSH);
+				writeShort(value);
+			} else {
+				op(LDC_W);
+				writeShort(pool.integer(value));
+			}
+		}
+
+		void field(int opcode, String owner, String name, String type) {
+			op(opcode);
+			writeShort(pool.fieldRef(owner, name, type));
+		}
+
+		void invoke(int opcode, String owner, String name, String type) {
+			op(opcode);
+			writeShort(pool.methodRef(owner, name, type));
+		}
+
+		int newLabel() {
+			labels.add(-1);
+			return labels.size() - 1;
+		}
+
+		void bind(int label) {
+			labels.set(label, bytes.size());
+			targets.add(bytes.size());
+		}
+
+		void jump(int opcode, int label) {
+			branches.add(new int[] { bytes.size(), label });
+			op(opcode);
+			writeShort(0);
+		}
+
+		private void writeShort(int value) {
+			bytes.write(value >>> 8);
+			bytes.write(value);
+		}
+
+		byte[] toByteArray() {
+			byte[] result = bytes.toByteArray();
+			for (int[] branch : branches) {
+				int offset = labels.get(branch[1]) - branch[0];
+				result[branch[0] + 1] = (byte) (offset >>> 8);
+				result[branch[0] + 2] = (byte) offset;
+			}
+			return result;
+		}
+
+		/**
+		 * Every branch target has the same frame: this, the CPU, the register
+		 * file and the int locals, with nothing on the stack
+		 */
+		byte[] stackMapFrames(int thisClass, int cpuClass, int arrayClass) throws IOException {
+			if (targets.isEmpty()) {
+				return new byte[0];
+			}
+			ByteArrayOutputStream frameBytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(frameBytes);
+			out.writeShort(targets.size());
+			int previous = -1;
+			for (int target : targets) {
+				out.writeByte(255); // full_frame
+				out.writeShort(target - previous - 1);
+				out.writeShort(LOCAL_TOTAL);
+				out.writeByte(7);
+				out.writeShort(thisClass);
+				out.writeByte(7);
+				out.writeShort(cpuClass);
+				out.writeByte(7);
+				out.writeShort(arrayClass);
+				for (int local = LOCAL_FIRST_REGISTER; local < LOCAL_TOTAL; local++) {
+					out.writeByte(1); // int
+				}
+				out.writeShort(0);
+				previous = target;
+			}
+			return frameBytes.toByteArray();
+		}
+
+	}
+
+}
@@ -8,13 +8,16 @@
 
 package com.echodrop.gameboy.core;
 
-import java.util.HashMap;
+import java.lang.invoke.MethodHandles;
+import java.util.Arrays;
 import java.util.logging.Logger;
 
 import com.echodrop.gameboy.exceptions.InstructionNotImplementedException;
+import com.echodrop.gameboy.graphics.GPU;
+import com.echodrop.gameboy.interfaces.IStopCondition;
+import com.echodrop.gameboy.logging.TraceBuffer;
 import com.echodrop.gameboy.util.NumberUtils;
 import com.echodrop.gameboy.util.RegisterUtils;
-import com.echodrop.gameboy.util.StringUtils;
 
 /**
  * Emulation core for Sharp LR35902 microprocessor
@@ -24,15 +27,83 @@ public class CPU {
 	private TailspinGB system;
 	private static final Logger logger = Logger.getLogger(CPU.class.getName());
 
+	/*
+	 * Indices of the CPU registers within the register file. These, the flag
+	 * masks and the flag-setting operations are package-private for
+	 * BlockCompiler and AluTables.
+	 */
+	static final int A = 0;
+	static final int B = 1;
+	static final int C = 2;
+	static final int D = 3;
+	static final int E = 4;
+	static final int H = 5;
+	static final int L = 6;
+	static final int F = 7;
+
+	/*
+	 * Flag masks within F. Bits are numbered from the most significant end, as
+	 * in RegisterUtils.readBit and RegisterUtils.setBit.
+	 */
+	static final int ZERO_FLAG = 0x01;
+	static final int OPERATION_FLAG = 0x02;
+	static final int HALF_CARRY_FLAG = 0x04;
+	static final int FULL_CARRY_FLAG = 0x08;
+
+	/*
+	 * Flag-setting operations, recorded by setFlags(). Each one names a rule
+	 * in computeFlags() for deriving Z, N, H and C from the operands and
+	 * result of the last ALU operation.
+	 */
+	static final int FLAGS_NONE = 0;
+	static final int FLAGS_ADD = 1;
+	static final int FLAGS_ADD_MEM = 2;
+	static final int FLAGS_SUB = 3;
+	static final int FLAGS_SBC = 4;
+	static final int FLAGS_INC = 5;
+	static final int FLAGS_DEC = 6;
+	static final int FLAGS_AND = 7;
+	static final int FLAGS_LOGIC = 8;
+	static final int FLAGS_ROTATE = 9;
+	static final int FLAGS_CP = 10;
+	static final int FLAGS_CP_MEM = 11;
+	static final int FLAGS_BIT = 12;
+	static final int FLAGS_CPL = 13;
+	static final int FLAGS_ADD16 = 14;
+
+	/**
+	 * True for the operations that overwrite all four flags regardless of
+	 * their previous state, so a pending operation can be dropped unevaluated
+	 */
+	private static final boolean[] SETS_ALL_FLAGS = { false, true, true, true, false, false, false, true, true, true,
+			false, true, false, false, false };
+
+	/* Cycles that pass for each step while halted */
+	private static final int HALT_CYCLES = 4;
+
+	/* Cycles taken to jump to an interrupt handler */
+	private static final int INTERRUPT_CYCLES = 20;
+
 	/* CPU registers */
-	private Register a;
-	private Register b;
-	private Register c;
-	private Register d;
-	private Register e;
-	private Register h;
-	private Register l;
-	private Register f;
+	private final byte[] registers = new byte[8];
+
+	/**
+	 * When set, flag-setting operations only record their operands and
+	 * result, and F is worked out the next time something reads it.
+	 */
+	private boolean lazyFlags;
+
+	/* The last flag-setting operation that hasn't been applied to F yet */
+	private int pendingFlagOp;
+	private byte flagOperand1;
+	private byte flagOperand2;
+	private byte flagResult;
+
+	/**
+	 * Register objects backed by the register file, for the debugger and
+	 * breakpoints. These stay valid across resets.
+	 */
+	private final Register[] registerViews = new Register[8];
 
 	/**
 	 * This flag is not present in the actual hardware, it's here for
@@ -46,27 +117,100 @@ public class CPU {
 	private char pc; // program counter
 	private char sp; // stack pointer
 
-	/* Clocks */
-	private Register clockT;
-	private Register clockM;
-
 	/* Memory Management Unit */
 	private MMU mem;
+	private Scheduler scheduler;
+	private InterruptController interrupts;
+	private TraceBuffer trace;
 
-	/* Opcode tables */
-	private HashMap<Byte, Opcode> opCodes;
-	private HashMap<Byte, Opcode> cbOpCodes;
+	/*
+	 * Opcode tables, indexed by the unsigned value of the opcode. Built once
+	 * and shared by every CPU, with handlers that take the CPU to run on.
+	 */
+	private static final Opcode[] OPCODES = new Opcode[256];
+	private static final Opcode[] CB_OPCODES = new Opcode[256];
+
+	/**
+	 * Occupies every slot in both opcode tables that has no implementation, so
+	 * dispatch never has to check for a missing entry
+	 */
+	private static final Opcode UNIMPLEMENTED = new Opcode("UNIMPLEMENTED", cpu -> cpu.unimplemented(), (byte) 0);
+
+	/*
+	 * Sequences of opcodes (0xCBxx if prefixed) that the block cache runs as
+	 * one handler when fusion is on, and their handlers. Picked from
+	 * OpcodeProfiler runs over clear, fill and search loops and the loop
+	 * tests they end with. Each handler takes care of the timing of its
+	 * parts, so the fused opcodes themselves take no time.
+	 */
+	private static final int[][] FUSED_SEQUENCES = { { 0x32, 0xCB7C, 0x20 }, { 0x22, 0x1B }, { 0x2A, 0xFE, 0x20 },
+			{ 0x7C, 0xFE, 0x20 } };
+	private static final Opcode[] FUSED_OPCODES = {
+			new Opcode("LDD (HL), A; BIT 7 H; JR NZ, n", cpu -> cpu.clearLoop(), (byte) 0),
+			new Opcode("LDI (HL), A; DEC DE", cpu -> cpu.fillStep(), (byte) 0),
+			new Opcode("LD A, (HL+); CP n; JR NZ, n", cpu -> cpu.searchLoop(), (byte) 0),
+			new Opcode("LD A, H; CP n; JR NZ, n", cpu -> cpu.pageLoop(), (byte) 0) };
+
+	static {
+		Arrays.fill(OPCODES, UNIMPLEMENTED);
+		Arrays.fill(CB_OPCODES, UNIMPLEMENTED);
+		loadOpCodes();
+		loadCbOpCodes();
+	}
+
+	/*
+	 * Decoded blocks, used instead of step() by runFor and runFrame when
+	 * enabled
+	 */
+	private BlockCache blockCache;
+	private boolean blockCacheEnabled;
+
+	/*
+	 * Number of parts the last fused handler ran, normally all of them, fewer
+	 * if it stopped early after writing to its own code
+	 */
+	private int fusedPartsRun;
+
+	/* Counts opcode pairs and triples run by step(), when set */
+	private OpcodeProfiler profiler;
+
+	/* Compiles blocks that run often to bytecode, when enabled */
+	private BlockCompiler blockCompiler;
+	private boolean jitEnabled;
+
+	/*
+	 * Immediate operand of the instruction being run from the block cache,
+	 * already read at decode time. -1 when running from memory.
+	 */
+	private int boundOperand = -1;
+
+	/* Set by HALT. While halted, each step just lets 4 cycles pass. */
+	private boolean halted;
+
+	/*
+	 * When set, runFor and runFrame skip ahead over HALT and polling loops
+	 * instead of running them, up to the next scheduled event
+	 */
+	private boolean fastForwardEnabled = true;
+
+	/* Start of the polling loop the last backward jump went to, or -1 */
+	private int idleLoopStart = -1;
+
+	/* Cycles skipped by fast forwarding since the last reset */
+	private long fastForwardCycles;
 
 	private boolean running;
 
 	public CPU(TailspinGB system) {
+		this.createRegisterViews();
 		this.initialize();
 		this.system = system;
 		this.mem = system.getMem();
-		this.opCodes = new HashMap<Byte, Opcode>();
-		this.cbOpCodes = new HashMap<Byte, Opcode>();
-		this.loadOpCodes();
-		this.loadCbOpCodes();
+		this.scheduler = system.getScheduler();
+		this.interrupts = system.getInterrupts();
+		this.trace = system.getTrace();
+		this.blockCache = new BlockCache(mem, OPCODES, CB_OPCODES, UNIMPLEMENTED, FUSED_SEQUENCES, FUSED_OPCODES);
+		this.blockCompiler = new BlockCompiler(MethodHandles.lookup());
 		this.running = false;
 	}
 
@@ -74,25 +218,22 @@ public class CPU {
 	 * Resets the CPU to its initial state
 	 */
 	public void initialize() {
-		setA(new Register((byte) 0x0, "A"));
-		setB(new Register((byte) 0x0, "B"));
-		setC(new Register((byte) 0x0, "C"));
-		setD(new Register((byte) 0x0, "D"));
-		setE(new Register((byte) 0x0, "E"));
-		setH(new Register((byte) 0x0, "H"));
-		setL(new Register((byte) 0x0, "L"));
-		setF(new Register((byte) 0x0, "F"));
-
-		setZeroFlag(false);
-		setOperationFlag(false);
-		setHalfCarryFlag(false);
-		setFullCarryFlag(false);
+		Arrays.fill(registers, (byte) 0x0);
+		pendingFlagOp = FLAGS_NONE;
+		halted = false;
+		idleLoopStart = -1;
+		fastForwardCycles = 0;
 
 		pc = 0;
 		sp = 0;
+	}
 
-		setClockT(new Register((byte) 0x0, "Clock T"));
-		setClockM(new Register((byte) 0x0, "Clock M"));
+	private void createRegisterViews() {
+		String[] names = { "A", "B", "C", "D", "E", "H", "L", "F" };
+		for (int i = 0; i < registerViews.length; i++) {
+			registerViews[i] = new RegisterView(i, names[i]);
+		}
+		registerViews[F] = new FlagRegisterView(names[F]);
 	}
 
 	public void initLogging() {
@@ -110,92 +251,423 @@ public class CPU {
 		}
 	}
 
+	/**
+	 * Runs instructions until at least the given number of cycles have passed
+	 */
+	public RunResult runFor(long cycles) {
+		return run(cycles, false, null);
+	}
+
+	/**
+	 * Runs instructions until at least the given number of cycles have
+	 * passed, or the stop condition is met
+	 */
+	public RunResult runFor(long cycles, IStopCondition condition) {
+		return run(cycles, false, condition);
+	}
+
+	/**
+	 * Runs instructions until the GPU finishes the current frame
+	 */
+	public RunResult runFrame() {
+		return run(Long.MAX_VALUE, true, null);
+	}
+
+	/**
+	 * Runs instructions until the GPU finishes the current frame, or the stop
+	 * condition is met
+	 */
+	public RunResult runFrame(IStopCondition condition) {
+		return run(Long.MAX_VALUE, true, condition);
+	}
+
+	/**
+	 * Runs a batch of instructions. Always runs at least one instruction.
+	 * 
+	 * With the block cache on, whole blocks run between checks, so a batch
+	 * can overshoot its budget or the end of a frame by a few instructions.
+	 * Batches with a stop condition always use the plain interpreter, so
+	 * breakpoints are exact.
+	 * 
+	 * With fast forwarding on, time spent halted or spinning in a polling
+	 * loop is skipped up to the next scheduled event, which is the earliest
+	 * anything the loop reads can change. Loops that read the timer counters,
+	 * which change in between events, are never skipped. Only whole passes
+	 * that would finish before then are skipped, so the result is the same as
+	 * running them.
+	 */
+	private RunResult run(long budget, boolean untilFrame, IStopCondition condition) {
+		GPU gpu = system.getGpu();
+		long startNanos = System.nanoTime();
+		long start = scheduler.getCycles();
+		long end = budget > Long.MAX_VALUE - start ? Long.MAX_VALUE : start + budget;
+		long frame = gpu.getFrameCount();
+		long instructions = 0;
+		StopReason reason = StopReason.CYCLES;
+
+		boolean useBlocks = blockCacheEnabled && condition == null;
+		boolean fastForward = fastForwardEnabled && condition == null && !TraceBuffer.ENABLED;
+
+		do {
+			char before = pc;
+			if (halted) {
+				if (fastForward && !interrupts.hasRequest()) {
+					instructions += fastForward(HALT_CYCLES, 1, end);
+				}
+				step();
+				instructions++;
+			} else if (useBlocks && interrupts.pending == 0) {
+				instructions += runBlock();
+			} else {
+				step();
+				instructions++;
+			}
+			if (untilFrame && gpu.getFrameCount() != frame) {
+				reason = StopReason.FRAME;
+				break;
+			}
+			if (condition != null && condition.shouldStop(this)) {
+				reason = StopReason.CONDITION;
+				break;
+			}
+
+			// Only once the batch is known to carry on
+			if (fastForward && pc <= before && !halted && interrupts.pending == 0) {
+				instructions += skipPollingLoop(before, end);
+			}
+		} while (scheduler.getCycles() < end);
+
+		long cycles = scheduler.getCycles() - start;
+		system.addRunTime(cycles, System.nanoTime() - startNanos);
+		return new RunResult(cycles, instructions, reason);
+	}
+
+	/**
+	 * Called after a backward jump from the given address. If it went from the
+	 * end of a polling loop back to its start twice in a row, the loop has
+	 * made a full pass and its registers have settled, so the passes that
+	 * finish before the next event can be skipped.
+	 * 
+	 * @return the number of instructions skipped
+	 */
+	private long skipPollingLoop(char from, long end) {
+		BlockCache.Block loop = blockCache.lookup(pc);
+		if (loop == null || loop.loopCycles == 0 || from >= loop.operandAddresses[loop.length - 1]) {
+			idleLoopStart = -1;
+			return 0;
+		}
+		if (idleLoopStart != pc) {
+			idleLoopStart = pc;
+			return 0;
+		}
+		// The loop may be reading a timer counter through HL or DE
+		if (Timer.isCounter(readDualRegister(H, L)) || Timer.isCounter(readDualRegister(D, E))) {
+			return 0;
+		}
+		return fastForward(loop.loopCycles, loop.length, end);
+	}
+
+	/**
+	 * Lets whole periods of idle time pass at once, as many as finish before
+	 * the next scheduled event and before end
+	 * 
+	 * @param period
+	 *            cycles in one period, such as a pass of a polling loop
+	 * @param length
+	 *            instructions run in one period
+	 * @return the number of instructions skipped
+	 */
+	private long fastForward(int period, int length, long end) {
+		long now = scheduler.getCycles();
+		long limit = Math.min(scheduler.getNextEventTime(), end);
+		long periods = Math.min((limit - 1 - now) / period, Integer.MAX_VALUE / period);
+		if (periods <= 0) {
+			return 0;
+		}
+		scheduler.advance((int) (periods * period));
+		fastForwardCycles += periods * period;
+		return periods * length;
+	}
+
 	/**
 	 * Advances the emulation state by one instruction
 	 */
 	public void step() {
-		logger.info("Instruction pointer: 0x" + Integer.toHexString(pc));
+		if (interrupts.pending != 0) {
+			serviceInterrupts();
+		}
+		if (halted) {
+			if (!interrupts.hasRequest()) {
+				scheduler.advance(HALT_CYCLES);
+				return;
+			}
+			// Woken with IME off, so carry on after the HALT
+			halted = false;
+		}
 
 		/* Grab next instruction and increment instruction pointer */
 		byte opcode = mem.readByte(pc++);
 
-		logger.fine("Opcode: 0x" + Integer.toHexString(opcode & 0xFF));
-
 		/* mask instruction pointer to 16 bits */
 		pc &= 65535;
 
 		/* Execute the instruction */
 		Opcode instruction;
 		if ((opcode & 0xFF) == 0xCB) {
-			logger.fine("CB prefixed opcode detected");
 			opcode = mem.readByte((char) (pc));
-			logger.fine("Opcode: 0x" + Integer.toHexString(opcode & 0xFF));
-			instruction = cbOpCodes.get(opcode);
+			if (TraceBuffer.ENABLED) {
+				trace.record(TraceBuffer.INSTRUCTION, pc - 1, 0xCB00 | (opcode & 0xFF));
+			}
+			if (profiler != null) {
+				profiler.record(0xCB00 | (opcode & 0xFF));
+			}
+			instruction = CB_OPCODES[opcode & 0xFF];
 			pc++;
 		} else {
-			instruction = opCodes.get(opcode);
+			if (TraceBuffer.ENABLED) {
+				trace.record(TraceBuffer.INSTRUCTION, pc - 1, opcode & 0xFF);
+			}
+			if (profiler != null) {
+				profiler.record(opcode & 0xFF);
+			}
+			instruction = OPCODES[opcode & 0xFF];
 		}
 
-		if (instruction != null) {
-			logger.fine(instruction.getMnemonic());
-			instruction.exec();
+		instruction.exec(this);
+		finishInstruction(instruction);
+	}
 
-			/*
-			 * Increment clocks by the amount of time that passed during the
-			 * instruction
-			 */
+	/**
+	 * Runs the block starting at pc, or a single step if there's no block
+	 * for it
+	 * 
+	 * @return the number of instructions run
+	 */
+	private int runBlock() {
+		BlockCache.Block block = blockCache.lookup(pc);
+		if (block == null || block.length == 0) {
+			step();
+			return 1;
+		}
+		// Blocks from a switchable ROM bank can be older than their page's
+		// generation, so writes are checked against the one they started with
+		int generation = mem.getPageGeneration(block.page);
+
+		// Whether an interrupt could be raised part way through the block. If
+		// not, it can run without checking between instructions.
+		boolean interruptible = interrupts.isArmed()
+				&& scheduler.getNextEventTime() - scheduler.getCycles() <= block.maxCycles;
+
+		if (jitEnabled && !TraceBuffer.ENABLED && !interruptible) {
+			CompiledBlock compiled = block.compiled;
+			if (compiled == null && ++block.runs == BlockCompiler.HOT_THRESHOLD) {
+				compiled = blockCompiler.compile(block);
+				block.compiled = compiled;
+			}
+			if (compiled != null) {
+				// Compiled code reads and writes F directly
+				evaluateFlags();
+				int count = compiled.run(this);
+				if (count > 0) {
+					return count;
+				}
+			}
+		}
 
-			byte clockIncrement = 0;
+		// The fused copy has the same instructions, some of them run as one
+		BlockCache.Block entries = block.fused != null && !interruptible ? block.fused : block;
+		int count = 0;
+		for (int i = 0; i < entries.length; i++) {
+			Opcode instruction = entries.instructions[i];
+			pc = entries.operandAddresses[i];
+			if (TraceBuffer.ENABLED) {
+				int code = entries.opcodes[i];
+				trace.record(TraceBuffer.INSTRUCTION, pc - (code > 0xFF ? 2 : 1), code);
+			}
 
-			if (isConditionalNotExecFlag()) {
-				clockIncrement = instruction.getConditional_time();
-			} else {
-				clockIncrement = instruction.getMTime();
+			boundOperand = entries.operands[i];
+			try {
+				instruction.exec(this);
+			} finally {
+				boundOperand = -1;
 			}
+			finishInstruction(instruction);
+			count += entries.parts != null && entries.parts[i] > 1 ? fusedPartsRun : 1;
 
-			getClockT().setValue(getClockT().getValue() + clockIncrement / 4);
-			getClockM().setValue(getClockM().getValue() + clockIncrement);
+			// The block's page was written to, so the rest of it may be stale
+			if (mem.getPageGeneration(block.page) != generation) {
+				return count;
+			}
+			// An interrupt has to be serviced before the next instruction
+			if (interrupts.pending != 0) {
+				return count;
+			}
+			// OAM DMA has started, so the rest of the block may not be readable
+			if (mem.isBusLocked()) {
+				return count;
+			}
+		}
+		return count;
+	}
 
-			system.getGpu().incrementModeClock((byte) (clockIncrement / 4));
+	/**
+	 * Called before an instruction when the interrupt controller has
+	 * something pending. Either lets an EI from the instruction before take
+	 * effect, or jumps to the handler of the highest priority interrupt.
+	 */
+	private void serviceInterrupts() {
+		if ((interrupts.pending & InterruptController.EI_PENDING) != 0) {
+			interrupts.finishEnable();
+			return;
+		}
+
+		halted = false;
+		char vector = (char) interrupts.acknowledge();
+		if (TraceBuffer.ENABLED) {
+			trace.record(TraceBuffer.INTERRUPT, pc, vector);
+		}
+		push(pc);
+		pc = vector;
+		scheduler.advance(INTERRUPT_CYCLES);
+	}
 
+	/**
+	 * Increments clocks by the amount of time that passed during the
+	 * instruction
+	 */
+	private void finishInstruction(Opcode instruction) {
+		byte clockIncrement = 0;
+
+		if (isConditionalNotExecFlag()) {
+			clockIncrement = instruction.getConditional_time();
 		} else {
-			logger.severe("Unimplemented instruction: " + Integer.toHexString(opcode & 0xFF));
-			throw new InstructionNotImplementedException(opcode, (char) (pc - 1));
+			clockIncrement = instruction.getMTime();
 		}
 
-		system.getGpu().clockStep();
+		scheduler.advance(clockIncrement);
 		setConditionalNotExecFlag(false);
 	}
 
+	/**
+	 * Ends a fused handler after the given number of parts, leaving pc at the
+	 * start of the next one
+	 */
+	private void stopFusion(int next, int parts) {
+		pc = (char) next;
+		fusedPartsRun = parts;
+	}
+
+	/**
+	 * LDD (HL), A; BIT 7 H; JR NZ, n. Clears memory downwards until H drops
+	 * below 0x80, as the bootstrap does with video RAM.
+	 */
+	private void clearLoop() {
+		char start = (char) (pc - 1);
+		byte offset = (byte) boundOperand;
+		int generation = mem.getPageGeneration(start >>> 8);
+
+		loadDecrement(H, L, A);
+		finishInstruction(OPCODES[0x32]);
+		if (mem.getPageGeneration(start >>> 8) != generation || interrupts.pending != 0) {
+			stopFusion(start + 1, 1);
+			return;
+		}
+
+		bit(7, H);
+		finishInstruction(CB_OPCODES[0x7C]);
+
+		pc = (char) (start + 5);
+		relativeJump(!isZeroFlag(), offset);
+		finishInstruction(OPCODES[0x20]);
+		fusedPartsRun = 3;
+	}
+
+	/**
+	 * LDI (HL), A; DEC DE. The body of a loop that fills DE bytes from HL
+	 * upwards.
+	 */
+	private void fillStep() {
+		char start = (char) (pc - 1);
+		int generation = mem.getPageGeneration(start >>> 8);
+
+		loadIncrement(H, L, A, true);
+		finishInstruction(OPCODES[0x22]);
+		if (mem.getPageGeneration(start >>> 8) != generation || interrupts.pending != 0) {
+			stopFusion(start + 1, 1);
+			return;
+		}
+
+		decrement(D, E);
+		finishInstruction(OPCODES[0x1B]);
+		stopFusion(start + 2, 2);
+	}
+
+	/**
+	 * LD A, (HL+); CP n; JR NZ, n. Searches upwards from HL for a byte. The
+	 * operands are packed as n | offset << 8.
+	 */
+	private void searchLoop() {
+		char start = (char) (pc - 1);
+		int operands = boundOperand;
+
+		loadIncrement(A, H, L, false);
+		finishInstruction(OPCODES[0x2A]);
+
+		// Same as compare(), with the operand already read
+		setFlags(FLAGS_CP, registers[A], (byte) operands, registers[A]);
+		finishInstruction(OPCODES[0xFE]);
+
+		pc = (char) (start + 5);
+		relativeJump(!isZeroFlag(), (byte) (operands >>> 8));
+		finishInstruction(OPCODES[0x20]);
+		fusedPartsRun = 3;
+	}
+
+	/**
+	 * LD A, H; CP n; JR NZ, n. Ends a loop that runs until HL reaches page n.
+	 * The operands are packed as n | offset << 8.
+	 */
+	private void pageLoop() {
+		char start = (char) (pc - 1);
+		int operands = boundOperand;
+
+		load(A, H);
+		finishInstruction(OPCODES[0x7C]);
+
+		setFlags(FLAGS_CP, registers[A], (byte) operands, registers[A]);
+		finishInstruction(OPCODES[0xFE]);
+
+		pc = (char) (start + 5);
+		relativeJump(!isZeroFlag(), (byte) (operands >>> 8));
+		finishInstruction(OPCODES[0x20]);
+		fusedPartsRun = 3;
+	}
+
 	/**
 	 * Writes a 16-bit value to two 8-bit registers as if they were a single
-	 * unit
+	 * unit. r1 receives the high byte.
 	 */
-	private void writeDualRegister(Register r1, Register r2, char value) {
-		byte[] bytes = NumberUtils.wordToBytes(value);
-		r2.setValue(bytes[0]);
-		r1.setValue(bytes[1]);
+	private void writeDualRegister(int r1, int r2, char value) {
+		registers[r1] = (byte) (value >>> 8);
+		registers[r2] = (byte) value;
 	}
 
 	/**
 	 * Reads a 16-bit value from two 8-bit registers as if they were a single
-	 * unit
+	 * unit. r1 holds the high byte.
 	 */
-	private char readDualRegister(Register r1, Register r2) {
-		return NumberUtils.bytesToWord(r2.getValue(), r1.getValue());
+	private char readDualRegister(int r1, int r2) {
+		return (char) (((registers[r1] & 0xFF) << 8) | (registers[r2] & 0xFF));
 	}
 
 	/**
 	 * Pushes a memory address onto the stack
 	 */
 	private void push(char address) {
-		byte[] b = NumberUtils.wordToBytes(address);
-		byte b1 = b[0];
-		byte b2 = b[1];
 		sp--;
-		mem.writeByte(sp, b2);
+		mem.writeByte(sp, (byte) (address >>> 8));
 		sp--;
-		mem.writeByte(sp, b1);
+		mem.writeByte(sp, (byte) address);
 	}
 
 	/**
@@ -212,129 +684,127 @@ public class CPU {
 	/**
 	 * Builds basic opcode table
 	 */
-	private void loadOpCodes() {
-		opCodes.put((byte) 0x00, new Opcode("NOP", () -> nop(), (byte) 4));
-		opCodes.put((byte) 0x17, new Opcode("RLA", () -> rl(getA()), (byte) 4));
-		opCodes.put((byte) 0x1F, new Opcode("RRA", () -> rr(getA()), (byte) 4));
-		opCodes.put((byte) 0x2F, new Opcode("CPL", () -> complement(), (byte) 4));
-		opCodes.put((byte) 0xFB, new Opcode("EI", () -> setInterruptsEnabled(true), (byte) 4));
-		opCodes.put((byte) 0xF3, new Opcode("DI", () -> setInterruptsEnabled(false), (byte) 4));
-		opCodes.put((byte) 0xBE, new Opcode("CP (HL)", () -> compareAddress(getH(), getL()), (byte) 8));
-		opCodes.put((byte) 0xAF, new Opcode("XOR A", () -> xor(getA()), (byte) 4));
-		opCodes.put((byte) 0xA9, new Opcode("XOR C", () -> xor(getC()), (byte) 4));
-		opCodes.put((byte) 0xE6, new Opcode("AND n", () -> and(), (byte) 8));
-		opCodes.put((byte) 0xA1, new Opcode("AND C", () -> and(getC()), (byte) 4));
-		opCodes.put((byte) 0xA7, new Opcode("AND A", () -> and(getA()), (byte) 4));
-		opCodes.put((byte) 0xB1, new Opcode("OR C", () -> or(getC()), (byte) 4));
-		opCodes.put((byte) 0xB0, new Opcode("OR B", () -> or(getB()), (byte) 4));
-		opCodes.put((byte) 0xB3, new Opcode("OR E", () -> or(getE()), (byte) 4));
-		opCodes.put((byte) 0x86, new Opcode("ADD A,(HL)", () -> addAddress(getA(), getH(), getL()), (byte) 8));
-		opCodes.put((byte) 0x87, new Opcode("ADD A,A", () -> add(getA()), (byte) 4));
-		opCodes.put((byte) 0x19, new Opcode("ADD HL, DE", () -> add(getH(), getL(), getD(), getE()), (byte) 8));
-		opCodes.put((byte) 0x90, new Opcode("SUB B", () -> subtract(getB()), (byte) 4));
-		opCodes.put((byte) 0x7B, new Opcode("LD A, E", () -> load(getA(), getE()), (byte) 4));
-		opCodes.put((byte) 0x7A, new Opcode("LD A, D", () -> load(getA(), getD()), (byte) 4));
-		opCodes.put((byte) 0x7F, new Opcode("LD A, A", () -> load(getA(), getA()), (byte) 4));
-		opCodes.put((byte) 0x5F, new Opcode("LD E, A", () -> load(getE(), getA()), (byte) 4));
-		opCodes.put((byte) 0x4f, new Opcode("LD C, A", () -> load(getC(), getA()), (byte) 4));
-		opCodes.put((byte) 0x67, new Opcode("LD H, A", () -> load(getH(), getA()), (byte) 4));
-		opCodes.put((byte) 0x79, new Opcode("LD A, C", () -> load(getA(), getC()), (byte) 4));
-		opCodes.put((byte) 0x57, new Opcode("LD D, A", () -> load(getD(), getA()), (byte) 4));
-		opCodes.put((byte) 0x47, new Opcode("LD B, A", () -> load(getB(), getA()), (byte) 4));
-		opCodes.put((byte) 0x7C, new Opcode("LD A, H", () -> load(getA(), getH()), (byte) 4));
-		opCodes.put((byte) 0x7D, new Opcode("LD A, L", () -> load(getA(), getL()), (byte) 4));
-		opCodes.put((byte) 0x6F, new Opcode("LD L, A", () -> load(getL(), getA()), (byte) 4));
-		opCodes.put((byte) 0x78, new Opcode("LD A, B", () -> load(getA(), getB()), (byte) 4));
-		opCodes.put((byte) 0x0E, new Opcode("LD C, n", () -> load(getC(), read8Immediate()), (byte) 8));
-		opCodes.put((byte) 0x16, new Opcode("LD D, n", () -> load(getD(), read8Immediate()), (byte) 8));
-		opCodes.put((byte) 0x26, new Opcode("LD H, n", () -> load(getH(), read8Immediate()), (byte) 8));
-		opCodes.put((byte) 0x3E, new Opcode("LD A, n", () -> load(getA(), read8Immediate()), (byte) 8));
-		opCodes.put((byte) 0x06, new Opcode("LD B, n", () -> load(getB(), read8Immediate()), (byte) 8));
-		opCodes.put((byte) 0x1E, new Opcode("LD E, n", () -> load(getE(), read8Immediate()), (byte) 8));
-		opCodes.put((byte) 0x2e, new Opcode("LD L, n", () -> load(getL(), read8Immediate()), (byte) 8));
-		opCodes.put((byte) 0x31, new Opcode("LD SP, nn", () -> sp = read16Immediate(), (byte) 12));
-		opCodes.put((byte) 0x21, new Opcode("LD HL, nn", () -> load(getH(), getL(), read16Immediate()), (byte) 12));
-		opCodes.put((byte) 0x11, new Opcode("LD DE, nn", () -> load(getD(), getE(), read16Immediate()), (byte) 12));
-		opCodes.put((byte) 0x01, new Opcode("LD BC, nn", () -> load(getB(), getC(), read16Immediate()), (byte) 12));
-		opCodes.put((byte) 0x5E, new Opcode("LD E, (HL)", () -> load(getE(), getH(), getL(), false), (byte) 8));
-		opCodes.put((byte) 0x6E, new Opcode("LD L, (HL)", () -> load(getL(), getH(), getL(), false), (byte) 8));
-		opCodes.put((byte) 0x1A, new Opcode("LD A, (DE)", () -> load(getA(), getD(), getE(), false), (byte) 8));
-		opCodes.put((byte) 0x7E, new Opcode("LD A, (HL)", () -> load(getA(), getH(), getL(), false), (byte) 8));
-		opCodes.put((byte) 0x4E, new Opcode("LD C, (HL)", () -> load(getC(), getH(), getL(), false), (byte) 8));
-		opCodes.put((byte) 0x46, new Opcode("LD B, (HL)", () -> load(getB(), getH(), getL(), false), (byte) 8));
-		opCodes.put((byte) 0x56, new Opcode("LD D, (HL)", () -> load(getD(), getH(), getL(), false), (byte) 8));
-		opCodes.put((byte) 0x77, new Opcode("LD (HL), A", () -> load(getH(), getL(), getA(), true), (byte) 8));
-		opCodes.put((byte) 0x73, new Opcode("LD (HL), E", () -> load(getH(), getL(), getE(), true), (byte) 8));
-		opCodes.put((byte) 0x70, new Opcode("LD (HL), B", () -> load(getH(), getL(), getB(), true), (byte) 8));
-		opCodes.put((byte) 0x71, new Opcode("LD (HL), C", () -> load(getH(), getL(), getC(), true), (byte) 8));
-		opCodes.put((byte) 0x12, new Opcode("LD (DE), A", () -> load(getD(), getE(), getA(), true), (byte) 8));
-		opCodes.put((byte) 0x36, new Opcode("LD (HL), n", () -> load(getH(), getL(), read8Immediate()), (byte) 12));
-		opCodes.put((byte) 0x32, new Opcode("LDD (HL), A", () -> loadDecrement(getH(), getL(), getA()), (byte) 8));
-		opCodes.put((byte) 0x22,
-				new Opcode("LDI (HL), A", () -> loadIncrement(getH(), getL(), getA(), true), (byte) 8));
-		opCodes.put((byte) 0xEA, new Opcode("LD nn A", () -> load(read16Immediate(), getA()), (byte) 16));
-		opCodes.put((byte) 0xE0,
-				new Opcode("LDH (n), A", () -> load((char) (0xFF00 + read8Immediate()), getA()), (byte) 12));
-		opCodes.put((byte) 0xF0,
-				new Opcode("LDH A, (n)", () -> load(getA(), (char) (0xFF00 + read8Immediate())), (byte) 12));
-		opCodes.put((byte) 0x2A,
-				new Opcode("LD A, (HL+)", () -> loadIncrement(getA(), getH(), getL(), false), (byte) 8));
-		opCodes.put((byte) 0xFA, new Opcode("LD A, (a16)", () -> load(getA(), read16Immediate()), (byte) 16));
-		opCodes.put((byte) 0xE2, new Opcode("LDH (C), A", () -> ldh(getC(), getA()), (byte) 8));
-		opCodes.put((byte) 0x9F, new Opcode("SBC A, A", () -> subtractWithCarry(getA()), (byte) 8));
-		opCodes.put((byte) 0x0C, new Opcode("INC C", () -> increment(getC()), (byte) 4));
-		opCodes.put((byte) 0x1C, new Opcode("INC E", () -> increment(getE()), (byte) 4));
-		opCodes.put((byte) 0x3C, new Opcode("INC A", () -> increment(getA()), (byte) 4));
-		opCodes.put((byte) 0x2C, new Opcode("INC L", () -> increment(getL()), (byte) 4));
-		opCodes.put((byte) 0x14, new Opcode("INC D", () -> increment(getD()), (byte) 4));
-		opCodes.put((byte) 0x04, new Opcode("INC B", () -> increment(getB()), (byte) 4));
-		opCodes.put((byte) 0x24, new Opcode("INC H", () -> increment(getH()), (byte) 4));
-		opCodes.put((byte) 0x23, new Opcode("INC HL", () -> increment(getH(), getL()), (byte) 8));
-		opCodes.put((byte) 0x13, new Opcode("INC DE", () -> increment(getD(), getE()), (byte) 8));
-		opCodes.put((byte) 0x05, new Opcode("DEC B", () -> decrement(getB()), (byte) 4));
-		opCodes.put((byte) 0x3D, new Opcode("DEC A", () -> decrement(getA()), (byte) 4));
-		opCodes.put((byte) 0x1D, new Opcode("DEC E", () -> decrement(getE()), (byte) 4));
-		opCodes.put((byte) 0x15, new Opcode("DEC D", () -> decrement(getD()), (byte) 4));
-		opCodes.put((byte) 0x0D, new Opcode("DEC C", () -> decrement(getC()), (byte) 4));
-		opCodes.put((byte) 0x0B, new Opcode("DEC BC", () -> decrement(getB(), getC()), (byte) 8));
-		opCodes.put((byte) 0x1B, new Opcode("DEC DE", () -> decrement(getD(), getE()), (byte) 8));
-		opCodes.put((byte) 0xc5, new Opcode("PUSH BC", () -> pushFrom(getB(), getC()), (byte) 16));
-		opCodes.put((byte) 0xD5, new Opcode("PUSH DE", () -> pushFrom(getD(), getE()), (byte) 16));
-		opCodes.put((byte) 0xE5, new Opcode("PUSH HL", () -> pushFrom(getH(), getL()), (byte) 16));
-		opCodes.put((byte) 0xF5, new Opcode("PUSH AF", () -> pushFrom(getA(), getF()), (byte) 16));
-		opCodes.put((byte) 0xC1, new Opcode("POP BC", () -> popTo(getB(), getC()), (byte) 12));
-		opCodes.put((byte) 0xD1, new Opcode("POP DE", () -> popTo(getD(), getE()), (byte) 12));
-		opCodes.put((byte) 0xE1, new Opcode("POP HL", () -> popTo(getH(), getL()), (byte) 12));
-		opCodes.put((byte) 0xF1, new Opcode("POP AF", () -> popTo(getA(), getF()), (byte) 12));
-		opCodes.put((byte) 0xCD, new Opcode("CALL nn", () -> call(), (byte) 24));
-		opCodes.put((byte) 0xC9, new Opcode("RET", () -> ret(true), (byte) 16));
-		opCodes.put((byte) 0xC0, new Opcode("RET NZ", () -> ret(!isZeroFlag()), (byte) 20, (byte) 8));
-		opCodes.put((byte) 0xD0, new Opcode("RET NC", () -> ret(!isFullCarryFlag()), (byte) 20, (byte) 8));
-		opCodes.put((byte) 0xC8, new Opcode("RET Z", () -> ret(isZeroFlag()), (byte) 20, (byte) 8));
-		opCodes.put((byte) 0xFE, new Opcode("CP n", () -> compare(), (byte) 8));
-		opCodes.put((byte) 0x28,
-				new Opcode("JR Z, n", () -> relativeJump(isZeroFlag(), read8Immediate()), (byte) 12, (byte) 8));
-		opCodes.put((byte) 0x18, new Opcode("JR n", () -> relativeJump(true, read8Immediate()), (byte) 12));
-		opCodes.put((byte) 0xC3, new Opcode("JP nn", () -> pc = read16Immediate(), (byte) 16));
-		opCodes.put((byte) 0xE9, new Opcode("JP (HL)", () -> jump(true, readDualRegister(getH(), getL())), (byte) 4));
-		opCodes.put((byte) 0xCA,
-				new Opcode("JP Z a16", () -> jump(isZeroFlag(), read16Immediate()), (byte) 16, (byte) 12));
-		opCodes.put((byte) 0xC2,
-				new Opcode("JP NZ a16", () -> jump(!isZeroFlag(), read16Immediate()), (byte) 16, (byte) 12));
-		opCodes.put((byte) 0x20,
-				new Opcode("JR NZ, n", () -> relativeJump(!isZeroFlag(), read8Immediate()), (byte) 12, (byte) 8));
-		opCodes.put((byte) 0xEF, new Opcode("RST 28H", () -> rst((byte) 0x28), (byte) 16));
+	private static void loadOpCodes() {
+		OPCODES[0x00] = new Opcode("NOP", cpu -> cpu.nop(), (byte) 4);
+		OPCODES[0x76] = new Opcode("HALT", cpu -> cpu.halt(), (byte) 4);
+		OPCODES[0x17] = new Opcode("RLA", cpu -> cpu.rl(A), (byte) 4);
+		OPCODES[0x1F] = new Opcode("RRA", cpu -> cpu.rr(A), (byte) 4);
+		OPCODES[0x2F] = new Opcode("CPL", cpu -> cpu.complement(), (byte) 4);
+		OPCODES[0xFB] = new Opcode("EI", cpu -> cpu.setInterruptsEnabled(true), (byte) 4);
+		OPCODES[0xF3] = new Opcode("DI", cpu -> cpu.setInterruptsEnabled(false), (byte) 4);
+		OPCODES[0xBE] = new Opcode("CP (HL)", cpu -> cpu.compareAddress(H, L), (byte) 8);
+		OPCODES[0xAF] = new Opcode("XOR A", cpu -> cpu.xor(A), (byte) 4);
+		OPCODES[0xA9] = new Opcode("XOR C", cpu -> cpu.xor(C), (byte) 4);
+		OPCODES[0xE6] = new Opcode("AND n", cpu -> cpu.and(), (byte) 8);
+		OPCODES[0xA1] = new Opcode("AND C", cpu -> cpu.and(C), (byte) 4);
+		OPCODES[0xA7] = new Opcode("AND A", cpu -> cpu.and(A), (byte) 4);
+		OPCODES[0xB1] = new Opcode("OR C", cpu -> cpu.or(C), (byte) 4);
+		OPCODES[0xB0] = new Opcode("OR B", cpu -> cpu.or(B), (byte) 4);
+		OPCODES[0xB3] = new Opcode("OR E", cpu -> cpu.or(E), (byte) 4);
+		OPCODES[0x86] = new Opcode("ADD A,(HL)", cpu -> cpu.addAddress(A, H, L), (byte) 8);
+		OPCODES[0x87] = new Opcode("ADD A,A", cpu -> cpu.add(A), (byte) 4);
+		OPCODES[0x19] = new Opcode("ADD HL, DE", cpu -> cpu.add(H, L, D, E), (byte) 8);
+		OPCODES[0x90] = new Opcode("SUB B", cpu -> cpu.subtract(B), (byte) 4);
+		OPCODES[0x7B] = new Opcode("LD A, E", cpu -> cpu.load(A, E), (byte) 4);
+		OPCODES[0x7A] = new Opcode("LD A, D", cpu -> cpu.load(A, D), (byte) 4);
+		OPCODES[0x7F] = new Opcode("LD A, A", cpu -> cpu.load(A, A), (byte) 4);
+		OPCODES[0x5F] = new Opcode("LD E, A", cpu -> cpu.load(E, A), (byte) 4);
+		OPCODES[0x4f] = new Opcode("LD C, A", cpu -> cpu.load(C, A), (byte) 4);
+		OPCODES[0x67] = new Opcode("LD H, A", cpu -> cpu.load(H, A), (byte) 4);
+		OPCODES[0x79] = new Opcode("LD A, C", cpu -> cpu.load(A, C), (byte) 4);
+		OPCODES[0x57] = new Opcode("LD D, A", cpu -> cpu.load(D, A), (byte) 4);
+		OPCODES[0x47] = new Opcode("LD B, A", cpu -> cpu.load(B, A), (byte) 4);
+		OPCODES[0x7C] = new Opcode("LD A, H", cpu -> cpu.load(A, H), (byte) 4);
+		OPCODES[0x7D] = new Opcode("LD A, L", cpu -> cpu.load(A, L), (byte) 4);
+		OPCODES[0x6F] = new Opcode("LD L, A", cpu -> cpu.load(L, A), (byte) 4);
+		OPCODES[0x78] = new Opcode("LD A, B", cpu -> cpu.load(A, B), (byte) 4);
+		OPCODES[0x0E] = new Opcode("LD C, n", cpu -> cpu.load(C, cpu.read8Immediate()), (byte) 8);
+		OPCODES[0x16] = new Opcode("LD D, n", cpu -> cpu.load(D, cpu.read8Immediate()), (byte) 8);
+		OPCODES[0x26] = new Opcode("LD H, n", cpu -> cpu.load(H, cpu.read8Immediate()), (byte) 8);
+		OPCODES[0x3E] = new Opcode("LD A, n", cpu -> cpu.load(A, cpu.read8Immediate()), (byte) 8);
+		OPCODES[0x06] = new Opcode("LD B, n", cpu -> cpu.load(B, cpu.read8Immediate()), (byte) 8);
+		OPCODES[0x1E] = new Opcode("LD E, n", cpu -> cpu.load(E, cpu.read8Immediate()), (byte) 8);
+		OPCODES[0x2e] = new Opcode("LD L, n", cpu -> cpu.load(L, cpu.read8Immediate()), (byte) 8);
+		OPCODES[0x31] = new Opcode("LD SP, nn", cpu -> cpu.sp = cpu.read16Immediate(), (byte) 12);
+		OPCODES[0x21] = new Opcode("LD HL, nn", cpu -> cpu.load(H, L, cpu.read16Immediate()), (byte) 12);
+		OPCODES[0x11] = new Opcode("LD DE, nn", cpu -> cpu.load(D, E, cpu.read16Immediate()), (byte) 12);
+		OPCODES[0x01] = new Opcode("LD BC, nn", cpu -> cpu.load(B, C, cpu.read16Immediate()), (byte) 12);
+		OPCODES[0x5E] = new Opcode("LD E, (HL)", cpu -> cpu.load(E, H, L, false), (byte) 8);
+		OPCODES[0x6E] = new Opcode("LD L, (HL)", cpu -> cpu.load(L, H, L, false), (byte) 8);
+		OPCODES[0x1A] = new Opcode("LD A, (DE)", cpu -> cpu.load(A, D, E, false), (byte) 8);
+		OPCODES[0x7E] = new Opcode("LD A, (HL)", cpu -> cpu.load(A, H, L, false), (byte) 8);
+		OPCODES[0x4E] = new Opcode("LD C, (HL)", cpu -> cpu.load(C, H, L, false), (byte) 8);
+		OPCODES[0x46] = new Opcode("LD B, (HL)", cpu -> cpu.load(B, H, L, false), (byte) 8);
+		OPCODES[0x56] = new Opcode("LD D, (HL)", cpu -> cpu.load(D, H, L, false), (byte) 8);
+		OPCODES[0x77] = new Opcode("LD (HL), A", cpu -> cpu.load(H, L, A, true), (byte) 8);
+		OPCODES[0x73] = new Opcode("LD (HL), E", cpu -> cpu.load(H, L, E, true), (byte) 8);
+		OPCODES[0x70] = new Opcode("LD (HL), B", cpu -> cpu.load(H, L, B, true), (byte) 8);
+		OPCODES[0x71] = new Opcode("LD (HL), C", cpu -> cpu.load(H, L, C, true), (byte) 8);
+		OPCODES[0x12] = new Opcode("LD (DE), A", cpu -> cpu.load(D, E, A, true), (byte) 8);
+		OPCODES[0x36] = new Opcode("LD (HL), n", cpu -> cpu.load(H, L, cpu.read8Immediate()), (byte) 12);
+		OPCODES[0x32] = new Opcode("LDD (HL), A", cpu -> cpu.loadDecrement(H, L, A), (byte) 8);
+		OPCODES[0x22] = new Opcode("LDI (HL), A", cpu -> cpu.loadIncrement(H, L, A, true), (byte) 8);
+		OPCODES[0xEA] = new Opcode("LD nn A", cpu -> cpu.load(cpu.read16Immediate(), A), (byte) 16);
+		OPCODES[0xE0] = new Opcode("LDH (n), A", cpu -> cpu.load((char) (0xFF00 + cpu.read8Immediate()), A), (byte) 12);
+		OPCODES[0xF0] = new Opcode("LDH A, (n)", cpu -> cpu.load(A, (char) (0xFF00 + cpu.read8Immediate())), (byte) 12);
+		OPCODES[0x2A] = new Opcode("LD A, (HL+)", cpu -> cpu.loadIncrement(A, H, L, false), (byte) 8);
+		OPCODES[0xFA] = new Opcode("LD A, (a16)", cpu -> cpu.load(A, cpu.read16Immediate()), (byte) 16);
+		OPCODES[0xE2] = new Opcode("LDH (C), A", cpu -> cpu.ldh(C, A), (byte) 8);
+		OPCODES[0x9F] = new Opcode("SBC A, A", cpu -> cpu.subtractWithCarry(A), (byte) 8);
+		OPCODES[0x0C] = new Opcode("INC C", cpu -> cpu.increment(C), (byte) 4);
+		OPCODES[0x1C] = new Opcode("INC E", cpu -> cpu.increment(E), (byte) 4);
+		OPCODES[0x3C] = new Opcode("INC A", cpu -> cpu.increment(A), (byte) 4);
+		OPCODES[0x2C] = new Opcode("INC L", cpu -> cpu.increment(L), (byte) 4);
+		OPCODES[0x14] = new Opcode("INC D", cpu -> cpu.increment(D), (byte) 4);
+		OPCODES[0x04] = new Opcode("INC B", cpu -> cpu.increment(B), (byte) 4);
+		OPCODES[0x24] = new Opcode("INC H", cpu -> cpu.increment(H), (byte) 4);
+		OPCODES[0x23] = new Opcode("INC HL", cpu -> cpu.increment(H, L), (byte) 8);
+		OPCODES[0x13] = new Opcode("INC DE", cpu -> cpu.increment(D, E), (byte) 8);
+		OPCODES[0x05] = new Opcode("DEC B", cpu -> cpu.decrement(B), (byte) 4);
+		OPCODES[0x3D] = new Opcode("DEC A", cpu -> cpu.decrement(A), (byte) 4);
+		OPCODES[0x1D] = new Opcode("DEC E", cpu -> cpu.decrement(E), (byte) 4);
+		OPCODES[0x15] = new Opcode("DEC D", cpu -> cpu.decrement(D), (byte) 4);
+		OPCODES[0x0D] = new Opcode("DEC C", cpu -> cpu.decrement(C), (byte) 4);
+		OPCODES[0x0B] = new Opcode("DEC BC", cpu -> cpu.decrement(B, C), (byte) 8);
+		OPCODES[0x1B] = new Opcode("DEC DE", cpu -> cpu.decrement(D, E), (byte) 8);
+		OPCODES[0xc5] = new Opcode("PUSH BC", cpu -> cpu.pushFrom(B, C), (byte) 16);
+		OPCODES[0xD5] = new Opcode("PUSH DE", cpu -> cpu.pushFrom(D, E), (byte) 16);
+		OPCODES[0xE5] = new Opcode("PUSH HL", cpu -> cpu.pushFrom(H, L), (byte) 16);
+		OPCODES[0xF5] = new Opcode("PUSH AF", cpu -> cpu.pushFrom(A, F), (byte) 16);
+		OPCODES[0xC1] = new Opcode("POP BC", cpu -> cpu.popTo(B, C), (byte) 12);
+		OPCODES[0xD1] = new Opcode("POP DE", cpu -> cpu.popTo(D, E), (byte) 12);
+		OPCODES[0xE1] = new Opcode("POP HL", cpu -> cpu.popTo(H, L), (byte) 12);
+		OPCODES[0xF1] = new Opcode("POP AF", cpu -> cpu.popTo(A, F), (byte) 12);
+		OPCODES[0xCD] = new Opcode("CALL nn", cpu -> cpu.call(), (byte) 24);
+		OPCODES[0xC9] = new Opcode("RET", cpu -> cpu.ret(true), (byte) 16);
+		OPCODES[0xD9] = new Opcode("RETI", cpu -> cpu.returnFromInterrupt(), (byte) 16);
+		OPCODES[0xC0] = new Opcode("RET NZ", cpu -> cpu.ret(!cpu.isZeroFlag()), (byte) 20, (byte) 8);
+		OPCODES[0xD0] = new Opcode("RET NC", cpu -> cpu.ret(!cpu.isFullCarryFlag()), (byte) 20, (byte) 8);
+		OPCODES[0xC8] = new Opcode("RET Z", cpu -> cpu.ret(cpu.isZeroFlag()), (byte) 20, (byte) 8);
+		OPCODES[0xFE] = new Opcode("CP n", cpu -> cpu.compare(), (byte) 8);
+		OPCODES[0x28] = new Opcode("JR Z, n", cpu -> cpu.relativeJump(cpu.isZeroFlag(), cpu.read8Immediate()), (byte) 12,
+				(byte) 8);
+		OPCODES[0x18] = new Opcode("JR n", cpu -> cpu.relativeJump(true, cpu.read8Immediate()), (byte) 12);
+		OPCODES[0xC3] = new Opcode("JP nn", cpu -> cpu.pc = cpu.read16Immediate(), (byte) 16);
+		OPCODES[0xE9] = new Opcode("JP (HL)", cpu -> cpu.jump(true, cpu.readDualRegister(H, L)), (byte) 4);
+		OPCODES[0xCA] = new Opcode("JP Z a16", cpu -> cpu.jump(cpu.isZeroFlag(), cpu.read16Immediate()), (byte) 16,
+				(byte) 12);
+		OPCODES[0xC2] = new Opcode("JP NZ a16", cpu -> cpu.jump(!cpu.isZeroFlag(), cpu.read16Immediate()), (byte) 16,
+				(byte) 12);
+		OPCODES[0x20] = new Opcode("JR NZ, n", cpu -> cpu.relativeJump(!cpu.isZeroFlag(), cpu.read8Immediate()), (byte) 12,
+				(byte) 8);
+		OPCODES[0xEF] = new Opcode("RST 28H", cpu -> cpu.rst((byte) 0x28), (byte) 16);
 	}
 
 	/**
 	 * Builds extended opcode table (CB prefixed opcodes)
 	 */
-	private void loadCbOpCodes() {
-		cbOpCodes.put((byte) 0x7C, new Opcode("BIT 7 H", () -> bit(7, getH()), (byte) 8));
-		cbOpCodes.put((byte) 0x7F, new Opcode("BIT 7 F", () -> bit(7, getF()), (byte) 8));
-		cbOpCodes.put((byte) 0x11, new Opcode("RL C", () -> rl(getC()), (byte) 8));
-		cbOpCodes.put((byte) 0x87, new Opcode("RES 0, A", () -> res(0, getA()), (byte) 8));
-		cbOpCodes.put((byte) 0x37, new Opcode("SWAP A", () -> swap(getA()), (byte) 8));
+	private static void loadCbOpCodes() {
+		CB_OPCODES[0x7C] = new Opcode("BIT 7 H", cpu -> cpu.bit(7, H), (byte) 8);
+		CB_OPCODES[0x7F] = new Opcode("BIT 7 F", cpu -> cpu.bit(7, F), (byte) 8);
+		CB_OPCODES[0x11] = new Opcode("RL C", cpu -> cpu.rl(C), (byte) 8);
+		CB_OPCODES[0x87] = new Opcode("RES 0, A", cpu -> cpu.res(0, A), (byte) 8);
+		CB_OPCODES[0x37] = new Opcode("SWAP A", cpu -> cpu.swap(A), (byte) 8);
 
 	}
 
@@ -351,141 +821,309 @@ public class CPU {
 	}
 
 	public Register getA() {
-		return a;
+		return registerViews[A];
 	}
 
 	public Register getB() {
-		return b;
+		return registerViews[B];
 	}
 
 	public Register getC() {
-		return c;
+		return registerViews[C];
 	}
 
 	public Register getD() {
-		return d;
+		return registerViews[D];
 	}
 
 	public Register getE() {
-		return e;
+		return registerViews[E];
 	}
 
 	public Register getH() {
-		return h;
+		return registerViews[H];
 	}
 
 	public Register getL() {
-		return l;
+		return registerViews[L];
 	}
 
 	public Register getF() {
-		return f;
+		return registerViews[F];
 	}
 
 	public boolean isZeroFlag() {
-		return RegisterUtils.readBit(7, getF());
+		return (readFlags() & ZERO_FLAG) != 0;
 	}
 
 	public boolean isOperationFlag() {
-		return RegisterUtils.readBit(6, getF());
+		return (readFlags() & OPERATION_FLAG) != 0;
 	}
 
 	public boolean isHalfCarryFlag() {
-		return RegisterUtils.readBit(5, getF());
+		return (readFlags() & HALF_CARRY_FLAG) != 0;
 	}
 
 	public boolean isFullCarryFlag() {
-		return RegisterUtils.readBit(4, getF());
+		return (readFlags() & FULL_CARRY_FLAG) != 0;
 	}
 
 	public boolean isConditionalNotExecFlag() {
 		return conditionalNotExecFlag;
 	}
 
-	public Register getClockM() {
-		return clockM;
+	public boolean isBlockCacheEnabled() {
+		return blockCacheEnabled;
 	}
 
-	private void setClockM(Register clockM) {
-		this.clockM = clockM;
+	/**
+	 * Switches runFor and runFrame between the plain interpreter and the
+	 * decoded block cache. step() always runs a single instruction from
+	 * memory.
+	 */
+	public void setBlockCacheEnabled(boolean blockCacheEnabled) {
+		this.blockCacheEnabled = blockCacheEnabled;
 	}
 
-	public Register getClockT() {
-		return clockT;
+	public boolean isHalted() {
+		return halted;
 	}
 
-	public int getOpcodeCount() {
-		return this.opCodes.size();
+	public boolean isFastForwardEnabled() {
+		return fastForwardEnabled;
 	}
 
-	public int getCbOpcodeCount() {
-		return this.cbOpCodes.size();
+	/**
+	 * Turns skipping over HALT and polling loops in runFor and runFrame on or
+	 * off. It's on by default, and never used with a stop condition or while
+	 * tracing.
+	 */
+	public void setFastForwardEnabled(boolean fastForwardEnabled) {
+		this.fastForwardEnabled = fastForwardEnabled;
 	}
 
-	public int getTotalOpcodeCount() {
-		return getCbOpcodeCount() + getOpcodeCount();
+	/**
+	 * @return cycles skipped by fast forwarding since the last reset
+	 */
+	public long getFastForwardCycles() {
+		return fastForwardCycles;
 	}
 
-	private void setClockT(Register clockT) {
-		this.clockT = clockT;
+	public boolean isJitEnabled() {
+		return jitEnabled;
 	}
 
-	private void setConditionalNotExecFlag(boolean conditionalNotExecFlag) {
-		this.conditionalNotExecFlag = conditionalNotExecFlag;
+	/**
+	 * Turns on compiling blocks that run often to JVM bytecode. Only has an
+	 * effect while the block cache is enabled, and never while tracing.
+	 */
+	public void setJitEnabled(boolean jitEnabled) {
+		this.jitEnabled = jitEnabled;
+	}
+
+	public boolean isFusionEnabled() {
+		return blockCache.isFusionEnabled();
+	}
+
+	/**
+	 * Turns on running common instruction sequences from the block cache as
+	 * a single fused handler. Only has an effect while the block cache is
+	 * enabled, and never while tracing.
+	 */
+	public void setFusionEnabled(boolean fusionEnabled) {
+		blockCache.setFusionEnabled(fusionEnabled);
+	}
+
+	public OpcodeProfiler getProfiler() {
+		return profiler;
+	}
+
+	/**
+	 * Starts counting the opcode sequences run by step() in the given
+	 * profiler, or stops if it's null
+	 */
+	public void setProfiler(OpcodeProfiler profiler) {
+		this.profiler = profiler;
+	}
+
+	/**
+	 * @return the mnemonic of an opcode, 0xCBxx if prefixed
+	 */
+	public String getMnemonic(int opcode) {
+		return (opcode > 0xFF ? CB_OPCODES : OPCODES)[opcode & 0xFF].getMnemonic();
 	}
 
-	private void setFullCarryFlag(boolean fullCarryFlag) {
-		getF().setValue(RegisterUtils.setBit(4, getF(), fullCarryFlag));
+	/**
+	 * @return number of blocks decoded into the block cache so far
+	 */
+	public long getDecodedBlockCount() {
+		return blockCache.getDecodeCount();
 	}
 
-	private void setHalfCarryFlag(boolean halfCarryFlag) {
-		getF().setValue(RegisterUtils.setBit(5, getF(), halfCarryFlag));
+	/**
+	 * @return number of blocks compiled to bytecode so far
+	 */
+	public long getCompiledBlockCount() {
+		return blockCompiler.getCompileCount();
 	}
 
-	private void setOperationFlag(boolean operationFlag) {
-		getF().setValue(RegisterUtils.setBit(6, getF(), operationFlag));
+	public int getOpcodeCount() {
+		return countImplemented(OPCODES);
 	}
 
-	private void setZeroFlag(boolean zeroFlag) {
-		getF().setValue(RegisterUtils.setBit(7, getF(), zeroFlag));
+	public int getCbOpcodeCount() {
+		return countImplemented(CB_OPCODES);
 	}
 
-	private void setF(Register f) {
-		this.f = f;
+	private static int countImplemented(Opcode[] table) {
+		int count = 0;
+		for (Opcode o : table) {
+			if (o != UNIMPLEMENTED) {
+				count++;
+			}
+		}
+		return count;
 	}
 
-	private void setL(Register l) {
-		this.l = l;
+	public int getTotalOpcodeCount() {
+		return getCbOpcodeCount() + getOpcodeCount();
 	}
 
-	private void setH(Register h) {
-		this.h = h;
+	private void setConditionalNotExecFlag(boolean conditionalNotExecFlag) {
+		this.conditionalNotExecFlag = conditionalNotExecFlag;
 	}
 
-	private void setE(Register e) {
-		this.e = e;
+	public boolean isLazyFlags() {
+		return lazyFlags;
 	}
 
-	private void setD(Register d) {
-		this.d = d;
+	/**
+	 * Switches between working out flags after every ALU operation and
+	 * deferring them until F is read. Both modes produce the same F.
+	 */
+	public void setLazyFlags(boolean lazyFlags) {
+		evaluateFlags();
+		this.lazyFlags = lazyFlags;
 	}
 
-	private void setC(Register c) {
-		this.c = c;
+	/**
+	 * Updates the flags for an ALU operation, or in lazy mode records the
+	 * operation so the flags can be worked out later.
+	 */
+	private void setFlags(int op, byte operand1, byte operand2, byte result) {
+		if (lazyFlags) {
+			if (pendingFlagOp != FLAGS_NONE && !SETS_ALL_FLAGS[op]) {
+				evaluateFlags();
+			}
+			pendingFlagOp = op;
+			flagOperand1 = operand1;
+			flagOperand2 = operand2;
+			flagResult = result;
+		} else {
+			registers[F] = computeFlags(op, operand1, operand2, result, registers[F]);
+		}
 	}
 
-	private void setB(Register b) {
-		this.b = b;
+	/**
+	 * Applies the pending flag-setting operation, if there is one, to F
+	 */
+	private void evaluateFlags() {
+		if (pendingFlagOp != FLAGS_NONE) {
+			registers[F] = computeFlags(pendingFlagOp, flagOperand1, flagOperand2, flagResult, registers[F]);
+			pendingFlagOp = FLAGS_NONE;
+		}
 	}
 
-	private void setA(Register a) {
-		this.a = a;
+	/**
+	 * @return the up to date value of F
+	 */
+	private byte readFlags() {
+		evaluateFlags();
+		return registers[F];
+	}
+
+	/**
+	 * Overwrites F, discarding any pending flag-setting operation
+	 */
+	private void writeFlags(byte value) {
+		pendingFlagOp = FLAGS_NONE;
+		registers[F] = value;
+	}
+
+	/**
+	 * @return the value of F after the flag-setting operation op, given the
+	 *         value f it had before
+	 */
+	private static byte computeFlags(int op, byte x, byte y, byte result, byte f) {
+		boolean carry = (f & FULL_CARRY_FLAG) != 0;
+		switch (op) {
+		case FLAGS_ADD:
+			return flags(f, AluTables.ADD[AluTables.index(false, x, y)]);
+		case FLAGS_ADD_MEM:
+			return flags(f, AluTables.ADD_MEM[AluTables.index(false, x, y)]);
+		case FLAGS_SUB:
+		case FLAGS_CP_MEM:
+			return flags(f, AluTables.SUB[AluTables.index(false, x, y)]);
+		case FLAGS_SBC:
+			return flags(f, AluTables.SBC[AluTables.index(carry, x, y)]);
+		case FLAGS_INC:
+			return flags(f, AluTables.INC[AluTables.index(carry, x)]);
+		case FLAGS_DEC:
+			return flags(f, AluTables.DEC[AluTables.index(carry, x)]);
+		case FLAGS_AND:
+			return flags(f, AluTables.AND[result & 0xFF]);
+		case FLAGS_LOGIC:
+			return flags(f, AluTables.LOGIC[result & 0xFF]);
+		case FLAGS_ROTATE:
+			return flags(f, result == 0, false, false, y != 0);
+		case FLAGS_CP:
+			return flags(f, AluTables.CP[AluTables.index(carry, x, y)]);
+		case FLAGS_BIT:
+			return flags(f, result == 0, false, true, carry);
+		case FLAGS_CPL:
+			return flags(f, (f & ZERO_FLAG) != 0, true, true, carry);
+		case FLAGS_ADD16:
+			return flags(f, (f & ZERO_FLAG) != 0, false, (f & HALF_CARRY_FLAG) != 0, carry);
+		default:
+			return f;
+		}
+	}
+
+	/**
+	 * @return f with its four flags replaced by the ones in an AluTables entry
+	 */
+	private static byte flags(byte f, char entry) {
+		return (byte) ((f & ~(ZERO_FLAG | OPERATION_FLAG | HALF_CARRY_FLAG | FULL_CARRY_FLAG)) | entry >>> 8);
+	}
+
+	/**
+	 * @return f with its four flags replaced
+	 */
+	private static byte flags(byte f, boolean zero, boolean operation, boolean halfCarry, boolean fullCarry) {
+		int result = f & ~(ZERO_FLAG | OPERATION_FLAG | HALF_CARRY_FLAG | FULL_CARRY_FLAG);
+		if (zero) {
+			result |= ZERO_FLAG;
+		}
+		if (operation) {
+			result |= OPERATION_FLAG;
+		}
+		if (halfCarry) {
+			result |= HALF_CARRY_FLAG;
+		}
+		if (fullCarry) {
+			result |= FULL_CARRY_FLAG;
+		}
+		return (byte) result;
 	}
 
 	/**
 	 * Reads 8 bits from memory beginning at pc, and increments pc
 	 */
 	private byte read8Immediate() {
+		if (boundOperand >= 0) {
+			pc++;
+			return (byte) boundOperand;
+		}
 		byte d8 = mem.readByte(pc);
 		pc++;
 		return d8;
@@ -495,6 +1133,10 @@ public class CPU {
 	 * Reads 16 bits from memory beginning at pc, and increments pc
 	 */
 	private char read16Immediate() {
+		if (boundOperand >= 0) {
+			pc += 2;
+			return (char) boundOperand;
+		}
 		byte b2 = mem.readByte(pc);
 		pc++;
 		byte b1 = mem.readByte(pc);
@@ -505,48 +1147,42 @@ public class CPU {
 	/**
 	 * Adds value at address pointed to by s1s2 to destination.
 	 */
-	private void addAddress(Register destination, Register s1, Register s2) {
-		setOperationFlag(false);
+	private void addAddress(int destination, int s1, int s2) {
 		byte memAtDual = mem.readByte(readDualRegister(s1, s2));
-		setFullCarryFlag(NumberUtils.byteAdditionOverflow(destination.getValue(), memAtDual));
-		setHalfCarryFlag(NumberUtils.byteAdditionNibbleOverflow(destination.getValue(), memAtDual));
-		destination.setValue(destination.getValue() + memAtDual);
-		setZeroFlag((destination.getValue() == 0));
+		byte value = registers[destination];
+		registers[destination] = (byte) AluTables.ADD_MEM[AluTables.index(false, value, memAtDual)];
+		setFlags(FLAGS_ADD_MEM, value, memAtDual, registers[destination]);
 	}
 
 	/**
 	 * Subtracts the value of a register from A
 	 */
-	private void subtract(Register r) {
-		setHalfCarryFlag(NumberUtils.byteSubtractionNibbleBorrow(getA().getValue(), r.getValue()));
-		setFullCarryFlag(NumberUtils.byteSubtractionBorrow(getA().getValue(), r.getValue()));
-		getA().setValue(getA().getValue() - r.getValue());
-		setZeroFlag(getA().getValue() == 0);
-		setOperationFlag(true);
+	private void subtract(int r) {
+		byte a = registers[A];
+		byte value = registers[r];
+		registers[A] = (byte) AluTables.SUB[AluTables.index(false, a, value)];
+		setFlags(FLAGS_SUB, a, value, registers[A]);
 	}
 
 	/**
 	 * Subtracts the value of r + the carry flag from A
 	 */
-	private void subtractWithCarry(Register r) {
-		byte toSub = (byte) (r.getValue() + (isFullCarryFlag() ? 1 : 0));
-		setHalfCarryFlag(NumberUtils.byteSubtractionNibbleBorrow(getA().getValue(), toSub));
-		getA().setValue(getA().getValue() - toSub);
-		setZeroFlag(getA().getValue() == 0);
-		setOperationFlag(true);
-		if (getA().getValue() < 0) {
-			setFullCarryFlag(true);
-		}
+	private void subtractWithCarry(int r) {
+		boolean carry = isFullCarryFlag();
+		byte toSub = (byte) (registers[r] + (carry ? 1 : 0));
+		byte a = registers[A];
+		registers[A] = (byte) AluTables.SBC[AluTables.index(carry, a, toSub)];
+		setFlags(FLAGS_SBC, a, toSub, registers[A]);
 	}
 
 	/**
 	 * Decrements a register
 	 */
-	private void decrement(Register r) {
-		setHalfCarryFlag(NumberUtils.byteSubtractionNibbleBorrow(r.getValue(), (byte) 1));
-		r.setValue(r.getValue() - 1);
-		setZeroFlag(r.getValue() == 0);
-		setOperationFlag(true);
+	private void decrement(int r) {
+		byte value = registers[r];
+		// The result is the same either way, only the flags keep the carry
+		registers[r] = (byte) AluTables.DEC[AluTables.index(false, value)];
+		setFlags(FLAGS_DEC, value, (byte) 1, registers[r]);
 	}
 
 	/**
@@ -555,22 +1191,16 @@ public class CPU {
 	 * @param r
 	 *            register to swap
 	 */
-	private void swap(Register r) {
-		String bin = StringUtils.zeroLeftPad(Integer.toBinaryString(r.getValue()), 8);
-		String upper = bin.substring(0, 4);
-		String lower = bin.substring(4);
-		byte result = (byte) (Integer.parseInt(lower + upper, 2));
-		r.setValue(result);
-		setZeroFlag(r.getValue() == 0);
-		setHalfCarryFlag(false);
-		setFullCarryFlag(false);
-		setOperationFlag(false);
+	private void swap(int r) {
+		byte result = NumberUtils.swapNibbles(registers[r]);
+		registers[r] = result;
+		setFlags(FLAGS_LOGIC, result, result, result);
 	}
 
 	/**
 	 * Decrements a dual register
 	 */
-	private void decrement(Register r1, Register r2) {
+	private void decrement(int r1, int r2) {
 		char value = readDualRegister(r1, r2);
 		value--;
 		writeDualRegister(r1, r2, value);
@@ -579,106 +1209,92 @@ public class CPU {
 	/**
 	 * XOR value of r with A, result in A
 	 */
-	private void xor(Register r) {
-		getA().setValue(getA().getValue() ^ r.getValue());
-		setZeroFlag(getA().getValue() == 0);
-		setHalfCarryFlag(false);
-		setFullCarryFlag(false);
-		setOperationFlag(false);
+	private void xor(int r) {
+		registers[A] ^= registers[r];
+		setFlags(FLAGS_LOGIC, registers[A], registers[A], registers[A]);
 	}
 
 	/**
 	 * Bitwise OR A with r. Result in A.
 	 */
-	private void or(Register r) {
-		getA().setValue(getA().getValue() | r.getValue());
-		setZeroFlag(getA().getValue() == 0);
-		setHalfCarryFlag(false);
-		setFullCarryFlag(false);
-		setOperationFlag(false);
+	private void or(int r) {
+		registers[A] |= registers[r];
+		setFlags(FLAGS_LOGIC, registers[A], registers[A], registers[A]);
 	}
 
 	/**
 	 * Bitwise AND A with 8-bit immediate. Result in A.
 	 */
 	private void and() {
-		byte val = mem.readByte(pc);
-		pc++;
-		getA().setValue(getA().getValue() & val);
-		setZeroFlag(getA().getValue() == 0);
-		setOperationFlag(false);
-		setHalfCarryFlag(true);
-		setFullCarryFlag(false);
+		registers[A] &= read8Immediate();
+		setFlags(FLAGS_AND, registers[A], registers[A], registers[A]);
 	}
 
 	/**
 	 * Bitwise AND A with r. Result in A.
 	 */
-	private void and(Register r) {
-		getA().setValue(getA().getValue() & r.getValue());
-		setZeroFlag(getA().getValue() == 0);
-		setOperationFlag(false);
-		setHalfCarryFlag(true);
-		setFullCarryFlag(false);
+	private void and(int r) {
+		registers[A] &= registers[r];
+		setFlags(FLAGS_AND, registers[A], registers[A], registers[A]);
 	}
 
 	/**
 	 * Increments a register
 	 */
-	private void increment(Register r) {
-		setHalfCarryFlag(NumberUtils.byteAdditionNibbleOverflow(r.getValue(), (byte) 1));
-		r.setValue(r.getValue() + 1);
-		setZeroFlag(r.getValue() == 0);
-		setOperationFlag(false);
+	private void increment(int r) {
+		byte value = registers[r];
+		// The result is the same either way, only the flags keep the carry
+		registers[r] = (byte) AluTables.INC[AluTables.index(false, value)];
+		setFlags(FLAGS_INC, value, (byte) 1, registers[r]);
 	}
 
 	/**
 	 * Increments a dual register
 	 */
-	private void increment(Register r1, Register r2) {
+	private void increment(int r1, int r2) {
 		char dual = readDualRegister(r1, r2);
 		writeDualRegister(r1, r2, (char) (dual + 1));
 	}
 
-	private void load(Register destination, Register source) {
-		destination.setValue(source.getValue());
+	private void load(int destination, int source) {
+		registers[destination] = registers[source];
 	}
 
-	private void load(Register destination, char sourceAddress) {
-		destination.setValue(mem.readByte(sourceAddress));
+	private void load(int destination, char sourceAddress) {
+		registers[destination] = mem.readByte(sourceAddress);
 	}
 
-	private void load(Register destination, byte value) {
-		destination.setValue(value);
+	private void load(int destination, byte value) {
+		registers[destination] = value;
 	}
 
-	private void load(Register d1, Register d2, char value) {
+	private void load(int d1, int d2, char value) {
 		writeDualRegister(d1, d2, value);
 	}
 
-	private void load(Register addressDest1, Register addressDest2, byte value) {
+	private void load(int addressDest1, int addressDest2, byte value) {
 		mem.writeByte(readDualRegister(addressDest1, addressDest2), value);
 	}
 
-	private void load(Register r1, Register r2, Register r3, boolean loadToAddress) {
+	private void load(int r1, int r2, int r3, boolean loadToAddress) {
 		if (loadToAddress) {
-			mem.writeByte(readDualRegister(r1, r2), r3.getValue());
+			mem.writeByte(readDualRegister(r1, r2), registers[r3]);
 		} else {
-			r1.setValue(mem.readByte(readDualRegister(r2, r3)));
+			registers[r1] = mem.readByte(readDualRegister(r2, r3));
 		}
 	}
 
-	private void load(char address, Register source) {
-		mem.writeByte(address, source.getValue());
+	private void load(char address, int source) {
+		mem.writeByte(address, registers[source]);
 	}
 
 	/**
 	 * Loads the value of src into the memory address pointed to by d1d2, then
 	 * decrements d1d2.
 	 */
-	private void loadDecrement(Register d1, Register d2, Register src) {
+	private void loadDecrement(int d1, int d2, int src) {
 		char address = readDualRegister(d1, d2);
-		mem.writeByte(address, src.getValue());
+		mem.writeByte(address, registers[src]);
 		address--;
 		writeDualRegister(d1, d2, address);
 	}
@@ -686,14 +1302,14 @@ public class CPU {
 	/**
 	 * Loads the value of source into the address pointed to by d1d2
 	 */
-	private void loadIncrement(Register r1, Register r2, Register r3, boolean loadToAddress) {
+	private void loadIncrement(int r1, int r2, int r3, boolean loadToAddress) {
 		if (loadToAddress) {
 			char dual = readDualRegister(r1, r2);
-			mem.writeByte(dual, r3.getValue());
+			mem.writeByte(dual, registers[r3]);
 			writeDualRegister(r1, r2, (char) (dual + 1));
 		} else {
 			char dual = readDualRegister(r2, r3);
-			r1.setValue(mem.readByte(dual));
+			registers[r1] = mem.readByte(dual);
 			dual++;
 			writeDualRegister(r2, r3, dual);
 		}
@@ -703,15 +1319,18 @@ public class CPU {
 	 * Loads the value of source into the address pointed to by 0xFF00 +
 	 * destination
 	 */
-	private void ldh(Register destination, Register source) {
-		char address = (char) (0xFF00 + destination.getValue());
-		mem.writeByte(address, source.getValue());
+	private void ldh(int destination, int source) {
+		char address = (char) (0xFF00 + registers[destination]);
+		mem.writeByte(address, registers[source]);
 	}
 
 	/**
 	 * Pushes the 16-bit value in r1r2 onto the stack
 	 */
-	private void pushFrom(Register r1, Register r2) {
+	private void pushFrom(int r1, int r2) {
+		if (r2 == F) {
+			evaluateFlags();
+		}
 		char stackValue = readDualRegister(r1, r2);
 		push(stackValue);
 	}
@@ -719,8 +1338,11 @@ public class CPU {
 	/**
 	 * Pops a 16-bit value off the stack and stores it in r1r2
 	 */
-	private void popTo(Register r1, Register r2) {
+	private void popTo(int r1, int r2) {
 		char stackValue = pop();
+		if (r2 == F) {
+			writeFlags((byte) stackValue);
+		}
 		writeDualRegister(r1, r2, stackValue);
 	}
 
@@ -728,34 +1350,24 @@ public class CPU {
 	 * Flips every bit in register A
 	 */
 	private void complement() {
-		String bin = StringUtils.zeroLeftPad(Integer.toBinaryString(getA().getValue()), 8);
-		String res = "";
-		for (int i = 0; i < 8; i++) {
-			res += (bin.charAt(i) == '0' ? '1' : '0');
-		}
-		getA().setValue(Integer.parseInt(res, 2));
-		setOperationFlag(true);
-		setHalfCarryFlag(true);
+		registers[A] = (byte) ~registers[A];
+		setFlags(FLAGS_CPL, registers[A], registers[A], registers[A]);
 	}
 
 	/**
 	 * Performs a left-rotate-through-carry on r
 	 */
-	private void rl(Register r) {
-		setFullCarryFlag(RegisterUtils.leftRotateThroughCarry(r, isFullCarryFlag()));
-		setZeroFlag(r.getValue() == 0);
-		setOperationFlag(false);
-		setHalfCarryFlag(false);
+	private void rl(int r) {
+		boolean carry = RegisterUtils.leftRotateThroughCarry(registerViews[r], isFullCarryFlag());
+		setFlags(FLAGS_ROTATE, registers[r], (byte) (carry ? 1 : 0), registers[r]);
 	}
 
 	/**
 	 * Performs a right-rotate-through-carry on r
 	 */
-	private void rr(Register r) {
-		setFullCarryFlag(RegisterUtils.rightRotateThroughCarry(r, isFullCarryFlag()));
-		setZeroFlag(r.getValue() == 0);
-		setOperationFlag(false);
-		setHalfCarryFlag(false);
+	private void rr(int r) {
+		boolean carry = RegisterUtils.rightRotateThroughCarry(registerViews[r], isFullCarryFlag());
+		setFlags(FLAGS_ROTATE, registers[r], (byte) (carry ? 1 : 0), registers[r]);
 	}
 
 	// XXX: Should these two be generalized into one function?
@@ -766,28 +1378,15 @@ public class CPU {
 	 */
 	private void compare() {
 		byte immediate = read8Immediate();
-		setOperationFlag(true);
-		setHalfCarryFlag(NumberUtils.byteSubtractionNibbleBorrow(getA().getValue(), immediate));
-
-		if (getA().getValue() == immediate) {
-			setZeroFlag(true);
-		} else {
-			setZeroFlag(false);
-			if (getA().getValue() < immediate) {
-				setFullCarryFlag(true);
-			}
-		}
+		setFlags(FLAGS_CP, registers[A], immediate, registers[A]);
 	}
 
 	/**
 	 * Compares the value pointed to by r1r2 to register A
 	 */
-	private void compareAddress(Register r1, Register r2) {
-		setOperationFlag(true);
+	private void compareAddress(int r1, int r2) {
 		byte memAtDual = mem.readByte(readDualRegister(r1, r2));
-		setZeroFlag(getA().getValue() == memAtDual);
-		setHalfCarryFlag(NumberUtils.byteSubtractionNibbleBorrow(getA().getValue(), memAtDual));
-		setFullCarryFlag(NumberUtils.byteSubtractionBorrow(getA().getValue(), memAtDual));
+		setFlags(FLAGS_CP_MEM, registers[A], memAtDual, registers[A]);
 	}
 
 	/**
@@ -797,7 +1396,9 @@ public class CPU {
 	private void ret(boolean condition) {
 		if (condition) {
 			char address = pop();
-			logger.fine("RET called, returning to " + Integer.toHexString(address & 0xFFFF));
+			if (TraceBuffer.ENABLED) {
+				trace.record(TraceBuffer.RET, address, 0);
+			}
 			pc = address;
 		} else {
 			setConditionalNotExecFlag(true);
@@ -810,19 +1411,48 @@ public class CPU {
 	private void call() {
 		char address = read16Immediate();
 		push(pc);
-		logger.fine("Pushed address " + Integer.toHexString(pc & 0xFFFF) + " to stack");
+		if (TraceBuffer.ENABLED) {
+			trace.record(TraceBuffer.CALL, pc, address);
+		}
 		pc = address;
-		logger.fine("Calling subroutine at 0x" + Integer.toHexString(address & 0xFFFF));
 	}
 
 	/**
-	 * Enable interrupts
+	 * EI and DI. EI only sets IME after the instruction that follows it.
 	 */
 	private void setInterruptsEnabled(boolean enabled) {
-		/* this will be important later, but for now it's a nop */
-		// TODO: Implement CPU interrupts
-		logger.finer("Enable interrupts");
-		logger.warning("Interrupts not yet implemented");
+		if (enabled) {
+			interrupts.enableAfterNext();
+		} else {
+			interrupts.setMasterEnabled(false);
+		}
+	}
+
+	/**
+	 * Returns from an interrupt handler, turning IME back on straight away
+	 */
+	private void returnFromInterrupt() {
+		ret(true);
+		interrupts.setMasterEnabled(true);
+	}
+
+	/**
+	 * Handler for opcodes that have not been implemented yet. The opcode (or
+	 * the second byte of a CB prefixed opcode) is the byte just behind pc.
+	 */
+	private void unimplemented() {
+		char address = (char) (pc - 1);
+		byte opcode = mem.readByte(address);
+		logger.severe("Unimplemented instruction: " + Integer.toHexString(opcode & 0xFF));
+		throw new InstructionNotImplementedException(opcode, address);
+	}
+
+	/**
+	 * Stops running instructions until an enabled interrupt is requested,
+	 * whether or not IME is set
+	 */
+	private void halt() {
+		halted = true;
 	}
 
 	/**
@@ -835,23 +1465,17 @@ public class CPU {
 	/**
 	 * Tests bit number bitno of register r
 	 */
-	private void bit(int bitno, Register r) {
-		boolean bitOn = RegisterUtils.readBit(bitno, r);
-		if (!bitOn) {
-			setZeroFlag(true);
-		} else {
-			setZeroFlag(false);
-		}
-		setOperationFlag(false);
-		setHalfCarryFlag(true);
-		logger.finer("Testing bit " + bitno + " of " + r + ": zeroFlag = " + isZeroFlag());
+	private void bit(int bitno, int r) {
+		boolean bitOn = RegisterUtils.readBit(bitno, registerViews[r]);
+		byte result = (byte) (bitOn ? 1 : 0);
+		setFlags(FLAGS_BIT, registers[r], result, result);
 	}
 
 	/**
 	 * Resets specified bit of register r
 	 */
-	private void res(int bitNumber, Register r) {
-		r.setValue(RegisterUtils.setBit(bitNumber, r, false));
+	private void res(int bitNumber, int r) {
+		registers[r] = RegisterUtils.setBit(bitNumber, registerViews[r], false);
 	}
 
 	/**
@@ -859,11 +1483,12 @@ public class CPU {
 	 */
 	private void jump(boolean condition, char address) {
 		if (condition) {
-			logger.finer("Jumping to " + StringUtils.charToReadableHex(address));
+			if (TraceBuffer.ENABLED) {
+				trace.record(TraceBuffer.JUMP, pc, address);
+			}
 			pc = address;
 		} else {
 			setConditionalNotExecFlag(true);
-			logger.finer("Jump condition not met; no jmp");
 		}
 	}
 
@@ -872,11 +1497,12 @@ public class CPU {
 	 */
 	private void relativeJump(boolean condition, byte value) {
 		if (condition) {
-			logger.finer("Relative jump by " + StringUtils.byteToReadableHex(value));
+			if (TraceBuffer.ENABLED) {
+				trace.record(TraceBuffer.JUMP, pc, pc + value);
+			}
 			pc += value;
 		} else {
 			setConditionalNotExecFlag(true);
-			logger.finer("Jump condition not met; no jmp");
 		}
 	}
 
@@ -891,23 +1517,73 @@ public class CPU {
 	/**
 	 * Adds value of r to the accumulator
 	 */
-	private void add(Register r) {
-		byte a = getA().getValue();
-		boolean fullCarry = NumberUtils.byteAdditionOverflow(a, a);
-		setFullCarryFlag(fullCarry);
-		boolean halfCarry = NumberUtils.byteAdditionNibbleOverflow(a, a);
-		setHalfCarryFlag(halfCarry);
-		setOperationFlag(false);
-		setZeroFlag(a + a == 0);
-		getA().setValue(a + a);
+	private void add(int r) {
+		byte a = registers[A];
+		registers[A] = (byte) AluTables.ADD[AluTables.index(false, a, a)];
+		setFlags(FLAGS_ADD, a, a, registers[A]);
 	}
 
-	private void add(Register a1, Register a2, Register b1, Register b2) {
+	private void add(int a1, int a2, int b1, int b2) {
 		int a = readDualRegister(a1, a2);
 		int b = readDualRegister(b1, b2);
-		setOperationFlag(false);
 		// TODO:Half/full carry flags
 		writeDualRegister(a1, a2, (char) (a + b));
+		setFlags(FLAGS_ADD16, registers[a1], registers[a2], registers[a2]);
+	}
+
+	/**
+	 * A view of one slot in the register file
+	 */
+	private class RegisterView extends Register {
+
+		private final int index;
+
+		public RegisterView(int index, String name) {
+			super(name);
+			this.index = index;
+		}
+
+		@Override
+		public byte getValue() {
+			return registers[index];
+		}
+
+		@Override
+		public void setValue(byte value) {
+			registers[index] = value;
+		}
+
+		@Override
+		public void setValue(int value) {
+			registers[index] = (byte) value;
+		}
+
+	}
+
+	/**
+	 * A view of F that brings the flags up to date before they are read
+	 */
+	private class FlagRegisterView extends RegisterView {
+
+		public FlagRegisterView(String name) {
+			super(F, name);
+		}
+
+		@Override
+		public byte getValue() {
+			return readFlags();
+		}
+
+		@Override
+		public void setValue(byte value) {
+			writeFlags(value);
+		}
+
+		@Override
+		public void setValue(int value) {
+			writeFlags((byte) value);
+		}
+
 	}
 
 }
\ No newline at end of file
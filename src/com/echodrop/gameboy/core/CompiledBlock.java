@@ -0,0 +1,25 @@
+/**
+ * CompiledBlock.java
+ * 
+ * @author anewkirk
+ * 
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.core;
+
+/**
+ * A block translated to JVM bytecode by BlockCompiler
+ */
+interface CompiledBlock {
+
+	/**
+	 * Runs the block against the processor's registers and memory, leaving pc
+	 * just past the last instruction run and the scheduler up to date.
+	 *
+	 * @return the number of instructions run. 0 means the block stopped before
+	 *         its first instruction, which has to be interpreted instead.
+	 */
+	int run(CPU processor);
+
+}
@@ -0,0 +1,165 @@
+/**
+ * InterruptController.java
+ * 
+ * @author anewkirk
+ * 
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.core;
+
+/**
+ * Holds the interrupt enable (IE, 0xFFFF) and interrupt flag (IF, 0xFF0F)
+ * registers and the CPU's master enable (IME). Components raise interrupts
+ * through request(), and the CPU services them between instructions.
+ * 
+ * The CPU only has to test pending before each instruction. It is kept up to
+ * date whenever any of the three registers change, and is only non-zero when
+ * an interrupt can be serviced or EI is waiting to take effect.
+ */
+public class InterruptController {
+
+	/* Interrupt bits in IE and IF, highest priority first */
+	public static final int VBLANK = 0x01;
+	public static final int LCD_STAT = 0x02;
+	public static final int TIMER = 0x04;
+	public static final int SERIAL = 0x08;
+	public static final int JOYPAD = 0x10;
+
+	private static final int ALL = 0x1F;
+
+	/* Address of the handler for interrupt bit n is VECTORS + 8 * n */
+	private static final int VECTORS = 0x40;
+
+	/* Set in pending while IME is waiting to be turned on by EI */
+	static final int EI_PENDING = 0x100;
+
+	/*
+	 * Interrupts that the CPU has to deal with before its next instruction,
+	 * or EI_PENDING while EI is waiting to take effect. Read directly by the
+	 * CPU on every instruction.
+	 */
+	int pending;
+
+	private int enabled;
+	private int requested;
+	private boolean masterEnabled;
+	private boolean enablePending;
+
+	public InterruptController(TailspinGB system) {
+		system.getIo().register(0xFF0F, address -> getRequested(), (address, data) -> setRequested(data));
+		system.getIo().register(0xFFFF, address -> getEnabled(), (address, data) -> setEnabled(data));
+		this.initialize();
+	}
+
+	/**
+	 * Clears every register, with interrupts disabled
+	 */
+	public void initialize() {
+		enabled = 0;
+		requested = 0;
+		masterEnabled = false;
+		enablePending = false;
+		update();
+	}
+
+	/**
+	 * Raises one or more interrupts, given as a mask of the bits above
+	 */
+	public void request(int interrupts) {
+		requested |= interrupts & ALL;
+		update();
+	}
+
+	/**
+	 * @return true if an enabled interrupt has been requested, whether or not
+	 *         IME is set. This is what wakes the CPU from HALT.
+	 */
+	public boolean hasRequest() {
+		return (enabled & requested & ALL) != 0;
+	}
+
+	/**
+	 * @return true if an interrupt could be serviced as soon as one is
+	 *         requested
+	 */
+	boolean isArmed() {
+		return masterEnabled && (enabled & ALL) != 0;
+	}
+
+	/**
+	 * Takes the highest priority interrupt that can be serviced, clearing its
+	 * bit in IF and turning IME off.
+	 * 
+	 * @return the address of its handler
+	 */
+	int acknowledge() {
+		int interrupt = Integer.lowestOneBit(enabled & requested & ALL);
+		requested &= ~interrupt;
+		masterEnabled = false;
+		update();
+		return VECTORS + 8 * Integer.numberOfTrailingZeros(interrupt);
+	}
+
+	/**
+	 * EI. IME is turned on after the instruction that follows, when the CPU
+	 * calls finishEnable().
+	 */
+	void enableAfterNext() {
+		enablePending = true;
+		update();
+	}
+
+	/**
+	 * Turns IME on if EI is waiting, before the instruction after EI runs
+	 */
+	void finishEnable() {
+		if (enablePending) {
+			enablePending = false;
+			masterEnabled = true;
+			update();
+		}
+	}
+
+	/**
+	 * Sets IME straight away, for DI and RETI
+	 */
+	void setMasterEnabled(boolean masterEnabled) {
+		this.masterEnabled = masterEnabled;
+		this.enablePending = false;
+		update();
+	}
+
+	public boolean isMasterEnabled() {
+		return masterEnabled;
+	}
+
+	/**
+	 * @return IE
+	 */
+	public byte getEnabled() {
+		return (byte) enabled;
+	}
+
+	public void setEnabled(byte enabled) {
+		this.enabled = enabled & 0xFF;
+		update();
+	}
+
+	/**
+	 * @return IF. The unused upper bits always read as 1.
+	 */
+	public byte getRequested() {
+		return (byte) (0xE0 | requested);
+	}
+
+	public void setRequested(byte requested) {
+		this.requested = requested & ALL;
+		update();
+	}
+
+	private void update() {
+		pending = (masterEnabled ? enabled & requested & ALL : 0) | (enablePending ? EI_PENDING : 0);
+	}
+
+}
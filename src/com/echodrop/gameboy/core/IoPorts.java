@@ -0,0 +1,93 @@
+/**
+ * IoPorts.java
+ * 
+ * @author anewkirk
+ * 
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.core;
+
+import java.util.Arrays;
+
+import com.echodrop.gameboy.interfaces.IReadHandler;
+import com.echodrop.gameboy.interfaces.IWriteHandler;
+
+/**
+ * Dispatch table for the I/O page, 0xFF00-0xFFFF, indexed by the low byte of
+ * the address.
+ * 
+ * Each component registers read and write handlers for its own registers
+ * when it's created. Addresses without a handler are a plain byte that reads
+ * back whatever was last written, which covers the zero page and any
+ * register that only stores a value.
+ */
+public class IoPorts {
+
+	private static final int PORTS = 0x100;
+
+	private final IReadHandler[] readers = new IReadHandler[PORTS];
+	private final IWriteHandler[] writers = new IWriteHandler[PORTS];
+
+	/* Backing bytes for addresses without handlers */
+	private final MemoryRegion region = new MemoryRegion((char) 0xFF00, (char) 0xFFFF, "I/O and zero page");
+	private final byte[] values = region.getContents();
+
+	/**
+	 * Clears every backing byte. Handlers stay registered.
+	 */
+	public void reset() {
+		Arrays.fill(values, (byte) 0);
+	}
+
+	/**
+	 * Sets the handlers for an address in the I/O page, replacing any
+	 * registered before
+	 * 
+	 * @param reader
+	 *            called for reads, or null to read the backing byte
+	 * @param writer
+	 *            called for writes, or null to store them in the backing byte
+	 */
+	public void register(int address, IReadHandler reader, IWriteHandler writer) {
+		readers[address & 0xFF] = reader;
+		writers[address & 0xFF] = writer;
+	}
+
+	public byte read(char address) {
+		IReadHandler reader = readers[address & 0xFF];
+		if (reader == null) {
+			return values[address & 0xFF];
+		}
+		return reader.read(address);
+	}
+
+	public void write(char address, byte data) {
+		IWriteHandler writer = writers[address & 0xFF];
+		if (writer == null) {
+			values[address & 0xFF] = data;
+		} else {
+			writer.write(address, data);
+		}
+	}
+
+	/**
+	 * @return the backing byte for an address, for handlers that keep their
+	 *         register's value in it
+	 */
+	public byte getValue(int address) {
+		return values[address & 0xFF];
+	}
+
+	public void setValue(int address, byte value) {
+		values[address & 0xFF] = value;
+	}
+
+	/**
+	 * @return the backing bytes as a memory region, for the debugger
+	 */
+	public MemoryRegion getRegion() {
+		return region;
+	}
+
+}
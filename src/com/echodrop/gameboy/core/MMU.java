@@ -8,12 +8,20 @@
 
 package com.echodrop.gameboy.core;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.logging.Logger;
 
 import com.echodrop.gameboy.exceptions.MapperNotImplementedException;
 import com.echodrop.gameboy.exceptions.MemoryAccessException;
 import com.echodrop.gameboy.exceptions.RomFileSizeException;
+import com.echodrop.gameboy.graphics.GPU;
+import com.echodrop.gameboy.graphics.TileCache;
 import com.echodrop.gameboy.rom.RomFile;
+import com.echodrop.gameboy.rom.RomImage;
+import com.echodrop.gameboy.rom.SaveFile;
 import com.echodrop.gameboy.util.NumberUtils;
 
 /**
@@ -37,14 +45,103 @@ public class MMU {
 	private MemoryRegion romBank;
 	private MemoryRegion workingRam;
 	private MemoryRegion externalRam;
-	private MemoryRegion zeroPage;
+	private IoPorts io;
 	private RomFile loadedRomFile;
 
+	/*
+	 * Page table: one entry per 256-byte page of the address space, pointing
+	 * straight at the array that backs it. Index into the array with
+	 * pageOffsets[page] + (address & 0xFF). Pages without an entry (OAM, I/O
+	 * and the zero page) go through findMemoryRegion and the I/O handling
+	 * below instead.
+	 */
+	private final byte[][] pages = new byte[256][];
+	private final int[] pageOffsets = new int[256];
+
+	/*
+	 * Bumped on every write to a page, and for every page when the page table
+	 * is rebuilt. The CPU's block cache uses these to tell when code it has
+	 * decoded may have changed.
+	 */
+	private final int[] pageGenerations = new int[256];
+
+	/*
+	 * Set while OAM DMA has the bus. The page table is emptied into
+	 * lockedPages, so every access goes through the slow path, which only
+	 * lets the CPU reach I/O and high RAM.
+	 */
+	private boolean busLocked;
+
+	/*
+	 * The array backing VRAM, and the GPU's decoded copy of the tiles in it.
+	 * Writes that land in vram mark their tile dirty.
+	 */
+	private byte[] vram;
+	private TileCache tileCache;
+	private final byte[][] lockedPages = new byte[256][];
+
+	/* Cycles a serial transfer takes on the internal clock, 8 bits at 8192Hz */
+	private static final int SERIAL_CYCLES = 4096;
+
+	/*
+	 * Scheduler event for the end of a serial transfer. Nothing is ever
+	 * connected, so it just raises the serial interrupt.
+	 */
+	private int serialEvent;
+
+	/*
+	 * Save file for battery-backed cartridge RAM, and the array it saves.
+	 * Writes that land in saveRam mark their page dirty, and a scheduler
+	 * event hands the dirty pages to the save file every saveInterval
+	 * cycles.
+	 */
+	private SaveFile saveFile;
+	private byte[] saveRam;
+	private int saveEvent;
+	private long saveTime;
+	private int saveInterval = TailspinGB.CLOCK_SPEED;
+
 	public MMU(TailspinGB system) {
 		this.system = system;
+		this.io = system.getIo();
+		this.serialEvent = system.getScheduler().addEvent("Serial transfer",
+				() -> system.getInterrupts().request(InterruptController.SERIAL));
+		this.saveEvent = system.getScheduler().addEvent("Save file sync", () -> syncSave());
+		this.registerPorts();
 		this.initialize();
 	}
 
+	/**
+	 * Registers the I/O handlers for the joypad, link cable and bootstrap,
+	 * which don't have components of their own yet
+	 */
+	private void registerPorts() {
+		// D-pad
+		io.register(0xFF00, address -> (byte) 0, (address, data) -> {
+		});
+
+		// Link cable: data
+		// TODO: out this to the logger instead of syso
+		io.register(0xFF01, address -> (byte) 0, (address, data) -> System.out.print((char) data));
+
+		// Link cable: serial transfer control. Transfers on the internal clock
+		// finish on their own.
+		io.register(0xFF02, address -> (byte) 0x81, (address, data) -> { // 0b10000001, "START TRANSFER"
+			if ((data & 0x81) == 0x81) {
+				Scheduler scheduler = system.getScheduler();
+				scheduler.schedule(serialEvent, scheduler.getCycles() + SERIAL_CYCLES);
+			}
+		});
+
+		io.register(0xFF50, null, (address, data) -> {
+			if (data == 1) {
+				biosMapped = false;
+				mapPages();
+				logger.info("[!] BIOS unmapped from memory");
+			}
+		});
+	}
+
 	/**
 	 * Sets MMU to initial state
 	 */
@@ -53,8 +150,100 @@ public class MMU {
 		setRomBank0(new MemoryRegion((char) 0x0000, (char) 0x3fff, "romBank0"));
 		setRomBank(new MemoryRegion((char) 0x4000, (char) 0x7FFF, "romBank"));
 		setWorkingRam(new MemoryRegion((char) 0xc000, (char) 0xdfff, "workingRam"));
-		setZeroPage(new MemoryRegion((char) 0xff80, (char) 0xffff, "zeroPage"));
 		setExternalRam(new MemoryRegion((char) 0xa000, (char) 0xbfff, "externalRam"));
+		closeSave();
+		loadedRomFile = null;
+		setBusLocked(false);
+		mapPages();
+	}
+
+	/**
+	 * Rebuilds the page table. Needs to be called whenever a region is
+	 * replaced or the BIOS is mapped or unmapped.
+	 */
+	private void mapPages() {
+		boolean locked = busLocked;
+		setBusLocked(false);
+		for (int i = 0; i < pageGenerations.length; i++) {
+			pageGenerations[i]++;
+		}
+		Arrays.fill(pages, null);
+		if (loadedRomFile != null) {
+			mapCartridge();
+		} else {
+			if (biosMapped) {
+				mapPages(0x00, 0x00, getBios(), 0x0000);
+				mapPages(0x01, 0x3F, getRomBank0(), 0x0000);
+			} else {
+				mapPages(0x00, 0x3F, getRomBank0(), 0x0000);
+			}
+			mapPages(0x40, 0x7F, getRomBank(), 0x4000);
+			mapPages(0xA0, 0xBF, getExternalRam(), 0xA000);
+		}
+		GPU gpu = system.getGpu();
+		vram = gpu == null ? null : gpu.getVram().getContents();
+		tileCache = gpu == null ? null : gpu.getTileCache();
+		mapPages(0x80, 0x9F, vram, 0);
+		mapPages(0xC0, 0xDF, getWorkingRam(), 0xC000);
+		// WRAM shadow
+		mapPages(0xE0, 0xFD, getWorkingRam(), 0xE000);
+		setBusLocked(locked);
+	}
+
+	/**
+	 * Points the ROM and external RAM pages straight at the banks the
+	 * cartridge has selected. Only pages that end up somewhere new get their
+	 * generation bumped, so switching to the bank already mapped costs
+	 * nothing.
+	 */
+	private void mapCartridge() {
+		RomFile cartridge = loadedRomFile;
+		int lowBank = cartridge.getLowBankOffset();
+		int highBank = cartridge.getHighBankOffset();
+		cartridge.loadBank(lowBank);
+		cartridge.loadBank(highBank);
+		if (biosMapped) {
+			mapPages(0x00, 0x00, getBios().getContents(), 0);
+			mapPages(0x01, 0x3F, cartridge.romData, lowBank + 0x100);
+		} else {
+			mapPages(0x00, 0x3F, cartridge.romData, lowBank);
+		}
+		mapPages(0x40, 0x7F, cartridge.romData, highBank);
+
+		// RAM that's disabled or not a whole bank goes through the cartridge
+		int ramBank = cartridge.getRamOffset();
+		if (ramBank >= 0) {
+			mapPages(0xA0, 0xBF, cartridge.ram, ramBank);
+		} else {
+			mapPages(0xA0, 0xBF, (byte[]) null, 0);
+		}
+	}
+
+	/**
+	 * Points pages firstPage through lastPage at region, with address base
+	 * landing on the first byte of the region. Regions that haven't been
+	 * created yet are left unmapped.
+	 */
+	private void mapPages(int firstPage, int lastPage, MemoryRegion region, int base) {
+		if (region == null) {
+			return;
+		}
+		mapPages(firstPage, lastPage, region.getContents(), (firstPage << 8) - base);
+	}
+
+	/**
+	 * Points pages firstPage through lastPage at consecutive 256-byte runs of
+	 * contents, starting at offset, or unmaps them if contents is null
+	 */
+	private void mapPages(int firstPage, int lastPage, byte[] contents, int offset) {
+		for (int page = firstPage; page <= lastPage; page++) {
+			int pageOffset = offset + ((page - firstPage) << 8);
+			if (pages[page] != contents || pageOffsets[page] != pageOffset) {
+				pages[page] = contents;
+				pageOffsets[page] = pageOffset;
+				pageGenerations[page]++;
+			}
+		}
 	}
 
 	public void initLogging() {
@@ -68,49 +257,53 @@ public class MMU {
 		if (gbBios.length > 256) {
 			throw new RomFileSizeException(256, gbBios.length);
 		}
-		for (int i = 0; i < gbBios.length; i++) {
-			getBios().setMem((char) i, (byte) (gbBios[i] & 0xFF));
-		}
+		getBios().writeBlock((char) 0, gbBios, 0, gbBios.length);
 		biosMapped = true;
+		mapPages();
 		logger.info("Bootstrap loaded: " + gbBios.length + " bytes");
 	}
 
 	/**
-	 * Loads a ROM binary with the specified filename into memory
+	 * Loads a ROM binary that's already been read into memory
 	 * 
 	 * @throws MapperNotImplementedException
 	 *             if the ROM uses an unsupported MBC
 	 */
 	public void loadRom(byte[] romData) throws MapperNotImplementedException {
+		loadRom(RomImage.wrap(romData));
+	}
 
-		RomFile rf = new RomFile(romData);
-		loadedRomFile = rf;
-		logger.info("Attempting to load ROM...");
-		logger.info(rf.toString());
-
-		// Load first 16kb regardless of what type of cartridge it is
-		for (int i = 0; i < 0x4000; i++) {
-			getRomBank0().setMem((char) i, (byte) (romData[i] & 0xFF));
+	/**
+	 * Loads a ROM file by mapping it, so only the banks that get switched to
+	 * are ever read, and other instances running the same file share them.
+	 * Battery-backed RAM is loaded from and saved to a .sav file next to it.
+	 * 
+	 * @throws MapperNotImplementedException
+	 *             if the ROM uses an unsupported MBC
+	 */
+	public void loadRom(Path path) throws IOException, MapperNotImplementedException {
+		loadRom(RomImage.open(path));
+		if (loadedRomFile.hasBattery()) {
+			saveFile = SaveFile.open(getSavePath(path), loadedRomFile.ram);
+			saveRam = loadedRomFile.ram;
+			saveTime = system.getScheduler().getCycles() + saveInterval;
+			system.getScheduler().schedule(saveEvent, saveTime);
+			logger.info("Cartridge RAM saved to " + saveFile.getPath());
 		}
+	}
 
-		// Switch on cartridge type to load the rest; for now only need to
-		// support
-		// ctype 0 and MBC1
-		switch (loadedRomFile.cartridgeType) {
-		case 0:
-			// No MBC (32kb ROM)
-			for (int i = 0x4000; i < 0x8000; i++) {
-				getRomBank().setMem((char) i, (byte) (romData[i] & 0xFF));
-			}
-			break;
-		case 1:
-			// MBC1
-			break;
-		default:
-			throw new MapperNotImplementedException();
-		}
+	private void loadRom(RomImage image) throws MapperNotImplementedException {
+		closeSave();
 
-		logger.info("ROM data loaded: " + romData.length + " bytes");
+		logger.info("Attempting to load ROM...");
+		RomFile rf = RomFile.load(image);
+		loadedRomFile = rf;
+		logger.info(rf.toString());
+
+		// Nothing is copied, the page table points straight into the ROM
+		setRomBank0(new MemoryRegion((char) 0x0000, (char) 0x3fff, rf.romData, "romBank0"));
+		mapPages();
+		logger.info("ROM data loaded: " + image.getLength() + " bytes");
 	}
 
 	/**
@@ -195,91 +388,239 @@ public class MMU {
 		}
 	}
 
+	/**
+	 * Locks or unlocks the bus for OAM DMA. While it's locked, reads from
+	 * anywhere but I/O and high RAM give 0xFF and writes there are dropped.
+	 */
+	void setBusLocked(boolean locked) {
+		if (locked == busLocked) {
+			return;
+		}
+		busLocked = locked;
+		if (locked) {
+			System.arraycopy(pages, 0, lockedPages, 0, pages.length);
+			Arrays.fill(pages, null);
+		} else {
+			System.arraycopy(lockedPages, 0, pages, 0, pages.length);
+			Arrays.fill(lockedPages, null);
+		}
+	}
+
+	/**
+	 * @return true while OAM DMA has the bus
+	 */
+	public boolean isBusLocked() {
+		return busLocked;
+	}
+
+	/**
+	 * @return the save file for a ROM: the same name, ending in .sav
+	 */
+	public static Path getSavePath(Path rom) {
+		String name = rom.getFileName().toString();
+		int extension = name.lastIndexOf('.');
+		return rom.resolveSibling((extension > 0 ? name.substring(0, extension) : name) + ".sav");
+	}
+
+	/**
+	 * Sets how often battery-backed RAM is handed to its save file, in
+	 * milliseconds of emulated time
+	 */
+	public void setSaveInterval(int milliseconds) {
+		saveInterval = (int) Math.max(1, (long) milliseconds * TailspinGB.CLOCK_SPEED / 1000);
+		if (saveFile != null) {
+			saveTime = system.getScheduler().getCycles() + saveInterval;
+			system.getScheduler().schedule(saveEvent, saveTime);
+		}
+	}
+
+	/**
+	 * Called by the scheduler every saveInterval cycles
+	 */
+	private void syncSave() {
+		saveFile.sync();
+		saveTime += saveInterval;
+		system.getScheduler().schedule(saveEvent, saveTime);
+	}
+
+	/**
+	 * Writes out any battery-backed RAM and closes its save file. Called
+	 * whenever the cartridge is unloaded, and should be called before the
+	 * emulator shuts down.
+	 */
+	public void closeSave() {
+		if (saveFile == null) {
+			return;
+		}
+		system.getScheduler().cancel(saveEvent);
+		try {
+			saveFile.close();
+		} catch (IOException e) {
+			logger.severe("[!] Unable to write save file: " + e.getMessage());
+		}
+		saveFile = null;
+		saveRam = null;
+	}
+
+	/**
+	 * @return the save file for the cartridge's RAM, or null if it has none
+	 */
+	public SaveFile getSaveFile() {
+		return saveFile;
+	}
+
 	/**
 	 * @return an 8-bit value from the address specified.
 	 */
 	public byte readByte(char address) {
+		byte[] page = pages[address >>> 8];
+		if (page != null) {
+			return page[pageOffsets[address >>> 8] + (address & 0xFF)];
+		}
+		if (address >= 0xFF00) {
+			return io.read(address);
+		}
+		if (busLocked) {
+			return (byte) 0xFF;
+		}
+		if (address >= 0xA000 && address < 0xC000 && loadedRomFile != null) {
+			return loadedRomFile.readRam(address);
+		}
 
-		switch (address) {
-		case 0xFF00:
-			// D-pad
-			return 0;
-		case 0xFF01:
-			// Link cable: data
-			return 0;
-		case 0xFF02:
-			// Link cable: serial transfer control
-			return (byte) 0x81; // 0b10000001, "START TRANSFER"
-		default:
-			if (address >= 0xFF33 && address <= 0xFF7F) {
-				return system.getGpu().readByte(address);
-			} else if (address >= 0xE000 && address <= 0xFDFF) {
-				address -= 0x2000;
-			}
-			
-			MemoryRegion r = findMemoryRegion(address);
-			if (r != null) {
-				return r.getMem(address);
-			}
-			return 0;
+		// Trap reads from ECHO RAM
+		if (address >= 0xE000 && address <= 0xFDFF) {
+			address -= 0x2000;
+		}
 
+		MemoryRegion r = findMemoryRegion(address);
+		if (r != null) {
+			return r.getMem(address);
 		}
-		// if (address == 0xFF00) {
-		// // D-pad
-		// return 00;
-		// } else if(address == 0xFF01) {
-		// // Link cable: data
-		// return 00;
-		// }else if(address == 0xFF02) {
-		// // Link cable: serial transfer control
-		// return (byte)0x81; // 0b10000001, "START TRANSFER"
-		// } else if (address >= 0xFF03 && address <= 0xFF7F) {
-		// return system.getGpu().readByte(address);
-		// }
-		//
-		// //Trap reads from ECHO RAM
-		// if(address >= 0xE000 && address <= 0xFDFF) {
-		// address -= 0x2000;
-		// }
-		//
-		// MemoryRegion r = findMemoryRegion(address);
-		// if (r != null) {
-		// return r.getMem(address);
-		// }
-		// return 0;
+		return 0;
 	}
 
 	/**
 	 * @return a 16-bit value from the address specified.
 	 */
 	public char readWord(char address) {
-
-		if (address >= 0xFF00 && address <= 0xFF7F) {
-			return system.getGpu().readWord(address);
-		}
 		byte b1 = readByte(address);
 		byte b2 = readByte((char) (address + 1));
 		return NumberUtils.bytesToWord(b1, b2);
 	}
 
+	/**
+	 * Reads length bytes starting at an address into dest. Runs of mapped
+	 * pages are copied straight out of the arrays backing them, and anything
+	 * else is read a byte at a time as readByte would.
+	 */
+	public void readBlock(char address, byte[] dest, int offset, int length) {
+		int end = offset + length;
+		while (offset < end) {
+			int chunk = Math.min(end - offset, 0x100 - (address & 0xFF));
+			byte[] page = pages[address >>> 8];
+			if (page != null) {
+				System.arraycopy(page, pageOffsets[address >>> 8] + (address & 0xFF), dest, offset, chunk);
+			} else {
+				for (int i = 0; i < chunk; i++) {
+					dest[offset + i] = readByte((char) (address + i));
+				}
+			}
+			offset += chunk;
+			address += chunk;
+		}
+	}
+
+	/**
+	 * Writes length bytes from src, starting at an address. Mapped pages are
+	 * copied into in one go, with the same bookkeeping as writeByte, and
+	 * writes that have side effects, such as to MBC registers and I/O ports,
+	 * still go through writeByte a byte at a time.
+	 */
+	public void writeBlock(char address, byte[] src, int offset, int length) {
+		int end = offset + length;
+		while (offset < end) {
+			int chunk = Math.min(end - offset, 0x100 - (address & 0xFF));
+			byte[] page = pages[address >>> 8];
+			if (page != null && (address >= 0x8000 || loadedRomFile == null)) {
+				int index = pageOffsets[address >>> 8] + (address & 0xFF);
+				System.arraycopy(src, offset, page, index, chunk);
+				pageGenerations[address >>> 8]++;
+				if (page == vram) {
+					for (int i = 0; i < chunk; i += 16) {
+						tileCache.markDirty(index + i);
+					}
+					tileCache.markDirty(index + chunk - 1);
+				} else if (page == saveRam) {
+					saveFile.markDirty(index);
+					saveFile.markDirty(index + chunk - 1);
+				}
+			} else {
+				for (int i = 0; i < chunk; i++) {
+					writeByte((char) (address + i), src[offset + i]);
+				}
+			}
+			offset += chunk;
+			address += chunk;
+		}
+	}
+
+	/**
+	 * @return a read-only view of length bytes from an address, which all
+	 *         have to be mapped to one array. It shows the memory as it
+	 *         changes, but not a different bank being switched in, so it's
+	 *         meant for VRAM and working RAM.
+	 */
+	public ByteBuffer getReadOnlyBuffer(char address, int length) {
+		if (length <= 0 || address + length > 0x10000) {
+			throw new MemoryAccessException(address);
+		}
+		int first = address >>> 8;
+		int last = (address + length - 1) >>> 8;
+		byte[] page = pages[first];
+		for (int i = first; i <= last; i++) {
+			if (page == null || pages[i] != page || pageOffsets[i] != pageOffsets[first] + ((i - first) << 8)) {
+				throw new MemoryAccessException(address);
+			}
+		}
+		int index = pageOffsets[first] + (address & 0xFF);
+		return ByteBuffer.wrap(page, index, length).slice().asReadOnlyBuffer();
+	}
+
 	/**
 	 * Writes an 8-bit value into the address specified.
 	 */
 	public void writeByte(char address, byte data) {
-		if (address == 0xFF50 && data == 1) {
-			biosMapped = false;
-			logger.info("[!] BIOS unmapped from memory");
-		} else if (address == 0xFF00) {
-			// D-pad
-		} else if (address == 0xFF01) {
-			// Link-cable: data
-			// TODO: out this to the logger instead of syso
-			System.out.print((char) data);
-		} else if (address == 0xFF02) {
-			// Link-cable: serial transfer control
-
-		} else if (address >= 0xFF03 && address <= 0xFF7F) {
-			system.getGpu().writeByte(address, data);
+		// The ROM itself is read only, writes to it go to the MBC
+		if (address < 0x8000 && loadedRomFile != null) {
+			if (!busLocked && loadedRomFile.writeRegister(address, data)) {
+				mapCartridge();
+			}
+			return;
+		}
+
+		// I/O writes leave the code in high RAM, which shares their page, alone
+		if (address < 0xFF00 || (address >= 0xFF80 && address < 0xFFFF)) {
+			pageGenerations[address >>> 8]++;
+		}
+		byte[] page = pages[address >>> 8];
+		if (page != null) {
+			int offset = pageOffsets[address >>> 8] + (address & 0xFF);
+			page[offset] = data;
+			if (page == vram) {
+				tileCache.markDirty(offset);
+			} else if (page == saveRam) {
+				saveFile.markDirty(offset);
+			}
+		} else if (address >= 0xFF00) {
+			io.write(address, data);
+		} else if (busLocked) {
+			// Only I/O and high RAM can be reached during OAM DMA
+		} else if (address >= 0xA000 && address < 0xC000 && loadedRomFile != null) {
+			loadedRomFile.writeRam(address, data);
+			if (saveFile != null) {
+				// Smaller RAM, like MBC2's, repeats through the whole area
+				saveFile.markDirty((address - 0xA000) % saveRam.length);
+			}
 		} else {
 			// Trap writes to ECHO RAM
 			if (address >= 0xE000 && address <= 0xFDFF) {
@@ -293,6 +634,23 @@ public class MMU {
 		}
 	}
 
+	/**
+	 * @return offset in the cartridge ROM of the bank mapped at 0x4000-0x7FFF,
+	 *         or -1 if no cartridge ROM is mapped there
+	 */
+	int getRomBankOffset() {
+		return loadedRomFile != null && pages[0x40] == loadedRomFile.romData ? pageOffsets[0x40] : -1;
+	}
+
+	/**
+	 * @return write generation of a 256-byte page. Changes whenever the page
+	 *         is written through the MMU or remapped, except by writes to the
+	 *         I/O registers.
+	 */
+	int getPageGeneration(int page) {
+		return pageGenerations[page];
+	}
+
 	public MemoryRegion getBios() {
 		return bios;
 	}
@@ -311,6 +669,7 @@ public class MMU {
 
 	public void setRomBank(MemoryRegion romBank) {
 		this.romBank = romBank;
+		mapPages();
 	}
 
 	public MemoryRegion getWorkingRam() {
@@ -321,12 +680,11 @@ public class MMU {
 		return externalRam;
 	}
 
+	/**
+	 * @return the backing bytes of the I/O page, which hold the zero page
+	 */
 	public MemoryRegion getZeroPage() {
-		return zeroPage;
-	}
-
-	private void setZeroPage(MemoryRegion zeroPage) {
-		this.zeroPage = zeroPage;
+		return io.getRegion();
 	}
 
 	private void setExternalRam(MemoryRegion externalRam) {
@@ -341,6 +699,13 @@ public class MMU {
 		this.romBank0 = rom;
 	}
 
+	/**
+	 * @return the cartridge loaded by loadRom, or null
+	 */
+	public RomFile getLoadedRomFile() {
+		return loadedRomFile;
+	}
+
 	public boolean isBiosMapped() {
 		return biosMapped;
 	}
@@ -8,6 +8,8 @@
 
 package com.echodrop.gameboy.core;
 
+import java.nio.ByteBuffer;
+
 import com.echodrop.gameboy.exceptions.MemoryAccessException;
 import com.echodrop.gameboy.util.StringUtils;
 
@@ -37,6 +39,17 @@ public class MemoryRegion {
 		this.contents = new byte[size];
 	}
 
+	/**
+	 * A region that uses the start of an existing array instead of its own,
+	 * such as bank 0 of a loaded ROM
+	 */
+	MemoryRegion(char start, char end, byte[] contents, String name) {
+		this.setName(name);
+		this.start = start;
+		this.size = end - start + 1;
+		this.contents = contents;
+	}
+
 	/**
 	 * @return byte value at the specified address
 	 */
@@ -59,6 +72,47 @@ public class MemoryRegion {
 		contents[index] = content;
 	}
 
+	/**
+	 * Copies length bytes starting at an address into dest
+	 */
+	public void readBlock(char addr, byte[] dest, int offset, int length) {
+		System.arraycopy(contents, checkBlock(addr, length), dest, offset, length);
+	}
+
+	/**
+	 * Copies length bytes from src into the region, starting at an address
+	 */
+	public void writeBlock(char addr, byte[] src, int offset, int length) {
+		System.arraycopy(src, offset, contents, checkBlock(addr, length), length);
+	}
+
+	/**
+	 * @return a read-only view of the whole region. It isn't a copy, so it
+	 *         always shows the current contents.
+	 */
+	public ByteBuffer asReadOnlyBuffer() {
+		return ByteBuffer.wrap(contents, 0, size).slice().asReadOnlyBuffer();
+	}
+
+	/**
+	 * @return index in contents of an address, if length bytes from it are
+	 *         all in the region
+	 */
+	private int checkBlock(char addr, int length) {
+		int index = addr - start;
+		if (index < 0 || length < 0 || index + length > size) {
+			throw new MemoryAccessException(addr, this);
+		}
+		return index;
+	}
+
+	/**
+	 * @return the array backing this region, for the MMU's page table
+	 */
+	byte[] getContents() {
+		return contents;
+	}
+
 	/**
 	 * @return Human-readable name
 	 */
@@ -72,21 +126,22 @@ public class MemoryRegion {
 
 	@Override
 	public String toString() {
-		String table = "        00 01 02 03 04 05 06 07 08 09 0A 0B 0C 0D 0E 0F\n";
-		table += "        -----------------------------------------------\n";
-
-		for (int i = 0; i < contents.length / 16; i++) {
+		StringBuilder table = new StringBuilder(name).append('\n');
+		table.append("        00 01 02 03 04 05 06 07 08 09 0A 0B 0C 0D 0E 0F\n");
+		table.append("        -----------------------------------------------\n");
 
-			table += "0x" + StringUtils.zeroLeftPad(Integer.toHexString((i * 16 + start)), 4) + "| ";
+		byte[] row = new byte[16];
+		for (int i = 0; i < size / 16; i++) {
+			readBlock((char) (start + i * 16), row, 0, row.length);
+			table.append("0x").append(StringUtils.zeroLeftPad(Integer.toHexString((i * 16 + start)), 4)).append("| ");
 
 			for (int j = 0; j < 16; j++) {
-				table += StringUtils.zeroLeftPad(Integer.toHexString(getMem((char) ((start + i * 16 + j))) & 0xFF), 2)
-						+ " ";
+				table.append(StringUtils.zeroLeftPad(Integer.toHexString(row[j] & 0xFF), 2)).append(' ');
 			}
-			table += "\n";
+			table.append('\n');
 		}
 
-		return name + "\n" + table;
+		return table.toString();
 	}
 
 }
\ No newline at end of file
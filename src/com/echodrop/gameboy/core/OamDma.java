@@ -0,0 +1,81 @@
+/**
+ * OamDma.java
+ * 
+ * @author anewkirk
+ * 
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.core;
+
+/**
+ * OAM DMA, started by writing the high byte of a source address to 0xFF46.
+ * 
+ * The 160 bytes are copied into OAM in one go when the transfer starts.
+ * For the 160 machine cycles the real transfer takes, the MMU locks the bus
+ * so the CPU can only reach the I/O registers and high RAM, and a scheduler
+ * event unlocks it again. Nothing is checked per instruction, whether or not
+ * a transfer is running.
+ */
+public class OamDma {
+
+	public static final char DMA = 0xFF46;
+
+	/* Bytes copied, and T-cycles the transfer keeps the bus for */
+	public static final int LENGTH = 0xA0;
+	public static final int CYCLES = LENGTH * 4;
+
+	private TailspinGB system;
+	private Scheduler scheduler;
+
+	/* Scheduler event for the end of the transfer */
+	private int finishEvent;
+
+	/* Last value written to DMA */
+	private int source;
+
+	private final byte[] buffer = new byte[LENGTH];
+
+	public OamDma(TailspinGB system) {
+		this.system = system;
+		this.scheduler = system.getScheduler();
+		this.finishEvent = scheduler.addEvent("OAM DMA", () -> system.getMem().setBusLocked(false));
+		system.getIo().register(DMA, address -> (byte) source, (address, data) -> start(data));
+		this.initialize();
+	}
+
+	public void initialize() {
+		source = 0;
+		scheduler.cancel(finishEvent);
+		system.getMem().setBusLocked(false);
+	}
+
+	/**
+	 * Copies from source << 8 into OAM, and locks the bus until the transfer
+	 * would have finished
+	 */
+	private void start(byte data) {
+		source = data & 0xFF;
+		MMU mem = system.getMem();
+
+		// Sources past working RAM read from its echo
+		int address = source << 8;
+		if (address >= 0xE000) {
+			address -= 0x2000;
+		}
+		mem.setBusLocked(false);
+		mem.readBlock((char) address, buffer, 0, LENGTH);
+		system.getGpu().getOam().writeBlock((char) 0xFE00, buffer, 0, LENGTH);
+
+		mem.setBusLocked(true);
+		scheduler.schedule(finishEvent, scheduler.getCycles() + CYCLES);
+	}
+
+	/**
+	 * @return true while a transfer has the bus
+	 */
+	public boolean isActive() {
+		return system.getMem().isBusLocked();
+	}
+
+}
@@ -9,63 +9,55 @@
 package com.echodrop.gameboy.core;
 
 /**
- * Represents a GameBoy Z80 CPU instruction
+ * Represents a GameBoy Z80 CPU instruction. Opcodes are immutable, so one
+ * table of them can be shared by every CPU.
  */
 public class Opcode {
-	
-	private Runnable instruction;
-	private String disassembly;
-	private byte mTime;
-	private byte conditionalTime;
-	
-	public Opcode(String disassembly, Runnable instruction, byte m_time) {
-		this.setDisassembly(disassembly);
-		this.setInstruction(instruction);
-		this.setMTime(m_time);
-	}
-	
-	public Opcode(String disassembly, Runnable instruction, byte m_time, byte conditional_time) {
-		this(disassembly, instruction, m_time);
-		this.setConditionalTime(conditionalTime);
-	}
-	
+
 	/**
-	 * Executes the CPU instruction
+	 * What an instruction does, run against the CPU passed in
 	 */
-	public void exec() {
-		instruction.run();
+	public interface Instruction {
+		void exec(CPU processor);
 	}
 
-	public Runnable getInstruction() {
-		return instruction;
+	private final Instruction instruction;
+	private final String disassembly;
+	private final byte mTime;
+	private final byte conditionalTime;
+
+	public Opcode(String disassembly, Instruction instruction, byte m_time) {
+		this(disassembly, instruction, m_time, (byte) 0);
 	}
 
-	public void setInstruction(Runnable instruction) {
+	public Opcode(String disassembly, Instruction instruction, byte m_time, byte conditional_time) {
+		this.disassembly = disassembly;
 		this.instruction = instruction;
+		this.mTime = m_time;
+		this.conditionalTime = conditional_time;
 	}
 
-	public String getMnemonic() {
-		return disassembly;
+	/**
+	 * Executes the CPU instruction on the given processor
+	 */
+	public void exec(CPU processor) {
+		instruction.exec(processor);
 	}
 
-	public void setDisassembly(String disassembly) {
-		this.disassembly = disassembly;
+	public Instruction getInstruction() {
+		return instruction;
 	}
 
-	public byte getMTime() {
-		return mTime;
+	public String getMnemonic() {
+		return disassembly;
 	}
 
-	public void setMTime(byte mTime) {
-		this.mTime = mTime;
+	public byte getMTime() {
+		return mTime;
 	}
 
 	public byte getConditional_time() {
 		return conditionalTime;
 	}
 
-	public void setConditionalTime(byte conditionalTime) {
-		this.conditionalTime = conditionalTime;
-	}
-
 }
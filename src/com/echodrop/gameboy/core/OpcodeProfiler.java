@@ -0,0 +1,121 @@
+/**
+ * OpcodeProfiler.java
+ * 
+ * @author anewkirk
+ * 
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts the pairs and triples of opcodes run through CPU.step, to find the
+ * sequences worth fusing into a single handler.
+ * 
+ * Opcodes are given as in the trace buffer: 0x00-0xFF, or 0xCBxx for CB
+ * prefixed ones.
+ */
+public class OpcodeProfiler {
+
+	/* Opcodes are indexed 0-255, then 256-511 for the CB prefixed ones */
+	private static final int CODES = 512;
+
+	private final long[] pairs = new long[CODES * CODES];
+	private final Map<Integer, long[]> triples = new HashMap<Integer, long[]>();
+
+	/* Indices of the last two opcodes run, or -1 */
+	private int previous = -1;
+	private int beforePrevious = -1;
+
+	/**
+	 * Counts an opcode run after the ones already recorded
+	 */
+	void record(int opcode) {
+		int index = index(opcode);
+		if (previous >= 0) {
+			pairs[previous * CODES + index]++;
+			if (beforePrevious >= 0) {
+				int key = (beforePrevious * CODES + previous) * CODES + index;
+				long[] count = triples.get(key);
+				if (count == null) {
+					count = new long[1];
+					triples.put(key, count);
+				}
+				count[0]++;
+			}
+		}
+		beforePrevious = previous;
+		previous = index;
+	}
+
+	public void reset() {
+		Arrays.fill(pairs, 0);
+		triples.clear();
+		previous = -1;
+		beforePrevious = -1;
+	}
+
+	public long getPairCount(int first, int second) {
+		return pairs[index(first) * CODES + index(second)];
+	}
+
+	public long getTripleCount(int first, int second, int third) {
+		long[] count = triples.get((index(first) * CODES + index(second)) * CODES + index(third));
+		return count == null ? 0 : count[0];
+	}
+
+	/**
+	 * @return the most common pairs and triples, one per line, with counts
+	 *         and mnemonics
+	 */
+	public String report(CPU processor, int top) {
+		List<long[]> pairList = new ArrayList<long[]>();
+		for (int i = 0; i < pairs.length; i++) {
+			if (pairs[i] > 0) {
+				pairList.add(new long[] { pairs[i], i / CODES, i % CODES });
+			}
+		}
+		List<long[]> tripleList = new ArrayList<long[]>();
+		for (Map.Entry<Integer, long[]> e : triples.entrySet()) {
+			int key = e.getKey();
+			tripleList.add(new long[] { e.getValue()[0], key / CODES / CODES, key / CODES % CODES, key % CODES });
+		}
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("Pairs:\n");
+		appendTop(sb, processor, pairList, top);
+		sb.append("Triples:\n");
+		appendTop(sb, processor, tripleList, top);
+		return sb.toString();
+	}
+
+	private static void appendTop(StringBuilder sb, CPU processor, List<long[]> sequences, int top) {
+		sequences.sort((a, b) -> Long.compare(b[0], a[0]));
+		for (int i = 0; i < Math.min(top, sequences.size()); i++) {
+			long[] sequence = sequences.get(i);
+			sb.append(String.format("%12d  ", sequence[0]));
+			for (int j = 1; j < sequence.length; j++) {
+				if (j > 1) {
+					sb.append("; ");
+				}
+				sb.append(processor.getMnemonic(opcode((int) sequence[j])));
+			}
+			sb.append('\n');
+		}
+	}
+
+	private static int index(int opcode) {
+		return opcode > 0xFF ? 0x100 | (opcode & 0xFF) : opcode;
+	}
+
+	private static int opcode(int index) {
+		return index > 0xFF ? 0xCB00 | (index & 0xFF) : index;
+	}
+
+}
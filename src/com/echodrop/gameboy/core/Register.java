@@ -23,6 +23,13 @@ public class Register implements IInternalByteValue {
 		this.setName(name);
 	}
 
+	/**
+	 * For subclasses that keep their value somewhere else
+	 */
+	protected Register(String name) {
+		this.setName(name);
+	}
+
 	@Override
 	public String toString() {
 		return Integer.toHexString(getValue() & 0xFF);
@@ -0,0 +1,47 @@
+/**
+ * RunResult.java
+ * 
+ * @author anewkirk
+ * 
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.core;
+
+/**
+ * The outcome of a batch of instructions run by CPU.runFor or CPU.runFrame
+ */
+public class RunResult {
+
+	private final long cycles;
+	private final long instructions;
+	private final StopReason reason;
+
+	public RunResult(long cycles, long instructions, StopReason reason) {
+		this.cycles = cycles;
+		this.instructions = instructions;
+		this.reason = reason;
+	}
+
+	/**
+	 * @return cycles executed during the batch. Can be slightly over the
+	 *         budget, since the last instruction always runs to completion.
+	 */
+	public long getCycles() {
+		return cycles;
+	}
+
+	public long getInstructions() {
+		return instructions;
+	}
+
+	public StopReason getReason() {
+		return reason;
+	}
+
+	@Override
+	public String toString() {
+		return reason + ": " + instructions + " instructions, " + cycles + " cycles";
+	}
+
+}
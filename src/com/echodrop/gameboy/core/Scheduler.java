@@ -0,0 +1,143 @@
+/**
+ * Scheduler.java
+ *
+ * @author anewkirk
+ *
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.core;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the master cycle count for one emulated system, and fires component
+ * events (GPU mode changes, timers, serial...) when the count reaches them.
+ *
+ * Components add an event once, then schedule it for an absolute cycle. The
+ * CPU only advances the count after each instruction; nothing else is polled
+ * until the earliest scheduled event comes due.
+ *
+ * All times are in T-cycles (4.194304 MHz).
+ */
+public class Scheduler {
+
+	/**
+	 * Time of an event that isn't scheduled
+	 */
+	public static final long NEVER = Long.MAX_VALUE;
+
+	private static final int MAX_EVENTS = 16;
+
+	private long cycles;
+	private final long[] eventTimes = new long[MAX_EVENTS];
+	private final Runnable[] handlers = new Runnable[MAX_EVENTS];
+	private final String[] names = new String[MAX_EVENTS];
+	private int eventCount;
+
+	/* Earliest scheduled event, cached so advance() is a single comparison */
+	private long nextEventTime;
+	private int nextEvent;
+
+	public Scheduler() {
+		this.reset();
+	}
+
+	/**
+	 * Sets the cycle count back to 0 and unschedules every event. Added events
+	 * stay registered.
+	 */
+	public void reset() {
+		cycles = 0;
+		Arrays.fill(eventTimes, NEVER);
+		findNextEvent();
+	}
+
+	/**
+	 * Registers an event.
+	 *
+	 * @param name
+	 *            human readable name, for debugging
+	 * @param handler
+	 *            called when the event comes due. It may schedule itself or
+	 *            any other event again.
+	 * @return the id to schedule the event with
+	 */
+	public int addEvent(String name, Runnable handler) {
+		if (eventCount == MAX_EVENTS) {
+			throw new IllegalStateException("Too many scheduler events, can't add " + name);
+		}
+		names[eventCount] = name;
+		handlers[eventCount] = handler;
+		eventTimes[eventCount] = NEVER;
+		return eventCount++;
+	}
+
+	/**
+	 * Schedules an event for an absolute cycle count, replacing any earlier
+	 * schedule for it
+	 */
+	public void schedule(int event, long time) {
+		eventTimes[event] = time;
+		findNextEvent();
+	}
+
+	public void cancel(int event) {
+		schedule(event, NEVER);
+	}
+
+	/**
+	 * Moves the cycle count forward, firing every event that comes due on the
+	 * way in time order
+	 */
+	public void advance(int elapsed) {
+		cycles += elapsed;
+		while (cycles >= nextEventTime) {
+			int event = nextEvent;
+			eventTimes[event] = NEVER;
+			findNextEvent();
+			handlers[event].run();
+		}
+	}
+
+	private void findNextEvent() {
+		nextEventTime = NEVER;
+		nextEvent = -1;
+		for (int i = 0; i < eventCount; i++) {
+			if (eventTimes[i] < nextEventTime) {
+				nextEventTime = eventTimes[i];
+				nextEvent = i;
+			}
+		}
+	}
+
+	/**
+	 * @return master cycle count since the last reset
+	 */
+	public long getCycles() {
+		return cycles;
+	}
+
+	/**
+	 * @return the time an event is scheduled for, or NEVER
+	 */
+	public long getEventTime(int event) {
+		return eventTimes[event];
+	}
+
+	/**
+	 * @return time of the earliest scheduled event, or NEVER
+	 */
+	public long getNextEventTime() {
+		return nextEventTime;
+	}
+
+	public String getEventName(int event) {
+		return names[event];
+	}
+
+	public int getEventCount() {
+		return eventCount;
+	}
+
+}
@@ -0,0 +1,24 @@
+/**
+ * StopReason.java
+ * 
+ * @author anewkirk
+ * 
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.core;
+
+/**
+ * Why a batch of instructions run by CPU.runFor or CPU.runFrame ended
+ */
+public enum StopReason {
+	
+	/* The cycle budget ran out */
+	CYCLES,
+	
+	/* The GPU finished a frame */
+	FRAME,
+	
+	/* The stop condition passed in returned true */
+	CONDITION;
+}
@@ -13,6 +13,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.echodrop.gameboy.graphics.GPU;
+import com.echodrop.gameboy.logging.TraceBuffer;
 
 /**
  * This class represents a combination of the components required for the
@@ -21,14 +22,41 @@ import com.echodrop.gameboy.graphics.GPU;
 public class TailspinGB {
 
 	private static final Logger logger = Logger.getLogger(TailspinGB.class.getName());
+
+	/**
+	 * T-cycles per second of a real DMG
+	 */
+	public static final int CLOCK_SPEED = 4194304;
+
 	private CPU processor;
 	private GPU gpu;
 	private MMU mem;
+	private Scheduler scheduler;
+	private IoPorts io;
+	private InterruptController interrupts;
+	private Timer timer;
+	private OamDma dma;
+	private TraceBuffer trace;
+
+	/*
+	 * Cycles and host time spent in CPU.runFor/runFrame since the last reset,
+	 * for the speed metrics
+	 */
+	private long runCycles;
+	private long runNanos;
 
 	public TailspinGB() {
+		this.scheduler = new Scheduler();
+		this.io = new IoPorts();
+		this.interrupts = new InterruptController(this);
+		this.trace = new TraceBuffer(scheduler, TraceBuffer.ENABLED ? TraceBuffer.DEFAULT_CAPACITY : 0);
+
+		// The MMU maps VRAM straight from the GPU, so the GPU comes first
+		this.setGpu(new GPU(this));
+		this.timer = new Timer(this);
 		this.setMem(new MMU(this));
+		this.dma = new OamDma(this);
 		this.setProcessor(new CPU(this));
-		this.setGpu(new GPU(this));
 	}
 
 
@@ -52,9 +80,17 @@ public class TailspinGB {
 	 * Initilaize each component of the emulator
 	 */
 	public void reset() {
+		scheduler.reset();
+		io.reset();
+		interrupts.initialize();
+		timer.initialize();
+		trace.clear();
+		runCycles = 0;
+		runNanos = 0;
 		processor.initialize();
 		gpu.initialize();
 		mem.initialize();
+		dma.initialize();
 	}
 
 	public MMU getMem() {
@@ -81,6 +117,70 @@ public class TailspinGB {
 		this.processor = processor;
 	}
 
+	public Scheduler getScheduler() {
+		return scheduler;
+	}
+
+	public IoPorts getIo() {
+		return io;
+	}
+
+	public InterruptController getInterrupts() {
+		return interrupts;
+	}
+
+	public Timer getTimer() {
+		return timer;
+	}
+
+	public OamDma getDma() {
+		return dma;
+	}
+
+	public TraceBuffer getTrace() {
+		return trace;
+	}
+
+	/**
+	 * @return T-cycles emulated since the last reset
+	 */
+	public long getCycles() {
+		return scheduler.getCycles();
+	}
+
+	/**
+	 * @return M-cycles (4 T-cycles each) emulated since the last reset
+	 */
+	public long getMachineCycles() {
+		return scheduler.getCycles() / 4;
+	}
+
+	/**
+	 * Called by the CPU after each batch of instructions
+	 */
+	void addRunTime(long cycles, long nanos) {
+		runCycles += cycles;
+		runNanos += nanos;
+	}
+
+	/**
+	 * @return emulated T-cycles per host second, averaged over every batch
+	 *         run since the last reset. Single steps aren't counted.
+	 */
+	public double getCyclesPerSecond() {
+		if (runNanos == 0) {
+			return 0;
+		}
+		return runCycles * 1e9 / runNanos;
+	}
+
+	/**
+	 * @return emulation speed relative to a real DMG, where 1 is full speed
+	 */
+	public double getSpeedRatio() {
+		return getCyclesPerSecond() / CLOCK_SPEED;
+	}
+
 	public Logger getLogger() {
 		return logger;
 	}
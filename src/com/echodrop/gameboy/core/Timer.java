@@ -0,0 +1,161 @@
+/**
+ * Timer.java
+ * 
+ * @author anewkirk
+ * 
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.core;
+
+/**
+ * The divider and timer registers, DIV, TIMA, TMA and TAC (0xFF04-0xFF07).
+ * 
+ * Nothing here runs per instruction. DIV and TIMA are worked out from the
+ * master cycle count when they're read, and TIMA overflowing is a scheduler
+ * event that reloads it from TMA and raises the timer interrupt.
+ * 
+ * TIMA counts falling edges of the internal divider like the real thing, so
+ * it stays in step with DIV, but the extra ticks from writing DIV or TAC at
+ * the wrong moment, and the short delay before TMA is reloaded, are not
+ * emulated.
+ */
+public class Timer {
+
+	public static final char DIV = 0xFF04;
+	public static final char TIMA = 0xFF05;
+	public static final char TMA = 0xFF06;
+	public static final char TAC = 0xFF07;
+
+	/* Cycles per TIMA tick, indexed by the clock select bits of TAC */
+	private static final int[] PERIODS = { 1024, 16, 64, 256 };
+
+	private static final int TIMER_ENABLE = 0x04;
+
+	private Scheduler scheduler;
+	private InterruptController interrupts;
+
+	/* Scheduler event for TIMA overflowing, and the cycle it's due on */
+	private int overflowEvent;
+	private long overflowTime;
+
+	/* Cycle the internal divider was last reset on */
+	private long dividerStart;
+
+	/* Value of TIMA as of counterTime */
+	private int counter;
+	private long counterTime;
+
+	private int modulo;
+	private int control;
+
+	public Timer(TailspinGB system) {
+		this.scheduler = system.getScheduler();
+		this.interrupts = system.getInterrupts();
+		this.overflowEvent = scheduler.addEvent("Timer overflow", () -> overflow());
+		for (char address = DIV; address <= TAC; address++) {
+			system.getIo().register(address, this::readByte, this::writeByte);
+		}
+		this.initialize();
+	}
+
+	/**
+	 * Sets every register to 0, with the divider starting from now
+	 */
+	public void initialize() {
+		dividerStart = scheduler.getCycles();
+		counterTime = dividerStart;
+		counter = 0;
+		modulo = 0;
+		control = 0;
+		scheduleOverflow();
+	}
+
+	public byte readByte(char address) {
+		switch (address) {
+		case DIV:
+			return (byte) ((scheduler.getCycles() - dividerStart) >>> 8);
+		case TIMA:
+			return (byte) currentCounter();
+		case TMA:
+			return (byte) modulo;
+		case TAC:
+			return (byte) (0xF8 | control);
+		}
+		throw new IllegalArgumentException("Not a timer register: " + Integer.toHexString(address));
+	}
+
+	public void writeByte(char address, byte data) {
+		// Bring TIMA up to date before anything it's counted from changes
+		counter = currentCounter();
+		counterTime = scheduler.getCycles();
+
+		switch (address) {
+		case DIV:
+			dividerStart = counterTime;
+			break;
+		case TIMA:
+			counter = data & 0xFF;
+			break;
+		case TMA:
+			modulo = data & 0xFF;
+			break;
+		case TAC:
+			control = data & 0x07;
+			break;
+		}
+		scheduleOverflow();
+	}
+
+	/**
+	 * @return true for the registers that change between scheduler events,
+	 *         which a polling loop can't be fast forwarded over
+	 */
+	public static boolean isCounter(int address) {
+		return address == DIV || address == TIMA;
+	}
+
+	/**
+	 * @return TIMA, counting the ticks since counterTime
+	 */
+	private int currentCounter() {
+		if ((control & TIMER_ENABLE) == 0) {
+			return counter;
+		}
+		return counter + ticks(counterTime, scheduler.getCycles());
+	}
+
+	/**
+	 * @return falling edges of the divider bit selected by TAC from one cycle
+	 *         to another
+	 */
+	private int ticks(long from, long to) {
+		int period = PERIODS[control & 0x03];
+		return (int) ((to - dividerStart) / period - (from - dividerStart) / period);
+	}
+
+	/**
+	 * Schedules the overflow event for the tick that takes TIMA past 0xFF
+	 */
+	private void scheduleOverflow() {
+		if ((control & TIMER_ENABLE) == 0) {
+			scheduler.cancel(overflowEvent);
+			return;
+		}
+		int period = PERIODS[control & 0x03];
+		long ticksBefore = (counterTime - dividerStart) / period;
+		overflowTime = dividerStart + (ticksBefore + 0x100 - counter) * period;
+		scheduler.schedule(overflowEvent, overflowTime);
+	}
+
+	/**
+	 * Called by the scheduler when TIMA overflows
+	 */
+	private void overflow() {
+		counter = modulo;
+		counterTime = overflowTime;
+		interrupts.request(InterruptController.TIMER);
+		scheduleOverflow();
+	}
+
+}
@@ -34,5 +34,6 @@ public enum DebugAction {
 	VIDEO,
 	TILEWRITETEST,
 	RENDER,
-	LOADBIOS;
+	LOADBIOS,
+	TRACEDMP;
 }
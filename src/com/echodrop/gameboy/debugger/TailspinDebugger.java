@@ -9,18 +9,28 @@
 package com.echodrop.gameboy.debugger;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 //import com.echodrop.gameboy.core.Register;
+import com.echodrop.gameboy.core.CPU;
+import com.echodrop.gameboy.core.RunResult;
 import com.echodrop.gameboy.core.TailspinGB;
+import com.echodrop.gameboy.interfaces.IStopCondition;
 import com.echodrop.gameboy.ui.swing.SwingScreen;
 import com.echodrop.gameboy.util.GraphicsUtils;
 
 /**
  * A simple command line debugger for the Tailspin emulator
  */
-public class TailspinDebugger {
+public class TailspinDebugger implements IStopCondition {
 
 	private ArrayList<Breakpoint> breakpoints;
+
+	/**
+	 * One entry per address, true if any breakpoint is set there. Lets
+	 * atBreakPoint skip the breakpoint list for almost every instruction.
+	 */
+	private boolean[] breakpointAddresses = new boolean[0x10000];
 	private TailspinGB system;
 	//private ArrayList<Register> availableRegisters = new ArrayList<Register>();
 	private SwingScreen vid;
@@ -81,10 +91,12 @@ public class TailspinDebugger {
 
 	public void addBreakpoint(Breakpoint bp) {
 		getBreakpoints().add(bp);
+		breakpointAddresses[bp.getAddress()] = true;
 	}
 
 	public void clearBreakpoints() {
 		getBreakpoints().clear();
+		Arrays.fill(breakpointAddresses, false);
 	}
 
 	/**
@@ -115,9 +127,11 @@ public class TailspinDebugger {
 	}
 
 	public boolean atBreakPoint() {
+		char pc = (char) (getSystem().getProcessor().getPc() & 0xFFFF);
+		if (!breakpointAddresses[pc]) {
+			return false;
+		}
 		for (Breakpoint b : getBreakpoints()) {
-			char pc = (char) (getSystem().getProcessor().getPc() & 0xFFFF);
-
 			if (b.trigger(pc)) {
 				return true;
 			}
@@ -125,6 +139,19 @@ public class TailspinDebugger {
 		return false;
 	}
 
+	@Override
+	public boolean shouldStop(CPU processor) {
+		return atBreakPoint();
+	}
+
+	/**
+	 * Runs until a breakpoint is reached. If the CPU is already sitting on a
+	 * breakpoint, that instruction runs first.
+	 */
+	public RunResult continueToBreakpoint() {
+		return getSystem().getProcessor().runFor(Long.MAX_VALUE, this);
+	}
+
 	public TailspinGB getSystem() {
 		return system;
 	}
@@ -139,6 +166,10 @@ public class TailspinDebugger {
 
 	public void setBreakpoints(ArrayList<Breakpoint> breakpoints) {
 		this.breakpoints = breakpoints;
+		Arrays.fill(breakpointAddresses, false);
+		for (Breakpoint b : breakpoints) {
+			breakpointAddresses[b.getAddress()] = true;
+		}
 	}
 
 }
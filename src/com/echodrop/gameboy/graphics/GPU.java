@@ -11,13 +11,13 @@ package com.echodrop.gameboy.graphics;
 import java.util.ArrayList;
 import java.util.logging.Logger;
 
+import com.echodrop.gameboy.core.InterruptController;
 import com.echodrop.gameboy.core.MemoryRegion;
 import com.echodrop.gameboy.core.Register;
 import com.echodrop.gameboy.core.TailspinGB;
 import com.echodrop.gameboy.exceptions.MemoryAccessException;
 import com.echodrop.gameboy.interfaces.IGraphicsObserver;
-import com.echodrop.gameboy.util.GraphicsUtils;
-import com.echodrop.gameboy.util.RegisterUtils;
+import com.echodrop.gameboy.logging.TraceBuffer;
 
 /**
  * Emulation core for GameBoy Graphics Processing Unit
@@ -37,6 +37,17 @@ public class GPU {
 	private Register line;
 	private Register backgroundPalette;
 	private Register lcdControl;
+
+	/**
+	 * LCD status interrupt enables, in bits 3-6 of STAT. The mode and
+	 * coincidence bits are filled in when it is read.
+	 */
+	private Register lcdStatus;
+
+	/**
+	 * Scanline compared against line for the coincidence interrupt (LYC)
+	 */
+	private Register lineCompare;
 	private byte[][] frameBuffer;
 
 	/**
@@ -45,13 +56,53 @@ public class GPU {
 	private Register mode;
 
 	/**
-	 * Advanced after each CPU instruction with the Z80 clock_t
+	 * Length of each mode in cycles, indexed by mode
+	 */
+	private static final int[] MODE_CYCLES = { 204, 456, 80, 172 };
+
+	/* STAT bits */
+	private static final int STATUS_ENABLES = 0x78;
+	private static final int COINCIDENCE = 0x04;
+	private static final int COINCIDENCE_ENABLE = 0x40;
+
+	/* STAT enable bit for entering mode n is MODE_ENABLE << n, for modes 0-2 */
+	private static final int MODE_ENABLE = 0x08;
+
+	private static final int SCREEN_WIDTH = 160;
+	private static final int SCREEN_HEIGHT = 144;
+
+	/* LCDC bits selecting the background tile map and tile data */
+	private static final int BG_TILE_MAP = 0x08;
+	private static final int BG_TILE_DATA = 0x10;
+
+	/* Decoded tile data, kept up to date by the MMU as VRAM is written */
+	private TileCache tileCache;
+
+	/* Tile numbers for the row of the tile map being drawn */
+	private final byte[] mapRow = new byte[32];
+
+	/* Registers handled by readByte and writeByte */
+	private static final int[] PORTS = { 0xFF40, 0xFF41, 0xFF42, 0xFF43, 0xFF44, 0xFF45, 0xFF47 };
+
+	/**
+	 * Scheduler event for the end of the current mode, and the cycle the
+	 * current mode started on
 	 */
-	private int modeClock;
+	private int modeEvent;
+	private long modeStart;
+
+	/**
+	 * Number of frames finished since the GPU was initialized
+	 */
+	private long frameCount;
 	private ArrayList<IGraphicsObserver> observers;
 
 	public GPU(TailspinGB system) {
 		this.system = system;
+		this.modeEvent = system.getScheduler().addEvent("GPU mode", () -> modeChange());
+		for (int address : PORTS) {
+			system.getIo().register(address, this::readByte, this::writeByte);
+		}
 		this.initialize();
 	}
 
@@ -62,19 +113,20 @@ public class GPU {
 		this.observers = new ArrayList<IGraphicsObserver>();
 		this.setMode(new Register((byte) 0, "GPU Mode"));
 		this.setLine(new Register((byte) 0, "Scanline"));
-		this.setModeClock(0);
 		this.setBackgroundPalette(new Register((byte) 0x010B, "BG Palette"));
 		this.setScrollX(new Register((byte) 0, "SCX"));
 		this.setScrollY(new Register((byte) 0, "SCY"));
 		this.setLcdControl(new Register((byte) 0, "LCDC"));
+		this.setLcdStatus(new Register((byte) 0, "STAT"));
+		this.setLineCompare(new Register((byte) 0, "LYC"));
 		this.setVram(new MemoryRegion((char) 0x8000, (char) 0x9FFF, "vram"));
+		this.tileCache = new TileCache(vram);
 		this.setOam(new MemoryRegion((char) 0xFE00, (char) 0xFE9F, "oam"));
-		this.setFrameBuffer(new byte[160][144]);
-		for (int i = 0; i < 160; i++) {
-			for (int j = 0; j < 144; j++) {
-				frameBuffer[i][j] = 0;
-			}
-		}
+		this.frameCount = 0;
+		this.modeStart = system.getScheduler().getCycles();
+		this.scheduleModeChange();
+		// Not through setFrameBuffer, as there are no observers to notify yet
+		this.frameBuffer = new byte[SCREEN_WIDTH][SCREEN_HEIGHT];
 	}
 
 	public void initLogging() {
@@ -82,89 +134,113 @@ public class GPU {
 	}
 
 	/**
-	 * Called after each CPU instruction
+	 * Called by the scheduler when the current mode has run for its full
+	 * length
 	 * 
 	 * Based on the write-up at
 	 * http://imrannazar.com/GameBoy-Emulation-in-JavaScript:-The-CPU
 	 */
-	public void clockStep() {
+	private void modeChange() {
+		modeStart += MODE_CYCLES[getMode().getValue()];
+		byte previousLine = getLine().getValue();
+
 		switch (getMode().getValue()) {
 		
 		// HBLANK
 		case 0:
-			if (getModeClock() >= 204) {
-				setModeClock(0);
-				getLine().setValue(getLine().getValue() + 1);
-				if ((getLine().getValue() & 0xFF) == 143) {
+			getLine().setValue(getLine().getValue() + 1);
+			if ((getLine().getValue() & 0xFF) == 143) {
 
-					// Change mode to VBLANK
-					logger.info("[!] GPU MODE SWITCHING TO VBLANK (mode 1)");
-					mode.setValue(1);
+				// Change mode to VBLANK
+				mode.setValue(1);
+				system.getInterrupts().request(InterruptController.VBLANK);
 
-					// update screen after last HBLANK
-					// notifyAllObservers();
-					renderFrame();
+				// Line 143 has no mode 3 of its own, so it's drawn here,
+				// then the screen is updated after the last HBLANK
+				renderScanLine(getLine().getValue() & 0xFF);
+				notifyAllObservers();
+				frameCount++;
 
-				} else {
+			} else {
 
-					// Change mode to OAM read
-					logger.info("[!] GPU MODE SWITCHING TO OAM READ (mode 2)");
-					mode.setValue(2);
-				}
+				// Change mode to OAM read
+				mode.setValue(2);
 			}
-
 			break;
 
 		// VBLANK
 		case 1:
-			if (getModeClock() >= 456) {
-				setModeClock(0);
-				getLine().setValue(getLine().getValue() + 1);
-				if ((getLine().getValue() & 0xFF) > 153) {
-
-					// change mode to OAM read
-					logger.info("[!] GPU MODE SWITCHING TO OAM READ (mode 2)");
-					mode.setValue(2);
-					getLine().setValue(0);
-				}
+			getLine().setValue(getLine().getValue() + 1);
+			if ((getLine().getValue() & 0xFF) > 153) {
+
+				// change mode to OAM read
+				mode.setValue(2);
+				getLine().setValue(0);
 			}
 			break;
 
 		// OAM read
 		case 2:
-			if (getModeClock() >= 80) {
-				setModeClock(0);
-
-				// change to vram read mode
-				mode.setValue(3);
-				logger.info("[!] GPU MODE SWITCHING TO VRAM READ (mode 3)");
-			}
+			// change to vram read mode
+			mode.setValue(3);
 			break;
 
 		// VRAM read
 		case 3:
-			if (getModeClock() >= 172) {
+			// change mode to HBLANK
+			mode.setValue(0);
 
-				// change mode to HBLANK
-				setModeClock(0);
-				logger.info("\n[!] GPU MODE SWITCHING TO HBLANK (mode 0)\n");
-				mode.setValue(0);
-
-				// Write scanline to framebuffer
-				// renderScanLine();
-			}
+			// Write scanline to framebuffer
+			renderScanLine(getLine().getValue() & 0xFF);
 			break;
 		}
+
+		if (TraceBuffer.ENABLED) {
+			system.getTrace().record(TraceBuffer.GPU_MODE, getMode().getValue(), getLine().getValue() & 0xFF);
+		}
+		requestStatusInterrupt(getLine().getValue() != previousLine);
+		scheduleModeChange();
+	}
+
+	/**
+	 * Raises the LCD status interrupt if it is enabled for the mode just
+	 * entered, or for the line just reaching LYC
+	 */
+	private void requestStatusInterrupt(boolean lineChanged) {
+		int status = getLcdStatus().getValue();
+		int newMode = getMode().getValue();
+		boolean modeInterrupt = newMode < 3 && (status & MODE_ENABLE << newMode) != 0;
+		boolean lineInterrupt = lineChanged && (status & COINCIDENCE_ENABLE) != 0
+				&& getLine().getValue() == getLineCompare().getValue();
+		if (modeInterrupt || lineInterrupt) {
+			system.getInterrupts().request(InterruptController.LCD_STAT);
+		}
+	}
+
+	private void scheduleModeChange() {
+		system.getScheduler().schedule(modeEvent, modeStart + MODE_CYCLES[getMode().getValue()]);
 	}
 
 	public byte readByte(char address) {
-		logger.info("GPU memory access: " + Integer.toHexString(address & 0xFFFF));
+		byte value = readRegister(address);
+		if (TraceBuffer.ENABLED) {
+			system.getTrace().record(TraceBuffer.GPU_READ, address, value & 0xFF);
+		}
+		return value;
+	}
+
+	private byte readRegister(char address) {
 		switch (address) {
 
 		// LCD control register
 		case 0xFF40:
 			return getLcdControl().getValue();
 
+		// LCD status register
+		case 0xFF41:
+			int coincidence = getLine().getValue() == getLineCompare().getValue() ? COINCIDENCE : 0;
+			return (byte) (0x80 | getLcdStatus().getValue() & STATUS_ENABLES | coincidence | getMode().getValue());
+
 		// SCY register
 		case 0xFF42:
 			return getScrollY().getValue();
@@ -177,6 +253,10 @@ public class GPU {
 		case 0xFF44:
 			return getLine().getValue();
 
+		// LYC register
+		case 0xFF45:
+			return getLineCompare().getValue();
+
 		// Background palette
 		case 0xFF47:
 			return getBackgroundPalette().getValue();
@@ -186,12 +266,10 @@ public class GPU {
 		throw new MemoryAccessException(address);
 	}
 
-	public char readWord(char address) {
-		// TODO Does the gpu need to be able to read 16-bit values?
-		throw new RuntimeException("Attempted 16-bit read from GPU");
-	}
-
 	public void writeByte(char address, byte data) {
+		if (TraceBuffer.ENABLED) {
+			system.getTrace().record(TraceBuffer.GPU_WRITE, address, data & 0xFF);
+		}
 		switch (address) {
 
 		// LCD control register
@@ -199,6 +277,11 @@ public class GPU {
 			getLcdControl().setValue(data);
 			break;
 
+		// LCD status register, where only the interrupt enables are writable
+		case 0xFF41:
+			getLcdStatus().setValue(data & STATUS_ENABLES);
+			break;
+
 		// SCY register
 		case 0xFF42:
 			getScrollY().setValue(data);
@@ -214,6 +297,11 @@ public class GPU {
 			getLine().setValue(data);
 			break;
 
+		// LYC register
+		case 0xFF45:
+			getLineCompare().setValue(data);
+			break;
+
 		// current scanline register
 		case 0xFF47:
 			getBackgroundPalette().setValue(data);
@@ -235,42 +323,50 @@ public class GPU {
 
 	}
 
-	// private void renderScanLine() {
-	// boolean tileset = RegisterUtils.readBit(3, getLcdControl());
-	// char address = (char) (RegisterUtils.readBit(3, getLcdControl()) ? 0x9C00
-	// : 0x9800);
-	// }
-
-	public void renderFrame() {
-		boolean tileset = RegisterUtils.readBit(3, getLcdControl());
-		char address = (char) (RegisterUtils.readBit(4, getLcdControl()) ? 0x9C00 : 0x9800);
-		byte[][] rendered = new byte[256][256];
-
-		for (int i = 0; i < 1024; i++) {
-			int x = (i % 32) * 8;
-			int y = (i / 32) * 8;
-			byte tileOffset = system.getMem().readByte((char) (address));
-			byte[] tileData = GraphicsUtils.getTile(system.getMem(), tileset, tileOffset);
-			byte[][] pixels = GraphicsUtils.mapTile(getBackgroundPalette().getValue(), tileData);
-
-			for (int j = 0; j < 8; j++) {
-				for (int k = 0; k < 8; k++) {
-					rendered[x + k][y + j] = pixels[j][k];
-				}
+	/**
+	 * Draws the 160 visible background pixels of a line into the frame
+	 * buffer, with SCX, SCY and BGP as they are now
+	 */
+	private void renderScanLine(int y) {
+		if (y >= SCREEN_HEIGHT) {
+			return;
+		}
+		int control = getLcdControl().getValue();
+		byte[] pixels = tileCache.getPixels();
+		int palette = getBackgroundPalette().getValue() & 0xFF;
+		int scrollX = getScrollX().getValue() & 0xFF;
+		int backgroundY = (y + getScrollY().getValue()) & 0xFF;
+
+		// The row of the tile map the line is in
+		char map = (char) ((control & BG_TILE_MAP) != 0 ? 0x9C00 : 0x9800);
+		vram.readBlock((char) (map + (backgroundY >>> 3) * 32), mapRow, 0, mapRow.length);
+
+		int x = 0;
+		int backgroundX = scrollX;
+		while (x < SCREEN_WIDTH) {
+			int tile = TileCache.index((control & BG_TILE_DATA) != 0, mapRow[backgroundX >>> 3]);
+			int row = tileCache.getRow(tile, backgroundY & 7);
+			for (int column = backgroundX & 7; column < 8 && x < SCREEN_WIDTH; column++) {
+				int colour = pixels[row + column];
+				frameBuffer[x++][y] = (byte) (palette >> colour * 2 & 0x03);
 			}
-			address++;
+			backgroundX = (backgroundX + 8 & ~7) & 0xFF;
 		}
+	}
 
-		for (int i = 0; i < 160; i++) {
-			for (int j = 0; j < 144; j++) {
-				getFrameBuffer()[i][j] = rendered[i + getScrollX().getValue()][j + getScrollY().getValue()];
-			}
+	/**
+	 * Redraws every line with the registers as they are now, and updates the
+	 * screen. Lines are normally drawn as the GPU finishes them.
+	 */
+	public void renderFrame() {
+		for (int y = 0; y < SCREEN_HEIGHT; y++) {
+			renderScanLine(y);
 		}
 		notifyAllObservers();
 	}
 
-	public void incrementModeClock(byte time) {
-		this.setModeClock(this.getModeClock() + time);
+	public TileCache getTileCache() {
+		return tileCache;
 	}
 
 	public MemoryRegion getVram() {
@@ -334,16 +430,35 @@ public class GPU {
 		return lcdControl;
 	}
 
+	public Register getLcdStatus() {
+		return lcdStatus;
+	}
+
+	private void setLcdStatus(Register lcdStatus) {
+		this.lcdStatus = lcdStatus;
+	}
+
+	public Register getLineCompare() {
+		return lineCompare;
+	}
+
+	private void setLineCompare(Register lineCompare) {
+		this.lineCompare = lineCompare;
+	}
+
 	private void setLcdControl(Register lcdControl) {
 		this.lcdControl = lcdControl;
 	}
 
+	/**
+	 * @return cycles spent in the current mode so far
+	 */
 	public int getModeClock() {
-		return modeClock;
+		return (int) (system.getScheduler().getCycles() - modeStart);
 	}
 
-	private void setModeClock(int modeClock) {
-		this.modeClock = modeClock;
+	public long getFrameCount() {
+		return frameCount;
 	}
 
 	public Register getMode() {
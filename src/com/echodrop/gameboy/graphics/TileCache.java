@@ -0,0 +1,124 @@
+/**
+ * TileCache.java
+ * 
+ * @author anewkirk
+ * 
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.graphics;
+
+import com.echodrop.gameboy.core.MemoryRegion;
+
+/**
+ * The 384 tiles in VRAM, decoded from 2bpp into a colour number per pixel.
+ * 
+ * The MMU marks a tile dirty whenever one of its 16 bytes is written, and
+ * a dirty tile is only decoded again the next time a scanline uses it.
+ * Writes that don't go through the MMU, such as straight into the VRAM
+ * region, aren't seen, so whatever makes them has to call invalidate().
+ */
+public class TileCache {
+
+	public static final int TILES = 384;
+
+	/* Bytes of tile data in VRAM, from 0x8000 to 0x97FF */
+	private static final int TILE_DATA_SIZE = TILES * 16;
+
+	private final MemoryRegion vram;
+
+	/* Colour numbers, 64 per tile, row by row */
+	private final byte[] pixels = new byte[TILES * 64];
+	private final boolean[] dirty = new boolean[TILES];
+
+	private long hits;
+	private long misses;
+
+	public TileCache(MemoryRegion vram) {
+		this.vram = vram;
+		this.invalidate();
+	}
+
+	/**
+	 * @return index of a tile, given its number and whether it's from the
+	 *         tile data at 0x8000 (unsigned numbers) or 0x9000 (signed)
+	 */
+	public static int index(boolean tileset, byte tileNumber) {
+		return tileset ? tileNumber & 0xFF : 256 + tileNumber;
+	}
+
+	/**
+	 * Marks the tile holding a byte of VRAM as changed. Offsets past the tile
+	 * data, in the tile maps, are ignored.
+	 */
+	public void markDirty(int offset) {
+		if (offset < TILE_DATA_SIZE) {
+			dirty[offset >>> 4] = true;
+		}
+	}
+
+	/**
+	 * Marks every tile as changed
+	 */
+	public void invalidate() {
+		for (int i = 0; i < TILES; i++) {
+			dirty[i] = true;
+		}
+	}
+
+	/**
+	 * @return index in getPixels() of the first of a row's 8 pixels,
+	 *         decoding the tile first if it has changed
+	 */
+	public int getRow(int tile, int row) {
+		if (dirty[tile]) {
+			decode(tile);
+			misses++;
+		} else {
+			hits++;
+		}
+		return tile * 64 + row * 8;
+	}
+
+	public byte[] getPixels() {
+		return pixels;
+	}
+
+	public boolean isDirty(int tile) {
+		return dirty[tile];
+	}
+
+	/**
+	 * @return lookups of a tile that was already decoded
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return lookups that had to decode the tile first
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	public void resetCounters() {
+		hits = 0;
+		misses = 0;
+	}
+
+	private void decode(int tile) {
+		char address = (char) (0x8000 + tile * 16);
+		int pixel = tile * 64;
+		for (int row = 0; row < 8; row++) {
+			// The first byte of a row holds the low bit of each colour
+			int low = vram.getMem(address++);
+			int high = vram.getMem(address++);
+			for (int bit = 7; bit >= 0; bit--) {
+				pixels[pixel++] = (byte) ((high >> bit & 1) << 1 | (low >> bit & 1));
+			}
+		}
+		dirty[tile] = false;
+	}
+
+}
@@ -0,0 +1,18 @@
+/**
+ * IReadHandler.java
+ * 
+ * @author anewkirk
+ * 
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.interfaces;
+
+/**
+ * Works out the value of an I/O register when it's read
+ */
+public interface IReadHandler {
+
+	public byte read(char address);
+
+}
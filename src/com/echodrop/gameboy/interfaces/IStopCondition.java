@@ -0,0 +1,21 @@
+/**
+ * IStopCondition.java
+ * 
+ * @author anewkirk
+ * 
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.interfaces;
+
+import com.echodrop.gameboy.core.CPU;
+
+/**
+ * Checked after every instruction of a batch run by CPU.runFor or
+ * CPU.runFrame, so implementations should be cheap
+ */
+public interface IStopCondition {
+	
+	public boolean shouldStop(CPU processor);
+
+}
@@ -0,0 +1,18 @@
+/**
+ * IWriteHandler.java
+ * 
+ * @author anewkirk
+ * 
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.interfaces;
+
+/**
+ * Handles a value written to an I/O register
+ */
+public interface IWriteHandler {
+
+	public void write(char address, byte data);
+
+}
@@ -0,0 +1,134 @@
+/**
+ * TraceBuffer.java
+ *
+ * @author anewkirk
+ *
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.logging;
+
+import com.echodrop.gameboy.core.Scheduler;
+import com.echodrop.gameboy.util.StringUtils;
+
+/**
+ * Ring buffer of binary trace records for the emulation core, used in hot
+ * paths instead of java.util.logging.
+ *
+ * Every call site is guarded by ENABLED, which is read once from the
+ * "tailspin.trace" system property. Since it's static final, the JIT drops
+ * guarded calls entirely when tracing is off. When tracing is on, each record
+ * is two longs (cycle, then type and arguments) and is only turned into text
+ * by decode().
+ */
+public class TraceBuffer {
+
+	/**
+	 * Run with -Dtailspin.trace=true to turn tracing on
+	 */
+	public static final boolean ENABLED = Boolean.getBoolean("tailspin.trace");
+
+	/**
+	 * Number of records kept when tracing is on
+	 */
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+
+	/* Record types */
+	public static final int INSTRUCTION = 0; // pc, opcode (0xCBxx if prefixed)
+	public static final int JUMP = 1; // address of jump, target
+	public static final int CALL = 2; // return address, target
+	public static final int RET = 3; // target
+	public static final int GPU_MODE = 4; // new mode, scanline
+	public static final int GPU_READ = 5; // address, value
+	public static final int GPU_WRITE = 6; // address, value
+	public static final int INTERRUPT = 7; // pc when interrupted, handler
+
+	private static final String[] TYPE_NAMES = { "INSTRUCTION", "JUMP", "CALL", "RET", "GPU_MODE", "GPU_READ",
+			"GPU_WRITE", "INTERRUPT" };
+
+	private final Scheduler scheduler;
+	private final long[] records;
+	private final int mask;
+	private long count;
+
+	/**
+	 * @param capacity
+	 *            number of records to keep, rounded up to a power of two. 0
+	 *            keeps nothing.
+	 */
+	public TraceBuffer(Scheduler scheduler, int capacity) {
+		this.scheduler = scheduler;
+		int size = capacity <= 1 ? capacity : Integer.highestOneBit(capacity - 1) << 1;
+		this.records = new long[size * 2];
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Adds a record, overwriting the oldest one if the buffer is full.
+	 * Callers should check ENABLED first.
+	 *
+	 * @param a
+	 *            first argument, 16 bits
+	 * @param b
+	 *            second argument, 16 bits
+	 */
+	public void record(int type, int a, int b) {
+		if (records.length == 0) {
+			return;
+		}
+		int index = (int) (count++ & mask) << 1;
+		records[index] = scheduler.getCycles();
+		records[index + 1] = ((long) type << 32) | ((long) (a & 0xFFFF) << 16) | (b & 0xFFFF);
+	}
+
+	/**
+	 * Forgets every record
+	 */
+	public void clear() {
+		count = 0;
+	}
+
+	/**
+	 * @return number of records currently held
+	 */
+	public int size() {
+		return (int) Math.min(count, records.length / 2);
+	}
+
+	/**
+	 * @return the records held, oldest first, one per line
+	 */
+	public String decode() {
+		StringBuilder result = new StringBuilder();
+		for (long i = count - size(); i < count; i++) {
+			int index = (int) (i & mask) << 1;
+			long info = records[index + 1];
+			int type = (int) (info >>> 32);
+			char a = (char) (info >>> 16);
+			char b = (char) info;
+
+			result.append(records[index]).append(' ').append(TYPE_NAMES[type]).append(' ');
+			switch (type) {
+			case INSTRUCTION:
+				result.append(StringUtils.charToReadableHex(a)).append(": 0x").append(Integer.toHexString(b));
+				break;
+			case RET:
+				result.append(StringUtils.charToReadableHex(a));
+				break;
+			case GPU_MODE:
+				result.append("mode ").append((int) a).append(", line ").append((int) b);
+				break;
+			case GPU_READ:
+			case GPU_WRITE:
+				result.append(StringUtils.charToReadableHex(a)).append(" = 0x").append(Integer.toHexString(b));
+				break;
+			default:
+				result.append(StringUtils.charToReadableHex(a)).append(" -> ").append(StringUtils.charToReadableHex(b));
+				break;
+			}
+			result.append('\n');
+		}
+		return result.toString();
+	}
+
+}
@@ -1,10 +1,66 @@
+/**
+ * Mbc1Rom.java
+ * 
+ * @author anewkirk
+ * 
+ * Licensing information can be found in the root directory of the project.
+ */
+
 package com.echodrop.gameboy.rom;
 
+/**
+ * MBC1, with up to 2MB of ROM and 32KB of RAM.
+ * 
+ * The 2-bit register at 0x4000 is either the top bits of the ROM bank, or
+ * the RAM bank. In mode 1 it also picks the bank at 0x0000-0x3FFF and the
+ * RAM bank.
+ */
 public class Mbc1Rom extends RomFile {
 
-	public Mbc1Rom(byte[] rom) {
+	private int romBank = 1;
+	private int upperBits;
+	private boolean bankingMode;
+
+	public Mbc1Rom(RomImage rom) {
 		super(rom);
-		
+		this.ramEnabled = false;
+	}
+
+	@Override
+	public boolean writeRegister(char address, byte data) {
+		switch (address & 0x6000) {
+		case 0x0000:
+			ramEnabled = (data & 0x0F) == 0x0A;
+			break;
+		case 0x2000:
+			romBank = data & 0x1F;
+			if (romBank == 0) {
+				romBank = 1;
+			}
+			break;
+		case 0x4000:
+			upperBits = data & 0x03;
+			break;
+		case 0x6000:
+			bankingMode = (data & 0x01) != 0;
+			break;
+		}
+		return true;
+	}
+
+	@Override
+	public int getLowBankOffset() {
+		return bankingMode ? romBankOffset(upperBits << 5) : 0;
+	}
+
+	@Override
+	public int getHighBankOffset() {
+		return romBankOffset(upperBits << 5 | romBank);
+	}
+
+	@Override
+	public int getRamOffset() {
+		return ramBankOffset(bankingMode ? upperBits : 0);
 	}
 
 }
@@ -0,0 +1,71 @@
+/**
+ * Mbc2Rom.java
+ * 
+ * @author anewkirk
+ * 
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.rom;
+
+/**
+ * MBC2, with up to 256KB of ROM and 512 4-bit values of RAM built in.
+ * 
+ * Its RAM repeats all the way through 0xA000-0xBFFF, and its upper bits
+ * always read as 1, so it's never mapped straight into the page table.
+ */
+public class Mbc2Rom extends RomFile {
+
+	private static final int RAM_SIZE = 0x200;
+
+	private int romBank = 1;
+
+	public Mbc2Rom(RomImage rom) {
+		super(rom);
+		this.ram = new byte[RAM_SIZE];
+		this.ramEnabled = false;
+	}
+
+	@Override
+	public boolean writeRegister(char address, byte data) {
+		if (address >= 0x4000) {
+			return false;
+		}
+		// Bit 8 of the address picks between the two registers
+		if ((address & 0x100) == 0) {
+			ramEnabled = (data & 0x0F) == 0x0A;
+			return false;
+		}
+		romBank = data & 0x0F;
+		if (romBank == 0) {
+			romBank = 1;
+		}
+		return true;
+	}
+
+	@Override
+	public int getHighBankOffset() {
+		return romBankOffset(romBank);
+	}
+
+	@Override
+	public int getRamOffset() {
+		return -1;
+	}
+
+	@Override
+	public byte readRam(char address) {
+		if (!ramEnabled) {
+			return (byte) 0xFF;
+		}
+		return (byte) (0xF0 | ram[address & (RAM_SIZE - 1)]);
+	}
+
+	@Override
+	public void writeRam(char address, byte data) {
+		if (ramEnabled) {
+			ram[address & (RAM_SIZE - 1)] = (byte) (data & 0x0F);
+		}
+	}
+
+}
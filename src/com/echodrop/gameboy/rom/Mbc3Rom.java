@@ -0,0 +1,96 @@
+/**
+ * Mbc3Rom.java
+ * 
+ * @author anewkirk
+ * 
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.rom;
+
+/**
+ * MBC3, with up to 2MB of ROM, 32KB of RAM and a real time clock.
+ * 
+ * Selecting 0x08-0x0C instead of a RAM bank puts one of the clock registers
+ * at 0xA000-0xBFFF. The registers can be written and latched, but the clock
+ * doesn't count on its own yet.
+ */
+public class Mbc3Rom extends RomFile {
+
+	/* First RAM bank number that selects a clock register instead */
+	private static final int FIRST_CLOCK_REGISTER = 0x08;
+
+	private int romBank = 1;
+	private int ramBank;
+
+	/* Seconds, minutes, hours, day low, day high and flags */
+	private final byte[] clock = new byte[5];
+	private final byte[] latchedClock = new byte[5];
+	private byte lastLatchWrite = -1;
+
+	public Mbc3Rom(RomImage rom) {
+		super(rom);
+		this.ramEnabled = false;
+	}
+
+	@Override
+	public boolean writeRegister(char address, byte data) {
+		switch (address & 0x6000) {
+		case 0x0000:
+			ramEnabled = (data & 0x0F) == 0x0A;
+			break;
+		case 0x2000:
+			romBank = data & 0x7F;
+			if (romBank == 0) {
+				romBank = 1;
+			}
+			break;
+		case 0x4000:
+			ramBank = data & 0x0F;
+			break;
+		case 0x6000:
+			// Writing 0 then 1 latches the clock
+			if (lastLatchWrite == 0 && data == 1) {
+				System.arraycopy(clock, 0, latchedClock, 0, clock.length);
+			}
+			lastLatchWrite = data;
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public int getHighBankOffset() {
+		return romBankOffset(romBank);
+	}
+
+	@Override
+	public int getRamOffset() {
+		return ramBank < FIRST_CLOCK_REGISTER ? ramBankOffset(ramBank) : -1;
+	}
+
+	@Override
+	public byte readRam(char address) {
+		if (!ramEnabled) {
+			return (byte) 0xFF;
+		}
+		if (isClockRegister()) {
+			return latchedClock[ramBank - FIRST_CLOCK_REGISTER];
+		}
+		return super.readRam(address);
+	}
+
+	@Override
+	public void writeRam(char address, byte data) {
+		if (ramEnabled && isClockRegister()) {
+			clock[ramBank - FIRST_CLOCK_REGISTER] = data;
+		} else {
+			super.writeRam(address, data);
+		}
+	}
+
+	private boolean isClockRegister() {
+		return ramBank >= FIRST_CLOCK_REGISTER && ramBank < FIRST_CLOCK_REGISTER + clock.length;
+	}
+
+}
@@ -0,0 +1,58 @@
+/**
+ * Mbc5Rom.java
+ * 
+ * @author anewkirk
+ * 
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.rom;
+
+/**
+ * MBC5, with up to 8MB of ROM in 512 banks, and 128KB of RAM. Unlike the
+ * others, bank 0 can be mapped at 0x4000.
+ */
+public class Mbc5Rom extends RomFile {
+
+	private int romBank = 1;
+	private int ramBank;
+
+	public Mbc5Rom(RomImage rom) {
+		super(rom);
+		this.ramEnabled = false;
+	}
+
+	@Override
+	public boolean writeRegister(char address, byte data) {
+		switch (address & 0x7000) {
+		case 0x0000:
+		case 0x1000:
+			ramEnabled = (data & 0x0F) == 0x0A;
+			break;
+		case 0x2000:
+			romBank = romBank & 0x100 | data & 0xFF;
+			break;
+		case 0x3000:
+			romBank = (data & 0x01) << 8 | romBank & 0xFF;
+			break;
+		case 0x4000:
+		case 0x5000:
+			ramBank = data & 0x0F;
+			break;
+		default:
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public int getHighBankOffset() {
+		return romBankOffset(romBank);
+	}
+
+	@Override
+	public int getRamOffset() {
+		return ramBankOffset(ramBank);
+	}
+
+}
@@ -1,9 +1,25 @@
 package com.echodrop.gameboy.rom;
 
+import com.echodrop.gameboy.exceptions.MapperNotImplementedException;
 import com.echodrop.gameboy.util.NumberUtils;
 import com.echodrop.gameboy.util.StringUtils;
 
+/**
+ * A cartridge: the ROM and its header, any external RAM, and the memory bank
+ * controller (MBC) that maps them into the address space.
+ * 
+ * This class is a cartridge with no MBC. Subclasses implement each MBC by
+ * keeping track of the banks selected by writes to its registers. The MMU
+ * points its page table straight at romData and ram at the offsets given
+ * here, so switching banks never copies anything.
+ */
 public class RomFile {
+
+	public static final int ROM_BANK_SIZE = 0x4000;
+	public static final int RAM_BANK_SIZE = 0x2000;
+
+	/* External RAM sizes, indexed by the RAM size byte of the header */
+	private static final int[] RAM_SIZES = { 0, 0x800, 0x2000, 0x8000, 0x20000, 0x10000 };
 	
 	public String title;
 	public String mfgCode;
@@ -17,30 +33,202 @@ public class RomFile {
 	public byte[] romData;
 	public byte[] ram;
 	
+	/* Number of ROM banks, and whether RAM reads and writes are enabled */
+	protected int romBanks;
+	protected boolean ramEnabled;
+
+	/* Where romData's banks are read from */
+	private RomImage image;
+
 	public RomFile(byte[] rom) {
-		this.romData = rom;
+		this(RomImage.wrap(rom));
+	}
+
+	/**
+	 * Reads the header from the image. None of the banks are loaded until
+	 * they're mapped in with loadBank.
+	 */
+	public RomFile(RomImage image) {
+		this.image = image;
+		this.romData = image.getData();
 		this.title = new String(readSection(0x134, 0x143));
 		this.mfgCode = new String(readSection(0x13f, 0x142));
-		this.cartridgeType = romData[0x147];
-		this.romSize = 32000 << romData[0x148];
-		this.ramSize = romData[0x149];
-		this.destCode = romData[0x14A];;
-		this.headerChecksum = romData[0x14D];
+		this.cartridgeType = image.readByte(0x147);
+		this.romSize = 32000 << image.readByte(0x148);
+		this.ramSize = image.readByte(0x149);
+		this.destCode = image.readByte(0x14A);
+		this.headerChecksum = image.readByte(0x14D);
 		
 		byte[] globalChecksumBytes = readSection(0x14E, 0x150);
 		this.cartridgeChecksum = NumberUtils.bytesToWord(globalChecksumBytes[0], globalChecksumBytes[1]);
+
+		this.romBanks = image.getBanks();
+		this.ram = new byte[ramSize >= 0 && ramSize < RAM_SIZES.length ? RAM_SIZES[ramSize] : 0];
+		this.ramEnabled = true;
+	}
+
+	/**
+	 * @return a cartridge for the ROM, with the MBC given by its header
+	 * @throws MapperNotImplementedException
+	 *             if the ROM uses an unsupported MBC
+	 */
+	public static RomFile load(byte[] rom) throws MapperNotImplementedException {
+		return load(RomImage.wrap(rom));
+	}
+
+	/**
+	 * @return a cartridge for the ROM image, with the MBC given by its header
+	 * @throws MapperNotImplementedException
+	 *             if the ROM uses an unsupported MBC
+	 */
+	public static RomFile load(RomImage rom) throws MapperNotImplementedException {
+		switch (rom.readByte(0x147)) {
+		// ROM only, and ROM+RAM(+BATTERY)
+		case 0x00:
+		case 0x08:
+		case 0x09:
+			return new RomFile(rom);
+
+		// MBC1(+RAM(+BATTERY))
+		case 0x01:
+		case 0x02:
+		case 0x03:
+			return new Mbc1Rom(rom);
+
+		// MBC2(+BATTERY)
+		case 0x05:
+		case 0x06:
+			return new Mbc2Rom(rom);
+
+		// MBC3(+TIMER)(+RAM)(+BATTERY)
+		case 0x0F:
+		case 0x10:
+		case 0x11:
+		case 0x12:
+		case 0x13:
+			return new Mbc3Rom(rom);
+
+		// MBC5(+RUMBLE)(+RAM)(+BATTERY)
+		case 0x19:
+		case 0x1A:
+		case 0x1B:
+		case 0x1C:
+		case 0x1D:
+		case 0x1E:
+			return new Mbc5Rom(rom);
+
+		default:
+			throw new MapperNotImplementedException();
+		}
+	}
+
+	/**
+	 * @return true if the header says the cartridge's RAM is kept alive by a
+	 *         battery, so it should be saved
+	 */
+	public boolean hasBattery() {
+		switch (cartridgeType) {
+		case 0x03:
+		case 0x06:
+		case 0x09:
+		case 0x0F:
+		case 0x10:
+		case 0x13:
+		case 0x1B:
+		case 0x1E:
+			return ram.length > 0;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Handles a write to 0x0000-0x7FFF, where the MBC's registers are
+	 * 
+	 * @return true if the banks mapped in may have changed
+	 */
+	public boolean writeRegister(char address, byte data) {
+		return false;
+	}
+
+	/**
+	 * @return offset in romData of the bank mapped at 0x0000-0x3FFF
+	 */
+	public int getLowBankOffset() {
+		return 0;
+	}
+
+	/**
+	 * @return offset in romData of the bank mapped at 0x4000-0x7FFF
+	 */
+	public int getHighBankOffset() {
+		return ROM_BANK_SIZE;
+	}
+
+	/**
+	 * @return offset in ram of the bank mapped at 0xA000-0xBFFF, or -1 if
+	 *         reads and writes there have to go through readRam and writeRam
+	 */
+	public int getRamOffset() {
+		return ramBankOffset(0);
+	}
+
+	/**
+	 * @return the value at an address in 0xA000-0xBFFF that isn't mapped
+	 *         straight to a RAM bank
+	 */
+	public byte readRam(char address) {
+		int index = address - 0xA000;
+		if (ramEnabled && index < ram.length) {
+			return ram[index];
+		}
+		return (byte) 0xFF;
+	}
+
+	public void writeRam(char address, byte data) {
+		int index = address - 0xA000;
+		if (ramEnabled && index < ram.length) {
+			ram[index] = data;
+		}
+	}
+
+	/**
+	 * @return offset of a ROM bank, wrapping bank numbers past the end of the
+	 *         ROM like the unconnected address lines do
+	 */
+	protected int romBankOffset(int bank) {
+		return bank % romBanks * ROM_BANK_SIZE;
+	}
+
+	/**
+	 * @return offset of a RAM bank, or -1 if the RAM doesn't fill it
+	 */
+	protected int ramBankOffset(int bank) {
+		int banks = ram.length / RAM_BANK_SIZE;
+		if (!ramEnabled || banks == 0) {
+			return -1;
+		}
+		return bank % banks * RAM_BANK_SIZE;
 	}
 	
+	/**
+	 * Makes sure the bank at an offset given by getLowBankOffset or
+	 * getHighBankOffset has been read into romData, before it's mapped in
+	 */
+	public void loadBank(int offset) {
+		image.loadBank(offset / ROM_BANK_SIZE);
+	}
+
+	public RomImage getImage() {
+		return image;
+	}
+
+	/**
+	 * @return the bytes from start up to end, read from the image without
+	 *         loading the bank they're in
+	 */
 	public byte[] readSection(int start, int end) {
-		if(romData != null) {
-			byte[] sectionBytes = new byte[end - start];
-			for(int i = start; i < end; i++) {
-				sectionBytes[i-start] = romData[i];
-			}
-			return sectionBytes;
-		} else {
-			throw new NullPointerException("ROM data is null, could not read section");
-		}
+		return image.readSection(start, end);
 	}
 	
 	@Override
@@ -0,0 +1,162 @@
+/**
+ * RomImage.java
+ * 
+ * @author anewkirk
+ * 
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.rom;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The contents of a ROM, read a bank at a time as they're needed.
+ * 
+ * ROM files are mapped read-only with FileChannel.map instead of being read
+ * in, and every emulator in the JVM that opens the same file gets the same
+ * image. The page table needs byte arrays, so a bank is copied out of the
+ * mapping into data the first time it's mapped in, and after that every
+ * instance shares the copy. Banks that are never switched to are never read.
+ */
+public class RomImage {
+
+	/* Images that are still in use, by the real path of their file */
+	private static final Map<Path, WeakReference<RomImage>> OPEN = new HashMap<>();
+
+	/* The mapped file, or null if the image was made from an array */
+	private final ByteBuffer mapping;
+
+	/* Every bank, padded out to a whole number of them, at least two */
+	private final byte[] data;
+
+	private final boolean[] loaded;
+	private final int length;
+
+	private RomImage(ByteBuffer mapping, byte[] data, int length) {
+		this.mapping = mapping;
+		this.data = data;
+		this.length = length;
+		this.loaded = new boolean[data.length / RomFile.ROM_BANK_SIZE];
+	}
+
+	/**
+	 * @return the image of a ROM file, mapping it if no other instance has
+	 *         it open
+	 */
+	public static RomImage open(Path path) throws IOException {
+		Path key = path.toRealPath();
+		synchronized (OPEN) {
+			WeakReference<RomImage> reference = OPEN.get(key);
+			RomImage image = reference == null ? null : reference.get();
+			if (image == null) {
+				image = map(key);
+				OPEN.put(key, new WeakReference<>(image));
+			}
+			return image;
+		}
+	}
+
+	/**
+	 * @return an image of a ROM that's already in memory. Every bank counts
+	 *         as loaded, and short dumps are padded with a copy.
+	 */
+	public static RomImage wrap(byte[] rom) {
+		int size = paddedSize(rom.length);
+		RomImage image = new RomImage(null, size == rom.length ? rom : Arrays.copyOf(rom, size), rom.length);
+		Arrays.fill(image.loaded, true);
+		return image;
+	}
+
+	private static RomImage map(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("ROM too large: " + path);
+			}
+			// The mapping stays valid after the channel is closed
+			ByteBuffer mapping = channel.map(MapMode.READ_ONLY, 0, channel.size());
+			return new RomImage(mapping, new byte[paddedSize(mapping.capacity())], mapping.capacity());
+		}
+	}
+
+	/**
+	 * Dumps that stop short of a whole bank are padded out, so every bank
+	 * can be mapped a page at a time
+	 */
+	private static int paddedSize(int length) {
+		int banks = Math.max(2, (length + RomFile.ROM_BANK_SIZE - 1) / RomFile.ROM_BANK_SIZE);
+		return banks * RomFile.ROM_BANK_SIZE;
+	}
+
+	/**
+	 * @return the value at an offset in the ROM, without loading its bank.
+	 *         Offsets past the end of the file read as 0.
+	 */
+	public byte readByte(int offset) {
+		if (offset >= length) {
+			return 0;
+		}
+		return mapping == null ? data[offset] : mapping.get(offset);
+	}
+
+	/**
+	 * @return the bytes from start up to end, without loading their bank
+	 */
+	public byte[] readSection(int start, int end) {
+		byte[] section = new byte[end - start];
+		for (int i = start; i < end; i++) {
+			section[i - start] = readByte(i);
+		}
+		return section;
+	}
+
+	/**
+	 * Copies a bank out of the mapping into data, if no instance has yet
+	 */
+	public synchronized void loadBank(int bank) {
+		if (loaded[bank]) {
+			return;
+		}
+		int start = bank * RomFile.ROM_BANK_SIZE;
+		int end = Math.min(length, start + RomFile.ROM_BANK_SIZE);
+		if (end > start) {
+			ByteBuffer source = mapping.duplicate();
+			source.position(start);
+			source.get(data, start, end - start);
+		}
+		loaded[bank] = true;
+	}
+
+	public synchronized boolean isBankLoaded(int bank) {
+		return loaded[bank];
+	}
+
+	/**
+	 * @return every bank, which only holds the ROM's contents for the ones
+	 *         that have been loaded
+	 */
+	public byte[] getData() {
+		return data;
+	}
+
+	public int getBanks() {
+		return loaded.length;
+	}
+
+	/**
+	 * @return size of the ROM, before any padding
+	 */
+	public int getLength() {
+		return length;
+	}
+
+}
@@ -0,0 +1,149 @@
+/**
+ * SaveFile.java
+ * 
+ * @author anewkirk
+ * 
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.rom;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Battery-backed cartridge RAM, kept in a .sav file that's mapped read-write.
+ * 
+ * The emulator keeps reading and writing the cartridge's RAM array through
+ * the page table, and marks the 256-byte pages it writes with markDirty().
+ * sync() copies just the dirty pages into the mapping, which is only a copy
+ * into the page cache, and leaves forcing them out to the file to a
+ * background thread. Nothing the emulation thread does ever waits on the
+ * disk.
+ */
+public class SaveFile implements Closeable {
+
+	public static final int PAGE_SIZE = 0x100;
+
+	/* One thread flushes every save file in the JVM */
+	private static final ExecutorService FLUSHER = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "Save file flusher");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final Path path;
+	private final byte[] ram;
+	private final MappedByteBuffer mapping;
+	private final boolean[] dirty;
+	private final Thread shutdownHook;
+	private boolean closed;
+
+	private SaveFile(Path path, byte[] ram, MappedByteBuffer mapping) {
+		this.path = path;
+		this.ram = ram;
+		this.mapping = mapping;
+		this.dirty = new boolean[(ram.length + PAGE_SIZE - 1) / PAGE_SIZE];
+
+		// Whatever has been synced reaches the file even if nobody closes it
+		this.shutdownHook = new Thread(() -> mapping.force(), "Save file shutdown");
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	/**
+	 * Maps a save file for the cartridge RAM given, creating it if it doesn't
+	 * exist. If it does, the RAM is loaded from it.
+	 */
+	public static SaveFile open(Path path, byte[] ram) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE)) {
+			int saved = (int) Math.min(channel.size(), ram.length);
+
+			// Mapping past the end grows the file to the size of the RAM
+			MappedByteBuffer mapping = channel.map(MapMode.READ_WRITE, 0, ram.length);
+			mapping.get(ram, 0, saved);
+			mapping.put(ram, saved, ram.length - saved);
+			return new SaveFile(path, ram, mapping);
+		}
+	}
+
+	/**
+	 * Marks the page of RAM holding an offset as changed since the last sync
+	 */
+	public void markDirty(int offset) {
+		dirty[offset / PAGE_SIZE] = true;
+	}
+
+	/**
+	 * Copies the dirty pages into the mapping, and has the background thread
+	 * write them out. Called from the emulation thread, which is the only one
+	 * that touches the RAM.
+	 */
+	public void sync() {
+		if (closed) {
+			return;
+		}
+		boolean synced = false;
+		for (int i = 0; i < dirty.length; i++) {
+			if (dirty[i]) {
+				dirty[i] = false;
+				int start = i * PAGE_SIZE;
+				ByteBuffer page = mapping.duplicate();
+				page.position(start);
+				page.put(ram, start, Math.min(PAGE_SIZE, ram.length - start));
+				synced = true;
+			}
+		}
+		if (synced) {
+			// Only the pages of the mapping that have changed are written
+			FLUSHER.execute(() -> mapping.force());
+		}
+	}
+
+	/**
+	 * @return true if some of the RAM has changed since the last sync
+	 */
+	public boolean isDirty() {
+		for (boolean page : dirty) {
+			if (page) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * Syncs the RAM one last time and waits for it to reach the file. Only
+	 * called when the cartridge is being unloaded or the emulator shut down.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		sync();
+		closed = true;
+		try {
+			FLUSHER.submit(() -> mapping.force()).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new IOException("Unable to write " + path, e.getCause());
+		}
+		Runtime.getRuntime().removeShutdownHook(shutdownHook);
+	}
+
+}
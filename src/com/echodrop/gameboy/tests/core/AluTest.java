@@ -0,0 +1,185 @@
+/**
+ * AluTest.java
+ *
+ * @author anewkirk
+ *
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.tests.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.function.Function;
+import java.util.logging.Level;
+
+import org.junit.Test;
+
+import com.echodrop.gameboy.core.CPU;
+import com.echodrop.gameboy.core.Register;
+import com.echodrop.gameboy.core.TailspinGB;
+import com.echodrop.gameboy.logging.SimpleConsoleLogger;
+import com.echodrop.gameboy.util.NumberUtils;
+
+/**
+ * Runs the 8-bit ALU instructions for every combination of operands and
+ * carry, with eager and lazy flags, and checks the results and flags against
+ * the reference rules below
+ */
+public class AluTest {
+
+	private static final int ZERO = 0x01;
+	private static final int OPERATION = 0x02;
+	private static final int HALF_CARRY = 0x04;
+	private static final int FULL_CARRY = 0x08;
+
+	/* Where HL points for the (HL) instructions */
+	private static final char HL = 0xC000;
+
+	/* Where the second operand comes from */
+	private enum Operand {
+		B, C, HL, IMMEDIATE
+	}
+
+	/**
+	 * The expected result of an instruction, in the low byte, and its flags
+	 * in the next byte
+	 */
+	private interface Reference {
+		int apply(byte a, byte b, boolean carry);
+	}
+
+	@Test
+	public void addTest() {
+		checkOneOperand(0x87, CPU::getA, (a, b, carry) -> expect(a + a, a + a == 0, false,
+				NumberUtils.byteAdditionNibbleOverflow(a, a), NumberUtils.byteAdditionOverflow(a, a)));
+		checkTwoOperands(0x86, Operand.HL, (a, b, carry) -> expect(a + b, (byte) (a + b) == 0, false,
+				NumberUtils.byteAdditionNibbleOverflow(a, b), NumberUtils.byteAdditionOverflow(a, b)));
+	}
+
+	@Test
+	public void subtractTest() {
+		checkTwoOperands(0x90, Operand.B, (a, b, carry) -> expect(a - b, a == b, true,
+				NumberUtils.byteSubtractionNibbleBorrow(a, b), NumberUtils.byteSubtractionBorrow(a, b)));
+		checkOneOperand(0x9F, CPU::getA, (a, b, carry) -> {
+			byte toSub = (byte) (a + (carry ? 1 : 0));
+			byte result = (byte) (a - toSub);
+			return expect(result, result == 0, true, NumberUtils.byteSubtractionNibbleBorrow(a, toSub),
+					carry || result < 0);
+		});
+	}
+
+	@Test
+	public void incrementDecrementTest() {
+		checkOneOperand(0x04, CPU::getB, (a, b, carry) -> expect(a + 1, (byte) (a + 1) == 0, false,
+				NumberUtils.byteAdditionNibbleOverflow(a, (byte) 1), carry));
+		checkOneOperand(0x05, CPU::getB, (a, b, carry) -> expect(a - 1, (byte) (a - 1) == 0, true,
+				NumberUtils.byteSubtractionNibbleBorrow(a, (byte) 1), carry));
+	}
+
+	@Test
+	public void logicTest() {
+		checkTwoOperands(0xA1, Operand.C, (a, b, carry) -> expect(a & b, (a & b) == 0, false, true, false));
+		checkTwoOperands(0xE6, Operand.IMMEDIATE, (a, b, carry) -> expect(a & b, (a & b) == 0, false, true, false));
+		checkTwoOperands(0xB1, Operand.C, (a, b, carry) -> expect(a | b, (a | b) == 0, false, false, false));
+		checkTwoOperands(0xA9, Operand.C, (a, b, carry) -> expect(a ^ b, (a ^ b) == 0, false, false, false));
+	}
+
+	@Test
+	public void compareTest() {
+		checkTwoOperands(0xFE, Operand.IMMEDIATE, (a, b, carry) -> expect(a, a == b, true,
+				NumberUtils.byteSubtractionNibbleBorrow(a, b), carry || a < b));
+		checkTwoOperands(0xBE, Operand.HL, (a, b, carry) -> expect(a, a == b, true,
+				NumberUtils.byteSubtractionNibbleBorrow(a, b), NumberUtils.byteSubtractionBorrow(a, b)));
+	}
+
+	/**
+	 * Runs an instruction on A and a second operand, for every value of both
+	 * and of the carry flag
+	 */
+	private static void checkTwoOperands(int opcode, Operand operand, Reference reference) {
+		for (boolean lazyFlags : new boolean[] { false, true }) {
+			TailspinGB system = createSystem(opcode, operand == Operand.IMMEDIATE, lazyFlags);
+			CPU cpu = system.getProcessor();
+			cpu.getH().setValue(HL >>> 8);
+			cpu.getL().setValue(HL & 0xFF);
+
+			for (int i = 0; i < 0x20000; i++) {
+				byte a = (byte) (i >>> 8);
+				byte b = (byte) i;
+				boolean carry = i > 0xFFFF;
+				switch (operand) {
+				case B:
+					cpu.getB().setValue(b);
+					break;
+				case C:
+					cpu.getC().setValue(b);
+					break;
+				case HL:
+					system.getMem().writeByte(HL, b);
+					break;
+				case IMMEDIATE:
+					system.getMem().writeByte((char) 1, b);
+					break;
+				}
+				cpu.getA().setValue(a);
+				check(cpu, opcode, cpu.getA(), reference.apply(a, b, carry), a, b, carry);
+			}
+		}
+	}
+
+	/**
+	 * Runs an instruction on a single register, for every value of it and of
+	 * the carry flag
+	 */
+	private static void checkOneOperand(int opcode, Function<CPU, Register> register, Reference reference) {
+		for (boolean lazyFlags : new boolean[] { false, true }) {
+			CPU cpu = createSystem(opcode, false, lazyFlags).getProcessor();
+			for (int i = 0; i < 0x200; i++) {
+				byte value = (byte) i;
+				boolean carry = i > 0xFF;
+				register.apply(cpu).setValue(value);
+				check(cpu, opcode, register.apply(cpu), reference.apply(value, value, carry), value, value, carry);
+			}
+		}
+	}
+
+	/**
+	 * Sets F from the carry and the operands, runs the instruction, and jumps
+	 * back to it
+	 */
+	private static void check(CPU cpu, int opcode, Register result, int expected, byte a, byte b, boolean carry) {
+		String message = String.format("%02X with %02X, %02X, carry %b", opcode, a, b, carry);
+		byte f = (byte) ((a ^ b) & 0xF7 | (carry ? FULL_CARRY : 0));
+		cpu.getF().setValue(f);
+
+		cpu.step();
+		assertEquals(message, (byte) expected, result.getValue());
+		assertEquals(message, (byte) (f & 0xF0 | expected >>> 8), cpu.getF().getValue());
+		cpu.step();
+	}
+
+	/**
+	 * @return a result and flags as given by a Reference
+	 */
+	private static int expect(int result, boolean zero, boolean operation, boolean halfCarry, boolean fullCarry) {
+		int flags = (zero ? ZERO : 0) | (operation ? OPERATION : 0) | (halfCarry ? HALF_CARRY : 0)
+				| (fullCarry ? FULL_CARRY : 0);
+		return flags << 8 | (result & 0xFF);
+	}
+
+	/**
+	 * Creates a system whose bootstrap is the instruction followed by a jump
+	 * back to it
+	 */
+	private static TailspinGB createSystem(int opcode, boolean immediate, boolean lazyFlags) {
+		byte[] program = immediate ? new byte[] { (byte) opcode, 0x00, 0x18, (byte) 0xFC }
+				: new byte[] { (byte) opcode, 0x18, (byte) 0xFD };
+		TailspinGB system = new TailspinGB();
+		system.initLogging(Level.OFF, new SimpleConsoleLogger());
+		system.getMem().loadBootstrap(program);
+		system.getProcessor().setLazyFlags(lazyFlags);
+		return system;
+	}
+
+}
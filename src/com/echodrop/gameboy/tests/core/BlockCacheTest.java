@@ -0,0 +1,176 @@
+/**
+ * BlockCacheTest.java
+ * 
+ * @author anewkirk
+ * 
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.tests.core;
+
+import static com.echodrop.gameboy.tests.core.CpuTestUtils.assertSameState;
+import static com.echodrop.gameboy.tests.core.CpuTestUtils.writeBytes;
+import static com.echodrop.gameboy.tests.core.CpuTestUtils.writeSetup;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.echodrop.gameboy.core.TailspinGB;
+import com.echodrop.gameboy.exceptions.MapperNotImplementedException;
+
+/**
+ * Checks that running from the block cache ends up in the same state as the
+ * plain interpreter
+ */
+public class BlockCacheTest {
+
+	private static final int PROGRAMS = 300;
+
+	/* Straight-line instructions with no immediates, safe to run anywhere */
+	private static final int[] OPCODES = { 0x17, 0x1F, 0x2F, 0xAF, 0xA9, 0xA1, 0xA7, 0xB1, 0xB0, 0xB3, 0x86, 0x87,
+			0x19, 0x90, 0x9F, 0x0C, 0x1C, 0x3C, 0x2C, 0x14, 0x04, 0x05, 0x3D, 0x1D, 0x15, 0x0D, 0xBE, 0x79, 0x47,
+			0x4F, 0x5F, 0x7B, 0x77, 0x22, 0x2A, 0x13, 0x1B, 0xC5, 0xF5, 0xC1, 0xF1 };
+
+	@Test
+	public void randomProgramsTest() {
+		for (int seed = 0; seed < PROGRAMS; seed++) {
+			byte[] program = randomProgram(new Random(seed));
+			TailspinGB interpreted = createSystem(program, false);
+			TailspinGB cached = createSystem(program, true);
+
+			String interpretedException = run(interpreted, 20000);
+			String cachedException = run(cached, 20000);
+			assertEquals("seed " + seed, interpretedException, cachedException);
+			if (interpretedException == null) {
+				assertSameState("seed " + seed, interpreted, cached);
+			}
+		}
+	}
+
+	@Test
+	public void selfModifyingCodeTest() {
+		// LD SP,DFF0; CALL C000; LD B,A; LD A,2; LD (C001),A; CALL C000; LD C,A; JP C010
+		byte[] program = { 0x31, (byte) 0xF0, (byte) 0xDF, (byte) 0xCD, 0x00, (byte) 0xC0, 0x47, 0x3E, 0x02,
+				(byte) 0xEA, 0x01, (byte) 0xC0, (byte) 0xCD, 0x00, (byte) 0xC0, 0x4F, (byte) 0xC3, 0x10, (byte) 0xC0 };
+		TailspinGB system = createSystem(program, true);
+
+		// C000: LD A,1; RET
+		writeBytes(system, 0xC000, 0x3E, 0x01, 0xC9);
+
+		// C010: LD A,5; LD (C016),A; LD D,0; JR -2
+		// The second instruction rewrites the operand of the third, in the
+		// same block
+		writeBytes(system, 0xC010, 0x3E, 0x05, 0xEA, 0x16, 0xC0, 0x16, 0x00, 0x18, 0xFE);
+
+		system.getProcessor().runFor(10000);
+		assertEquals(1, system.getProcessor().getB().getValue());
+		assertEquals(2, system.getProcessor().getC().getValue());
+		assertEquals(5, system.getProcessor().getD().getValue());
+	}
+
+	@Test
+	public void biosUnmapTest() throws MapperNotImplementedException {
+		// LD A,1; LDH (50),A; LD B,11; JR -2
+		byte[] bios = { 0x3E, 0x01, (byte) 0xE0, 0x50, 0x06, 0x11, 0x18, (byte) 0xFE };
+		TailspinGB system = createSystem(bios, true);
+
+		// Same code in the ROM, except for the value loaded into B
+		byte[] rom = new byte[0x8000];
+		System.arraycopy(bios, 0, rom, 0, bios.length);
+		rom[5] = 0x22;
+		system.getMem().loadRom(rom);
+
+		system.getProcessor().runFor(1000);
+		assertEquals(0x22, system.getProcessor().getB().getValue());
+	}
+
+	@Test
+	public void bankSwitchTest() throws MapperNotImplementedException {
+		// MBC1, 4 banks. Bank 0 calls 4000 in banks 1 and 2 in turn:
+		// LD SP,DFF0; loop: LD A,1; LD (2000),A; CALL 4000; LD A,2;
+		// LD (2000),A; CALL 4000; JR loop
+		byte[] rom = new byte[0x10000];
+		writeBytes(rom, 0, 0x31, 0xF0, 0xDF, 0x3E, 0x01, 0xEA, 0x00, 0x20, 0xCD, 0x00, 0x40, 0x3E, 0x02, 0xEA,
+				0x00, 0x20, 0xCD, 0x00, 0x40, 0x18, 0xEE);
+		rom[0x147] = 0x01;
+		rom[0x148] = 0x01;
+
+		// Bank 1: INC B; RET. Bank 2: INC C; RET
+		writeBytes(rom, 0x4000, 0x04, 0xC9);
+		writeBytes(rom, 0x8000, 0x0C, 0xC9);
+
+		TailspinGB system = createSystem(new byte[0], true);
+		system.getMem().writeByte((char) 0xFF50, (byte) 1);
+		system.getMem().loadRom(rom);
+		system.getProcessor().runFor(20000);
+
+		// Each bank's block is still there when it's switched back in
+		int calls = system.getProcessor().getB().getValue() & 0xFF;
+		assertTrue(calls > 100);
+		assertTrue(Math.abs(calls - (system.getProcessor().getC().getValue() & 0xFF)) <= 1);
+		assertTrue(system.getProcessor().getDecodedBlockCount() < 10);
+	}
+
+	@Test
+	public void ioWriteTest() {
+		// JP FF80
+		byte[] program = { (byte) 0xC3, (byte) 0x80, (byte) 0xFF };
+		TailspinGB system = createSystem(program, true);
+
+		// FF80: INC A; LDH (47),A; LDH (01),A; JR -7
+		// Writing I/O ports doesn't throw away the block in high RAM
+		writeBytes(system, 0xFF80, 0x3C, 0xE0, 0x47, 0xE0, 0x01, 0x18, 0xF9);
+
+		system.getProcessor().runFor(10000);
+		assertTrue(system.getProcessor().getA().getValue() != 0);
+		assertEquals(2, system.getProcessor().getDecodedBlockCount());
+	}
+
+	private static TailspinGB createSystem(byte[] program, boolean blockCache) {
+		TailspinGB system = CpuTestUtils.createSystem(program);
+		system.getProcessor().setBlockCacheEnabled(blockCache);
+		return system;
+	}
+
+	/**
+	 * @return the name of the exception thrown, if any
+	 */
+	private static String run(TailspinGB system, long cycles) {
+		try {
+			system.getProcessor().runFor(cycles);
+			return null;
+		} catch (RuntimeException e) {
+			return e.getClass().getName();
+		}
+	}
+
+	/**
+	 * Builds a bootstrap that points SP, HL and DE at working RAM, then runs
+	 * random straight-line instructions and ends in JR -2. Writes through HL
+	 * can land in the bootstrap itself, which covers self-modifying code too.
+	 */
+	private static byte[] randomProgram(Random random) {
+		byte[] program = new byte[256];
+		int pc = writeSetup(program, 0xD000);
+
+		while (pc < 250) {
+			int opcode = OPCODES[random.nextInt(OPCODES.length)];
+			if (random.nextInt(8) == 0) {
+				// LD r,n
+				int[] loads = { 0x06, 0x0E, 0x16, 0x1E, 0x3E };
+				program[pc++] = (byte) loads[random.nextInt(loads.length)];
+				program[pc++] = (byte) random.nextInt(256);
+			} else {
+				program[pc++] = (byte) opcode;
+			}
+		}
+
+		// JR -2
+		writeBytes(program, pc, 0x18, 0xFE);
+		return program;
+	}
+
+}
@@ -0,0 +1,157 @@
+/**
+ * BlockCompilerTest.java
+ * 
+ * @author anewkirk
+ * 
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.tests.core;
+
+import static com.echodrop.gameboy.tests.core.CpuTestUtils.assertSameState;
+import static com.echodrop.gameboy.tests.core.CpuTestUtils.writeBytes;
+import static com.echodrop.gameboy.tests.core.CpuTestUtils.writeSetup;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.echodrop.gameboy.core.TailspinGB;
+
+/**
+ * Checks that blocks compiled to bytecode end up in the same state as the
+ * plain interpreter
+ */
+public class BlockCompilerTest {
+
+	private static final int PROGRAMS = 200;
+
+	private static final int CYCLES = 300000;
+
+	/* Instructions with no immediates, including some the compiler leaves to the interpreter */
+	private static final int[] OPCODES = { 0x00, 0x17, 0x1F, 0x2F, 0xAF, 0xA9, 0xA1, 0xA7, 0xB1, 0xB0, 0xB3, 0x86,
+			0x87, 0x19, 0x90, 0x9F, 0x0C, 0x1C, 0x3C, 0x2C, 0x14, 0x04, 0x24, 0x05, 0x3D, 0x1D, 0x15, 0x0D, 0xBE,
+			0x79, 0x47, 0x4F, 0x5F, 0x7B, 0x7A, 0x7C, 0x7D, 0x78, 0x57, 0x67, 0x6F, 0x77, 0x73, 0x70, 0x71, 0x12,
+			0x22, 0x32, 0x2A, 0x1A, 0x7E, 0x5E, 0x4E, 0x46, 0x56, 0x13, 0x1B, 0x23, 0x0B, 0xC5, 0xF5, 0xC1, 0xF1 };
+
+	@Test
+	public void randomProgramsTest() {
+		for (int seed = 0; seed < PROGRAMS; seed++) {
+			byte[] program = randomProgram(new Random(seed));
+			boolean lazyFlags = seed % 2 == 0;
+			TailspinGB interpreted = createSystem(program, false, lazyFlags);
+			TailspinGB compiled = createSystem(program, true, lazyFlags);
+
+			// Compiled blocks overshoot the budget differently, so the
+			// interpreter is run to exactly where they stopped
+			long compiledInstructions = run(compiled, CYCLES);
+			long cycles = compiledInstructions < 0 ? CYCLES : compiled.getCycles();
+			long interpretedInstructions = run(interpreted, cycles);
+			assertEquals("seed " + seed, interpretedInstructions, compiledInstructions);
+			if (interpretedInstructions >= 0) {
+				assertSameState("seed " + seed, interpreted, compiled);
+			}
+		}
+	}
+
+	@Test
+	public void hotLoopTest() {
+		// LD B,0; INC A; DEC B; JR NZ,-4; JR -2
+		byte[] program = { 0x06, 0x00, 0x3C, 0x05, 0x20, (byte) 0xFC, 0x18, (byte) 0xFE };
+		TailspinGB system = createSystem(program, true, false);
+		system.getProcessor().runFor(10000);
+
+		assertEquals(0, system.getProcessor().getA().getValue());
+		assertEquals(0, system.getProcessor().getB().getValue());
+		assertTrue(system.getProcessor().getCompiledBlockCount() > 0);
+	}
+
+	@Test
+	public void selfModifyingCodeTest() {
+		// LD SP,DFF0; CALL C010; LD A,D; LD B,A; LD A,7; LD (C011),A; CALL C010;
+		// LD A,D; LD C,A; JR -2
+		byte[] program = { 0x31, (byte) 0xF0, (byte) 0xDF, (byte) 0xCD, 0x10, (byte) 0xC0, 0x7A, 0x47, 0x3E, 0x07,
+				(byte) 0xEA, 0x11, (byte) 0xC0, (byte) 0xCD, 0x10, (byte) 0xC0, 0x7A, 0x4F, 0x18, (byte) 0xFE };
+		TailspinGB system = createSystem(program, true, false);
+
+		// C010: LD D,3; INC E; JR NZ,-5; RET
+		// The loop runs 256 times, so it's compiled before it gets rewritten
+		writeBytes(system, 0xC010, 0x16, 0x03, 0x1C, 0x20, 0xFB, 0xC9);
+
+		system.getProcessor().runFor(40000);
+		assertEquals(3, system.getProcessor().getB().getValue());
+		assertEquals(7, system.getProcessor().getC().getValue());
+	}
+
+	private static TailspinGB createSystem(byte[] program, boolean jit, boolean lazyFlags) {
+		TailspinGB system = CpuTestUtils.createSystem(program);
+		system.getProcessor().setBlockCacheEnabled(jit);
+		system.getProcessor().setJitEnabled(jit);
+		system.getProcessor().setLazyFlags(lazyFlags);
+		return system;
+	}
+
+	/**
+	 * @return the number of instructions run, or -1 if an exception was thrown
+	 */
+	private static long run(TailspinGB system, long cycles) {
+		try {
+			return system.getProcessor().runFor(cycles).getInstructions();
+		} catch (RuntimeException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Builds a bootstrap that points SP, HL and DE at working RAM, then runs
+	 * a loop of random instructions 32 times and ends in JR -2. The loop
+	 * counter is kept at FF80, so the loop also covers handing I/O accesses
+	 * back to the interpreter.
+	 */
+	private static byte[] randomProgram(Random random) {
+		byte[] program = new byte[256];
+		// LD A,20; LDH (80),A
+		int pc = writeBytes(program, writeSetup(program, 0xD000), 0x3E, 0x20, 0xE0, 0x80);
+
+		int loopStart = pc;
+		while (pc < loopStart + 100) {
+			int choice = random.nextInt(16);
+			if (choice == 0) {
+				// LD r,n
+				int[] loads = { 0x06, 0x0E, 0x16, 0x1E, 0x26, 0x2E, 0x3E };
+				program[pc++] = (byte) loads[random.nextInt(loads.length)];
+				program[pc++] = (byte) random.nextInt(256);
+			} else if (choice == 1) {
+				// AND n, CP n, LD (HL),n
+				int[] immediates = { 0xE6, 0xFE, 0x36 };
+				program[pc++] = (byte) immediates[random.nextInt(immediates.length)];
+				program[pc++] = (byte) random.nextInt(256);
+			} else if (choice == 2) {
+				// CB prefixed: BIT 7,H, BIT 7,F, RES 0,A, SWAP A
+				int[] cb = { 0x7C, 0x7F, 0x87, 0x37 };
+				program[pc++] = (byte) 0xCB;
+				program[pc++] = (byte) cb[random.nextInt(cb.length)];
+			} else if (choice == 3) {
+				// JR Z,+0 or JP NZ to the next instruction, taken or not
+				if (random.nextBoolean()) {
+					program[pc++] = 0x28;
+					program[pc++] = 0x00;
+				} else {
+					int next = pc + 3;
+					program[pc++] = (byte) 0xC2;
+					program[pc++] = (byte) next;
+					program[pc++] = 0x00;
+				}
+			} else {
+				program[pc++] = (byte) OPCODES[random.nextInt(OPCODES.length)];
+			}
+		}
+
+		// LDH A,(80); DEC A; LDH (80),A; JR NZ back to the start; JR -2
+		writeBytes(program, pc, 0xF0, 0x80, 0x3D, 0xE0, 0x80, 0x20, loopStart - (pc + 7), 0x18, 0xFE);
+		return program;
+	}
+
+}
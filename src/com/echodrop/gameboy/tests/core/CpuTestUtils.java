@@ -0,0 +1,84 @@
+/**
+ * CpuTestUtils.java
+ * 
+ * @author anewkirk
+ * 
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.tests.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.logging.Level;
+
+import com.echodrop.gameboy.core.CPU;
+import com.echodrop.gameboy.core.TailspinGB;
+import com.echodrop.gameboy.logging.SimpleConsoleLogger;
+
+/**
+ * Shared by the tests that run the same program two ways and compare the
+ * results
+ */
+public class CpuTestUtils {
+
+	/**
+	 * @return a system with logging off and the program loaded as its
+	 *         bootstrap, running on the plain interpreter
+	 */
+	public static TailspinGB createSystem(byte[] program) {
+		TailspinGB system = new TailspinGB();
+		system.initLogging(Level.OFF, new SimpleConsoleLogger());
+		system.getMem().loadBootstrap(program);
+		return system;
+	}
+
+	public static void writeBytes(TailspinGB system, int address, int... data) {
+		for (int i = 0; i < data.length; i++) {
+			system.getMem().writeByte((char) (address + i), (byte) data[i]);
+		}
+	}
+
+	/**
+	 * Copies bytes into a program
+	 *
+	 * @return the address after the last one
+	 */
+	public static int writeBytes(byte[] program, int address, int... data) {
+		for (int b : data) {
+			program[address++] = (byte) b;
+		}
+		return address;
+	}
+
+	/**
+	 * Starts a random program at 0: LD SP,DFF0; LD HL,hl; LD DE,D010
+	 *
+	 * @return the address after it
+	 */
+	public static int writeSetup(byte[] program, int hl) {
+		return writeBytes(program, 0, 0x31, 0xF0, 0xDF, 0x21, hl & 0xFF, hl >>> 8, 0x11, 0x10, 0xD0);
+	}
+
+	/**
+	 * Checks the registers and working RAM of two systems are the same
+	 */
+	public static void assertSameState(String message, TailspinGB expected, TailspinGB actual) {
+		CPU e = expected.getProcessor();
+		CPU a = actual.getProcessor();
+		assertEquals(message, e.getPc(), a.getPc());
+		assertEquals(message, e.getSp(), a.getSp());
+		assertEquals(message, e.getA().getValue(), a.getA().getValue());
+		assertEquals(message, e.getB().getValue(), a.getB().getValue());
+		assertEquals(message, e.getC().getValue(), a.getC().getValue());
+		assertEquals(message, e.getD().getValue(), a.getD().getValue());
+		assertEquals(message, e.getE().getValue(), a.getE().getValue());
+		assertEquals(message, e.getF().getValue(), a.getF().getValue());
+		assertEquals(message, e.getH().getValue(), a.getH().getValue());
+		assertEquals(message, e.getL().getValue(), a.getL().getValue());
+		for (char address = 0xC000; address < 0xE000; address++) {
+			assertEquals(message, expected.getMem().readByte(address), actual.getMem().readByte(address));
+		}
+	}
+
+}
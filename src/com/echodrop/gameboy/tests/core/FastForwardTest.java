@@ -0,0 +1,107 @@
+/**
+ * FastForwardTest.java
+ * 
+ * @author anewkirk
+ * 
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.tests.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.logging.Level;
+
+import org.junit.Test;
+
+import com.echodrop.gameboy.core.CPU;
+import com.echodrop.gameboy.core.RunResult;
+import com.echodrop.gameboy.core.TailspinGB;
+import com.echodrop.gameboy.logging.SimpleConsoleLogger;
+
+/**
+ * Checks that skipping over HALT and polling loops ends up in the same state
+ * as running them
+ */
+public class FastForwardTest {
+
+	@Test
+	public void pollingLoopTest() {
+		// Wait for LY = 90, INC B, wait for LY = 91, INC C, repeat
+		byte[] program = { (byte) 0xF0, 0x44, (byte) 0xFE, (byte) 0x90, 0x20, (byte) 0xFA, 0x04, (byte) 0xF0, 0x44,
+				(byte) 0xFE, (byte) 0x91, 0x20, (byte) 0xFA, 0x0C, 0x18, (byte) 0xF0 };
+		TailspinGB normal = createSystem(program, false);
+		TailspinGB skipping = createSystem(program, true);
+
+		for (int frame = 0; frame < 10; frame++) {
+			RunResult expected = normal.getProcessor().runFrame();
+			RunResult actual = skipping.getProcessor().runFrame();
+			assertEquals(expected.getCycles(), actual.getCycles());
+			assertEquals(expected.getInstructions(), actual.getInstructions());
+			assertSameState(normal.getProcessor(), skipping.getProcessor());
+		}
+		// Each frame ends at line 143, before LY gets to 90 for that frame
+		assertEquals(9, skipping.getProcessor().getB().getValue());
+		assertTrue(skipping.getProcessor().getFastForwardCycles() > 0);
+	}
+
+	@Test
+	public void haltTest() {
+		// INC A; HALT
+		byte[] program = { 0x3C, 0x76 };
+		TailspinGB normal = createSystem(program, false);
+		TailspinGB skipping = createSystem(program, true);
+
+		RunResult expected = normal.getProcessor().runFor(100000);
+		RunResult actual = skipping.getProcessor().runFor(100000);
+		assertEquals(expected.getCycles(), actual.getCycles());
+		assertEquals(expected.getInstructions(), actual.getInstructions());
+		assertSameState(normal.getProcessor(), skipping.getProcessor());
+		assertTrue(skipping.getProcessor().isHalted());
+		assertTrue(skipping.getProcessor().getFastForwardCycles() > 90000);
+	}
+
+	@Test
+	public void busyLoopTest() {
+		// INC A; JR -3 changes A on every pass, so it can't be skipped
+		byte[] program = { 0x3C, 0x18, (byte) 0xFD };
+		TailspinGB system = createSystem(program, true);
+		system.getProcessor().runFor(100000);
+		assertEquals(0, system.getProcessor().getFastForwardCycles());
+	}
+
+	@Test
+	public void timerLoopTest() {
+		// Wait for DIV = 80 with LDH, INC B; wait for DIV = C0 through HL, INC C; repeat
+		byte[] program = { (byte) 0xF0, 0x04, (byte) 0xFE, (byte) 0x80, 0x20, (byte) 0xFA, 0x04, 0x21, 0x04,
+				(byte) 0xFF, 0x7E, (byte) 0xFE, (byte) 0xC0, 0x20, (byte) 0xFB, 0x0C, 0x18, (byte) 0xEE };
+		TailspinGB normal = createSystem(program, false);
+		TailspinGB skipping = createSystem(program, true);
+
+		// DIV changes between events, so these loops must never be skipped
+		RunResult expected = normal.getProcessor().runFor(200000);
+		RunResult actual = skipping.getProcessor().runFor(200000);
+		assertEquals(expected.getCycles(), actual.getCycles());
+		assertEquals(expected.getInstructions(), actual.getInstructions());
+		assertSameState(normal.getProcessor(), skipping.getProcessor());
+		assertEquals(0, skipping.getProcessor().getFastForwardCycles());
+	}
+
+	private static TailspinGB createSystem(byte[] program, boolean fastForward) {
+		TailspinGB system = new TailspinGB();
+		system.initLogging(Level.OFF, new SimpleConsoleLogger());
+		system.getMem().loadBootstrap(program);
+		system.getProcessor().setFastForwardEnabled(fastForward);
+		return system;
+	}
+
+	private static void assertSameState(CPU expected, CPU actual) {
+		assertEquals(expected.getPc(), actual.getPc());
+		assertEquals(expected.getA().getValue(), actual.getA().getValue());
+		assertEquals(expected.getB().getValue(), actual.getB().getValue());
+		assertEquals(expected.getC().getValue(), actual.getC().getValue());
+		assertEquals(expected.getF().getValue(), actual.getF().getValue());
+	}
+
+}
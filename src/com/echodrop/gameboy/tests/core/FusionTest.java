@@ -0,0 +1,182 @@
+/**
+ * FusionTest.java
+ * 
+ * @author anewkirk
+ * 
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.tests.core;
+
+import static com.echodrop.gameboy.tests.core.CpuTestUtils.assertSameState;
+import static com.echodrop.gameboy.tests.core.CpuTestUtils.writeBytes;
+import static com.echodrop.gameboy.tests.core.CpuTestUtils.writeSetup;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.echodrop.gameboy.core.OpcodeProfiler;
+import com.echodrop.gameboy.core.RunResult;
+import com.echodrop.gameboy.core.TailspinGB;
+
+/**
+ * Checks that running fused instruction sequences ends up in the same state,
+ * after the same number of cycles and instructions, as running them one by
+ * one
+ */
+public class FusionTest {
+
+	private static final int PROGRAMS = 200;
+	private static final int CYCLES = 100000;
+
+	/* Straight-line instructions with no immediates, safe to run anywhere */
+	private static final int[] OPCODES = { 0x2F, 0xAF, 0xA9, 0xA7, 0xB3, 0x87, 0x0C, 0x3C, 0x2C, 0x05, 0x3D, 0x0D,
+			0x79, 0x47, 0x7C, 0x22, 0x2A, 0x13, 0x1B };
+
+	/* The fused sequences, with JR NZ jumping to the next instruction */
+	private static final int[][] SEQUENCES = { { 0x32, 0xCB, 0x7C, 0x20, 0x00 }, { 0x22, 0x1B },
+			{ 0x2A, 0xFE, 0x42, 0x20, 0x00 }, { 0x7C, 0xFE, 0xC4, 0x20, 0x00 } };
+
+	@Test
+	public void clearLoopTest() {
+		// LD SP,DFF0; LD HL,D3FF; LD A,55; loop: LDD (HL),A; BIT 7,H; JR NZ,loop; JR -2
+		byte[] program = { 0x31, (byte) 0xF0, (byte) 0xDF, 0x21, (byte) 0xFF, (byte) 0xD3, 0x3E, 0x55, 0x32,
+				(byte) 0xCB, 0x7C, 0x20, (byte) 0xFB, 0x18, (byte) 0xFE };
+		TailspinGB system = compare(program);
+		assertEquals(0x55, system.getMem().readByte((char) 0xD300));
+		assertEquals((byte) 0xD2, system.getProcessor().getH().getValue());
+	}
+
+	@Test
+	public void fillLoopTest() {
+		// LD HL,C800; LD DE,1000; LD C,80; LD A,77; loop: LDI (HL),A; DEC DE; DEC C; JR NZ,loop; JR -2
+		byte[] program = { 0x21, 0x00, (byte) 0xC8, 0x11, 0x00, 0x10, 0x0E, (byte) 0x80, 0x3E, 0x77, 0x22, 0x1B, 0x0D,
+				0x20, (byte) 0xFB, 0x18, (byte) 0xFE };
+		TailspinGB system = compare(program);
+		assertEquals(0x77, system.getMem().readByte((char) 0xC87F));
+		assertEquals(0x0F, system.getProcessor().getD().getValue());
+		assertEquals((byte) 0x80, system.getProcessor().getE().getValue());
+	}
+
+	@Test
+	public void searchLoopTest() {
+		// LD A,42; LD (C0A0),A; LD HL,C000; loop: LD A,(HL+); CP 42; JR NZ,loop; JR -2
+		byte[] program = { 0x3E, 0x42, (byte) 0xEA, (byte) 0xA0, (byte) 0xC0, 0x21, 0x00, (byte) 0xC0, 0x2A,
+				(byte) 0xFE, 0x42, 0x20, (byte) 0xFB, 0x18, (byte) 0xFE };
+		TailspinGB system = compare(program);
+		assertEquals((byte) 0xA1, system.getProcessor().getL().getValue());
+	}
+
+	@Test
+	public void pageLoopTest() {
+		// LD HL,C000; loop: LDI (HL),A; LD A,H; CP C4; JR NZ,loop; JR -2
+		byte[] program = { 0x21, 0x00, (byte) 0xC0, 0x22, 0x7C, (byte) 0xFE, (byte) 0xC4, 0x20, (byte) 0xFA, 0x18,
+				(byte) 0xFE };
+		TailspinGB system = compare(program);
+		assertEquals((byte) 0xC4, system.getProcessor().getH().getValue());
+		assertEquals((byte) 0xC3, system.getMem().readByte((char) 0xC3FF));
+	}
+
+	@Test
+	public void selfModifyingCodeTest() {
+		// LD HL,000C; LD DE,1234; LD C,4; XOR A; loop: LDI (HL),A; DEC DE; DEC C; JR NZ,loop; JR -2
+		// The first write turns DEC DE into a NOP, in the middle of the fused pair
+		byte[] program = { 0x21, 0x0C, 0x00, 0x11, 0x34, 0x12, 0x0E, 0x04, (byte) 0xAF, 0x00, 0x00, 0x22, 0x1B, 0x0D,
+				0x20, (byte) 0xFB, 0x18, (byte) 0xFE };
+		TailspinGB system = compare(program);
+		assertEquals(0x12, system.getProcessor().getD().getValue());
+		assertEquals(0x34, system.getProcessor().getE().getValue());
+	}
+
+	@Test
+	public void randomProgramsTest() {
+		for (int seed = 0; seed < PROGRAMS; seed++) {
+			byte[] program = randomProgram(new Random(seed));
+			TailspinGB unfused = createSystem(program, false);
+			TailspinGB fused = createSystem(program, true);
+
+			String unfusedResult = run(unfused);
+			String fusedResult = run(fused);
+			assertEquals("seed " + seed, unfusedResult, fusedResult);
+			assertSameState("seed " + seed, unfused, fused);
+		}
+	}
+
+	@Test
+	public void profileTest() {
+		byte[] program = { 0x21, 0x00, (byte) 0xC8, 0x11, 0x00, 0x10, 0x0E, (byte) 0x80, 0x3E, 0x77, 0x22, 0x1B, 0x0D,
+				0x20, (byte) 0xFB, 0x18, (byte) 0xFE };
+		TailspinGB system = createSystem(program, false);
+		system.getProcessor().setBlockCacheEnabled(false);
+		OpcodeProfiler profiler = new OpcodeProfiler();
+		system.getProcessor().setProfiler(profiler);
+		system.getProcessor().runFor(CYCLES);
+
+		assertEquals(0x80, profiler.getPairCount(0x22, 0x1B));
+		assertEquals(0x7F, profiler.getTripleCount(0x20, 0x22, 0x1B));
+		assertEquals(1, profiler.getPairCount(0x20, 0x18));
+	}
+
+	/**
+	 * Runs the program with and without fusion, checking both end up the
+	 * same
+	 * 
+	 * @return the system that ran with fusion
+	 */
+	private static TailspinGB compare(byte[] program) {
+		TailspinGB unfused = createSystem(program, false);
+		TailspinGB fused = createSystem(program, true);
+		RunResult expected = unfused.getProcessor().runFor(CYCLES);
+		RunResult actual = fused.getProcessor().runFor(CYCLES);
+		assertEquals(expected.getCycles(), actual.getCycles());
+		assertEquals(expected.getInstructions(), actual.getInstructions());
+		assertSameState("", unfused, fused);
+		return fused;
+	}
+
+	private static TailspinGB createSystem(byte[] program, boolean fusion) {
+		TailspinGB system = CpuTestUtils.createSystem(program);
+		system.getProcessor().setBlockCacheEnabled(true);
+		system.getProcessor().setFusionEnabled(fusion);
+		return system;
+	}
+
+	/**
+	 * @return the cycles and instructions run, or the name of the exception
+	 *         thrown
+	 */
+	private static String run(TailspinGB system) {
+		try {
+			RunResult result = system.getProcessor().runFor(CYCLES);
+			return result.getCycles() + " " + result.getInstructions();
+		} catch (RuntimeException e) {
+			return e.getClass().getName();
+		}
+	}
+
+	/**
+	 * Builds a bootstrap that points HL and DE at working RAM or the bootstrap
+	 * itself, then runs random instructions mixed with the fused sequences
+	 * and ends in JR -2
+	 */
+	private static byte[] randomProgram(Random random) {
+		byte[] program = new byte[256];
+		int hl = random.nextBoolean() ? 0xC000 : 0x0040;
+		int pc = writeSetup(program, hl);
+
+		while (pc < 240) {
+			if (random.nextInt(3) == 0) {
+				pc = writeBytes(program, pc, SEQUENCES[random.nextInt(SEQUENCES.length)]);
+			} else {
+				program[pc++] = (byte) OPCODES[random.nextInt(OPCODES.length)];
+			}
+		}
+
+		// JR -2
+		writeBytes(program, pc, 0x18, 0xFE);
+		return program;
+	}
+
+}
@@ -0,0 +1,215 @@
+/**
+ * InterruptTest.java
+ *
+ * @author anewkirk
+ *
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.tests.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.logging.Level;
+
+import org.junit.Test;
+
+import com.echodrop.gameboy.core.CPU;
+import com.echodrop.gameboy.core.InterruptController;
+import com.echodrop.gameboy.core.TailspinGB;
+import com.echodrop.gameboy.logging.SimpleConsoleLogger;
+
+/**
+ * Tests servicing interrupts: EI's delay, HALT, RETI, and the sources that
+ * raise them
+ */
+public class InterruptTest {
+
+	/* A little over three frames */
+	private static final int CYCLES = 220000;
+
+	private static final int FRAME_CYCLES = 70224;
+	private static final int FRAMES = 10;
+
+	/* LD SP,DFF0; LD A,1; LD (FFFF),A; LD (FF0F),A */
+	private static final int[] ENABLE_VBLANK = { 0x31, 0xF0, 0xDF, 0x3E, 0x01, 0xEA, 0xFF, 0xFF, 0xEA, 0x0F, 0xFF };
+
+	/* JR -2, at the VBlank vector */
+	private static final int[] SPIN_HANDLER = { 0x18, 0xFE };
+
+	/* INC B; RETI */
+	private static final int[] COUNT_HANDLER = { 0x04, 0xD9 };
+
+	@Test
+	public void enableDelayTest() {
+		// EI; INC B; INC B; JR -2
+		TailspinGB system = createSystem(program(ENABLE_VBLANK, new int[] { 0xFB, 0x04, 0x04, 0x18, 0xFE }),
+				0x40, SPIN_HANDLER);
+		CPU cpu = system.getProcessor();
+		for (int i = 0; i < 5; i++) {
+			cpu.step();
+		}
+		assertEquals(0x0C, cpu.getPc());
+		assertFalse(system.getInterrupts().isMasterEnabled());
+
+		// The instruction after EI still runs before the interrupt
+		cpu.step();
+		assertEquals(1, cpu.getB().getValue());
+		assertTrue(system.getInterrupts().isMasterEnabled());
+
+		cpu.step();
+		assertEquals(0x40, cpu.getPc());
+		assertEquals(1, cpu.getB().getValue());
+		assertEquals(0xDFEE, cpu.getSp());
+		assertEquals(0x0D, system.getMem().readWord((char) 0xDFEE));
+		assertFalse(system.getInterrupts().isMasterEnabled());
+		assertEquals((byte) 0xE0, system.getMem().readByte((char) 0xFF0F));
+	}
+
+	@Test
+	public void disableAfterEnableTest() {
+		// EI; DI; INC B; JR -2
+		TailspinGB system = createSystem(program(ENABLE_VBLANK, new int[] { 0xFB, 0xF3, 0x04, 0x18, 0xFE }),
+				0x40, SPIN_HANDLER);
+		system.getProcessor().runFor(1000);
+		assertEquals(0x0E, system.getProcessor().getPc());
+		assertEquals(1, system.getProcessor().getB().getValue());
+		assertEquals((byte) 0xE1, system.getMem().readByte((char) 0xFF0F));
+	}
+
+	@Test
+	public void vblankTest() {
+		// XOR A; LD (FF0F),A; EI; loop: INC C; DEC D; JR loop
+		TailspinGB system = createSystem(program(ENABLE_VBLANK, new int[] { 0xAF, 0xEA, 0x0F, 0xFF, 0xFB, 0x0C, 0x15,
+				0x18, 0xFC }), 0x40, COUNT_HANDLER);
+		system.getProcessor().runFor(CYCLES);
+		assertEquals(3, system.getProcessor().getB().getValue());
+		assertTrue(system.getInterrupts().isMasterEnabled());
+	}
+
+	@Test
+	public void haltTest() {
+		// XOR A; LD (FF0F),A; EI; loop: HALT; INC C; JR loop
+		TailspinGB system = createSystem(program(ENABLE_VBLANK, new int[] { 0xAF, 0xEA, 0x0F, 0xFF, 0xFB, 0x76, 0x0C,
+				0x18, 0xFC }), 0x40, COUNT_HANDLER);
+		system.getProcessor().runFor(CYCLES);
+		assertEquals(3, system.getProcessor().getB().getValue());
+		assertEquals(3, system.getProcessor().getC().getValue());
+	}
+
+	@Test
+	public void haltWithoutMasterEnableTest() {
+		// XOR A; LD (FF0F),A; HALT; INC C; JR -2
+		TailspinGB system = createSystem(program(ENABLE_VBLANK, new int[] { 0xAF, 0xEA, 0x0F, 0xFF, 0x76, 0x0C, 0x18,
+				0xFE }), 0x40, COUNT_HANDLER);
+		system.getProcessor().runFor(CYCLES);
+		assertFalse(system.getProcessor().isHalted());
+		assertEquals(0, system.getProcessor().getB().getValue());
+		assertEquals(1, system.getProcessor().getC().getValue());
+		assertEquals(0xDFF0, system.getProcessor().getSp());
+		assertEquals((byte) 0xE1, system.getMem().readByte((char) 0xFF0F));
+	}
+
+	@Test
+	public void lineCompareTest() {
+		// LD SP,DFF0; LD A,2; LD (FFFF),A; LD A,0A; LD (FF45),A; LD A,40; LD (FF41),A; EI; JR -2
+		int[] main = { 0x31, 0xF0, 0xDF, 0x3E, 0x02, 0xEA, 0xFF, 0xFF, 0x3E, 0x0A, 0xEA, 0x45, 0xFF, 0x3E, 0x40, 0xEA,
+				0x41, 0xFF, 0xFB, 0x18, 0xFE };
+		// LD A,(FF44); LD B,A; RETI
+		TailspinGB system = createSystem(program(main), 0x48, new int[] { 0xF0, 0x44, 0x47, 0xD9 });
+		system.getProcessor().runFor(CYCLES);
+		assertEquals(0x0A, system.getProcessor().getB().getValue());
+		assertEquals(0xC0, system.getMem().readByte((char) 0xFF41) & 0xF8);
+	}
+
+	@Test
+	public void serialTest() {
+		// LD A,8; LD (FFFF),A; LD A,81; LD (FF02),A; EI; JR -2
+		int[] main = { 0x31, 0xF0, 0xDF, 0x3E, 0x08, 0xEA, 0xFF, 0xFF, 0x3E, 0x81, 0xEA, 0x02, 0xFF, 0xFB, 0x18, 0xFE };
+		TailspinGB system = createSystem(program(main), 0x58, COUNT_HANDLER);
+		system.getProcessor().runFor(1000);
+		assertEquals(0, system.getProcessor().getB().getValue());
+		system.getProcessor().runFor(4096);
+		assertEquals(1, system.getProcessor().getB().getValue());
+	}
+
+	@Test
+	public void registerTest() {
+		TailspinGB system = createSystem(new byte[] { 0x18, (byte) 0xFE }, 0x40, SPIN_HANDLER);
+		system.getMem().writeByte((char) 0xFF0F, (byte) 0xFF);
+		assertEquals((byte) 0xFF, system.getMem().readByte((char) 0xFF0F));
+		system.getMem().writeByte((char) 0xFF0F, (byte) 0);
+		assertEquals((byte) 0xE0, system.getMem().readByte((char) 0xFF0F));
+		system.getInterrupts().request(InterruptController.TIMER | InterruptController.JOYPAD);
+		assertEquals((byte) 0xF4, system.getMem().readByte((char) 0xFF0F));
+
+		system.getMem().writeByte((char) 0xFFFF, (byte) 0x1F);
+		assertEquals((byte) 0x1F, system.getMem().readByte((char) 0xFFFF));
+		assertTrue(system.getInterrupts().hasRequest());
+	}
+
+	@Test
+	public void blockCacheTest() {
+		// LD HL,C000; XOR A; LD (FF0F),A; EI; loop: INC C; DEC D; JR loop
+		byte[] program = program(ENABLE_VBLANK, new int[] { 0x21, 0x00, 0xC0, 0xAF, 0xEA, 0x0F, 0xFF, 0xFB, 0x0C,
+				0x15, 0x18, 0xFC });
+		// INC B; LD A,D; LD (HL+),A; RETI, logging where each interrupt landed
+		int[] handler = { 0x04, 0x7A, 0x22, 0xD9 };
+		TailspinGB interpreted = createSystem(program, 0x40, handler);
+		TailspinGB blocks = createSystem(program, 0x40, handler);
+		TailspinGB compiled = createSystem(program, 0x40, handler);
+		blocks.getProcessor().setBlockCacheEnabled(true);
+		compiled.getProcessor().setBlockCacheEnabled(true);
+		compiled.getProcessor().setJitEnabled(true);
+
+		// The loop is 20 cycles and a frame is 4 more than a multiple of that,
+		// so over enough frames the interrupt comes during every instruction
+		interpreted.getProcessor().runFor(FRAMES * FRAME_CYCLES);
+		assertEquals(FRAMES, interpreted.getProcessor().getB().getValue());
+		for (TailspinGB system : new TailspinGB[] { blocks, compiled }) {
+			system.getProcessor().runFor(FRAMES * FRAME_CYCLES);
+			assertEquals(FRAMES, system.getProcessor().getB().getValue());
+			for (char address = 0xC000; address < 0xC000 + FRAMES; address++) {
+				assertEquals(interpreted.getMem().readByte(address), system.getMem().readByte(address));
+			}
+		}
+	}
+
+	/**
+	 * @return the given pieces of code, one after the other
+	 */
+	private static byte[] program(int[]... parts) {
+		int length = 0;
+		for (int[] part : parts) {
+			length += part.length;
+		}
+		byte[] program = new byte[length];
+		int pc = 0;
+		for (int[] part : parts) {
+			for (int b : part) {
+				program[pc++] = (byte) b;
+			}
+		}
+		return program;
+	}
+
+	/**
+	 * Creates a system whose bootstrap is the program, with a handler at the
+	 * vector given
+	 */
+	private static TailspinGB createSystem(byte[] program, int vector, int[] handler) {
+		byte[] bootstrap = new byte[0x100];
+		System.arraycopy(program, 0, bootstrap, 0, program.length);
+		for (int i = 0; i < handler.length; i++) {
+			bootstrap[vector + i] = (byte) handler[i];
+		}
+		TailspinGB system = new TailspinGB();
+		system.initLogging(Level.OFF, new SimpleConsoleLogger());
+		system.getMem().loadBootstrap(bootstrap);
+		system.getProcessor().setBlockCacheEnabled(false);
+		return system;
+	}
+
+}
@@ -0,0 +1,89 @@
+/**
+ * IoPortsTest.java
+ *
+ * @author anewkirk
+ *
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.tests.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.logging.Level;
+
+import org.junit.Test;
+
+import com.echodrop.gameboy.core.IoPorts;
+import com.echodrop.gameboy.core.MMU;
+import com.echodrop.gameboy.core.TailspinGB;
+import com.echodrop.gameboy.logging.SimpleConsoleLogger;
+import com.echodrop.gameboy.util.NumberUtils;
+
+public class IoPortsTest {
+
+	@Test
+	public void backingByteTest() {
+		IoPorts io = new IoPorts();
+		io.write((char) 0xFF26, (byte) 0x8F);
+		assertEquals((byte) 0x8F, io.read((char) 0xFF26));
+		assertEquals((byte) 0x8F, io.getValue(0xFF26));
+		assertEquals((byte) 0x8F, io.getRegion().getMem((char) 0xFF26));
+
+		io.reset();
+		assertEquals(0, io.read((char) 0xFF26));
+	}
+
+	@Test
+	public void handlerTest() {
+		IoPorts io = new IoPorts();
+		int[] written = new int[2];
+		io.register(0xFF10, address -> (byte) (address & 0xFF), (address, data) -> {
+			written[0] = address;
+			written[1] = data;
+		});
+		io.write((char) 0xFF10, (byte) 0x42);
+		assertEquals(0xFF10, written[0]);
+		assertEquals(0x42, written[1]);
+		assertEquals(0x10, io.read((char) 0xFF10));
+		assertEquals(0, io.getValue(0xFF10));
+
+		// Without a writer, writes go to the backing byte for the reader to use
+		io.register(0xFF11, address -> (byte) (io.getValue(address) | 0x3F), null);
+		io.write((char) 0xFF11, (byte) 0x80);
+		assertEquals((byte) 0xBF, io.read((char) 0xFF11));
+
+		// Handlers survive a reset
+		io.reset();
+		assertEquals(0x10, io.read((char) 0xFF10));
+	}
+
+	@Test
+	public void systemPortsTest() {
+		TailspinGB system = new TailspinGB();
+		system.initLogging(Level.OFF, new SimpleConsoleLogger());
+		MMU mem = system.getMem();
+
+		// Zero page and unimplemented registers are plain bytes
+		mem.writeByte((char) 0xFF80, (byte) 0x12);
+		mem.writeByte((char) 0xFFFE, (byte) 0x34);
+		mem.writeByte((char) 0xFF24, (byte) 0x77);
+		assertEquals((byte) 0x12, mem.readByte((char) 0xFF80));
+		assertEquals((byte) 0x34, mem.readByte((char) 0xFFFE));
+		assertEquals((byte) 0x77, mem.readByte((char) 0xFF24));
+		mem.writeByte((char) 0xFF25, (byte) 0x66);
+		assertEquals(NumberUtils.bytesToWord((byte) 0x77, (byte) 0x66), mem.readWord((char) 0xFF24));
+
+		// Registers owned by components
+		mem.writeByte((char) 0xFF42, (byte) 0x56);
+		assertEquals((byte) 0x56, system.getGpu().getScrollY().getValue());
+		mem.writeByte((char) 0xFFFF, (byte) 0x05);
+		assertEquals((byte) 0x05, system.getInterrupts().getEnabled());
+		assertEquals((byte) 0xF8, mem.readByte((char) 0xFF07));
+
+		system.reset();
+		assertEquals(0, mem.readByte((char) 0xFF80));
+		assertEquals(0, mem.readByte((char) 0xFF42));
+	}
+
+}
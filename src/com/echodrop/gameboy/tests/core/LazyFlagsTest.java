@@ -0,0 +1,149 @@
+/**
+ * LazyFlagsTest.java
+ * 
+ * @author anewkirk
+ * 
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.tests.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import java.util.logging.Level;
+
+import org.junit.Test;
+
+import com.echodrop.gameboy.core.CPU;
+import com.echodrop.gameboy.core.TailspinGB;
+import com.echodrop.gameboy.logging.SimpleConsoleLogger;
+
+/**
+ * Runs the same random programs with eager and lazy flag evaluation, and
+ * checks that both end up in the same state.
+ */
+public class LazyFlagsTest {
+
+	private static final int PROGRAMS = 500;
+	private static final int STEPS = 200;
+
+	/* Instructions that set flags, read them, or move F around */
+	private static final int[] OPCODES = { 0x17, 0x1F, 0x2F, 0xAF, 0xA9, 0xA1, 0xA7, 0xB1, 0xB0, 0xB3, 0x86, 0x87,
+			0x19, 0x90, 0x9F, 0x0C, 0x1C, 0x3C, 0x2C, 0x14, 0x04, 0x05, 0x3D, 0x1D, 0x15, 0x0D, 0xBE, 0x79, 0x47,
+			0x4F, 0x5F, 0x7B, 0xC5, 0xF5, 0xC1, 0xF1, 0xE6, 0xFE, 0x3E, 0x06, 0x0E, 0x20, 0x28, 0xCB };
+
+	private static final int[] CB_OPCODES = { 0x7C, 0x7F, 0x11 };
+
+	/* Opcodes followed by an 8-bit immediate */
+	private static final int[] IMMEDIATE_OPCODES = { 0xE6, 0xFE, 0x3E, 0x06, 0x0E };
+
+	@Test
+	public void lazyMatchesEagerTest() {
+		for (int seed = 0; seed < PROGRAMS; seed++) {
+			byte[] program = randomProgram(new Random(seed));
+			TailspinGB eager = createSystem(program, false);
+			TailspinGB lazy = createSystem(program, true);
+
+			for (int i = 0; i < STEPS; i++) {
+				String eagerException = step(eager);
+				String lazyException = step(lazy);
+				assertEquals("seed " + seed, eagerException, lazyException);
+				if (eagerException != null) {
+					break;
+				}
+				assertRegistersEqual(seed, eager.getProcessor(), lazy.getProcessor());
+			}
+
+			assertEquals("seed " + seed, eager.getProcessor().getF().getValue(), lazy.getProcessor().getF().getValue());
+			for (char address = 0xDF00; address < 0xE000; address++) {
+				assertEquals("seed " + seed, eager.getMem().readByte(address), lazy.getMem().readByte(address));
+			}
+		}
+	}
+
+	@Test
+	public void switchingModesKeepsFlagsTest() {
+		byte[] program = randomProgram(new Random(42));
+		TailspinGB eager = createSystem(program, false);
+		TailspinGB lazy = createSystem(program, true);
+
+		for (int i = 0; i < STEPS; i++) {
+			if (step(eager) != null | step(lazy) != null) {
+				break;
+			}
+			if (i % 7 == 0) {
+				lazy.getProcessor().setLazyFlags(!lazy.getProcessor().isLazyFlags());
+			}
+		}
+		assertEquals(eager.getProcessor().getF().getValue(), lazy.getProcessor().getF().getValue());
+	}
+
+	private static TailspinGB createSystem(byte[] program, boolean lazyFlags) {
+		TailspinGB system = new TailspinGB();
+		system.initLogging(Level.OFF, new SimpleConsoleLogger());
+		system.getMem().loadBootstrap(program);
+		system.getProcessor().setLazyFlags(lazyFlags);
+		return system;
+	}
+
+	/**
+	 * @return the name of the exception thrown by the instruction, if any
+	 */
+	private static String step(TailspinGB system) {
+		try {
+			system.getProcessor().step();
+			return null;
+		} catch (RuntimeException e) {
+			return e.getClass().getName();
+		}
+	}
+
+	private static void assertRegistersEqual(int seed, CPU expected, CPU actual) {
+		String message = "seed " + seed + " at " + Integer.toHexString(expected.getPc());
+		assertEquals(message, expected.getPc(), actual.getPc());
+		assertEquals(message, expected.getSp(), actual.getSp());
+		assertEquals(message, expected.getA().getValue(), actual.getA().getValue());
+		assertEquals(message, expected.getB().getValue(), actual.getB().getValue());
+		assertEquals(message, expected.getC().getValue(), actual.getC().getValue());
+		assertEquals(message, expected.getD().getValue(), actual.getD().getValue());
+		assertEquals(message, expected.getE().getValue(), actual.getE().getValue());
+		assertEquals(message, expected.getH().getValue(), actual.getH().getValue());
+		assertEquals(message, expected.getL().getValue(), actual.getL().getValue());
+	}
+
+	/**
+	 * Builds a bootstrap-sized program that points SP, HL and DE at working
+	 * RAM and then runs random flag-related instructions
+	 */
+	private static byte[] randomProgram(Random random) {
+		byte[] program = new byte[256];
+		int[] setup = { 0x31, 0xF0, 0xDF, 0x21, 0x00, 0xC0, 0x11, 0x10, 0x00 };
+		int pc = 0;
+		for (int b : setup) {
+			program[pc++] = (byte) b;
+		}
+
+		while (pc < 250) {
+			int opcode = OPCODES[random.nextInt(OPCODES.length)];
+			program[pc++] = (byte) opcode;
+			if (opcode == 0xCB) {
+				program[pc++] = (byte) CB_OPCODES[random.nextInt(CB_OPCODES.length)];
+			} else if (opcode == 0x20 || opcode == 0x28) {
+				program[pc++] = (byte) random.nextInt(4);
+			} else {
+				for (int immediate : IMMEDIATE_OPCODES) {
+					if (opcode == immediate) {
+						program[pc++] = (byte) random.nextInt(256);
+					}
+				}
+			}
+		}
+
+		// JR -2
+		program[pc++] = (byte) 0x18;
+		program[pc++] = (byte) 0xFE;
+		return program;
+	}
+
+}
@@ -0,0 +1,136 @@
+/**
+ * MMUTest.java
+ *
+ * @author anewkirk
+ *
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.tests.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import java.util.logging.Level;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.echodrop.gameboy.core.MMU;
+import com.echodrop.gameboy.core.TailspinGB;
+import com.echodrop.gameboy.exceptions.MemoryAccessException;
+import com.echodrop.gameboy.logging.SimpleConsoleLogger;
+
+public class MMUTest {
+
+	private TailspinGB system;
+	private MMU mem;
+
+	@Before
+	public void setUp() {
+		system = new TailspinGB();
+		system.initLogging(Level.OFF, new SimpleConsoleLogger());
+		mem = system.getMem();
+	}
+
+	@Test
+	public void echoRamTest() {
+		mem.writeByte((char) 0xC123, (byte) 0x42);
+		assertEquals((byte) 0x42, mem.readByte((char) 0xE123));
+
+		mem.writeByte((char) 0xFDFF, (byte) 0x24);
+		assertEquals((byte) 0x24, mem.readByte((char) 0xDDFF));
+	}
+
+	@Test
+	public void biosUnmapTest() {
+		byte[] bios = new byte[256];
+		bios[0x10] = (byte) 0xAA;
+		mem.loadBootstrap(bios);
+		mem.getRomBank0().setMem((char) 0x10, (byte) 0xBB);
+		assertEquals((byte) 0xAA, mem.readByte((char) 0x10));
+
+		mem.writeByte((char) 0xFF50, (byte) 1);
+		assertEquals((byte) 0xBB, mem.readByte((char) 0x10));
+
+		mem.loadBootstrap(bios);
+		assertEquals((byte) 0xAA, mem.readByte((char) 0x10));
+	}
+
+	@Test
+	public void vramTest() {
+		mem.writeByte((char) 0x8010, (byte) 0x7E);
+		assertEquals((byte) 0x7E, system.getGpu().getVram().getMem((char) 0x8010));
+
+		system.reset();
+		system.getGpu().getVram().setMem((char) 0x9FFF, (byte) 0x3C);
+		assertEquals((byte) 0x3C, mem.readByte((char) 0x9FFF));
+	}
+
+	@Test
+	public void readBlockTest() {
+		for (int i = 0; i < 0x300; i++) {
+			mem.writeByte((char) (0xC0F0 + i), (byte) i);
+		}
+		byte[] block = new byte[0x302];
+		mem.readBlock((char) 0xC0F0, block, 2, 0x300);
+		for (int i = 0; i < 0x300; i++) {
+			assertEquals((byte) i, block[i + 2]);
+		}
+
+		// Runs into OAM and I/O, which aren't in the page table
+		mem.writeByte((char) 0xFE00, (byte) 0x11);
+		mem.writeByte((char) 0xFF80, (byte) 0x22);
+		block = new byte[0x200];
+		mem.readBlock((char) 0xFDF0, block, 0, 0x200);
+		assertEquals(mem.readByte((char) 0xFDF0), block[0]);
+		assertEquals((byte) 0x11, block[0x10]);
+		assertEquals((byte) 0x22, block[0x190]);
+	}
+
+	@Test
+	public void writeBlockTest() {
+		byte[] block = new byte[0x180];
+		for (int i = 0; i < block.length; i++) {
+			block[i] = (byte) (i * 3);
+		}
+		mem.writeBlock((char) 0xDF00, block, 0, block.length);
+		for (int i = 0; i < 0x100; i++) {
+			assertEquals(block[i], mem.readByte((char) (0xDF00 + i)));
+		}
+		// Past the end of working RAM into its echo
+		assertEquals(block[0x100], mem.readByte((char) 0xE000));
+
+		// I/O still goes through its handlers
+		mem.writeBlock((char) 0xFF0F, new byte[] { 0 }, 0, 1);
+		assertEquals((byte) 0xE0, mem.readByte((char) 0xFF0F));
+	}
+
+	@Test
+	public void readOnlyBufferTest() {
+		ByteBuffer vram = mem.getReadOnlyBuffer((char) 0x8000, 0x2000);
+		assertTrue(vram.isReadOnly());
+		assertEquals(0x2000, vram.capacity());
+		mem.writeByte((char) 0x9234, (byte) 0x5D);
+		assertEquals((byte) 0x5D, vram.get(0x1234));
+
+		ByteBuffer wram = mem.getWorkingRam().asReadOnlyBuffer();
+		assertEquals(0x2000, wram.capacity());
+		mem.writeByte((char) 0xC001, (byte) 0x6E);
+		assertEquals((byte) 0x6E, wram.get(1));
+	}
+
+	@Test(expected = MemoryAccessException.class)
+	public void readOnlyBufferAcrossRegionsTest() {
+		mem.getReadOnlyBuffer((char) 0x9F00, 0x200);
+	}
+
+	@Test
+	public void unusableRegionTest() {
+		mem.writeByte((char) 0xFEA0, (byte) 0x12);
+		assertEquals((byte) 0, mem.readByte((char) 0xFEA0));
+	}
+
+}
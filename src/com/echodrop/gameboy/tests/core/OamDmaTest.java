@@ -0,0 +1,166 @@
+/**
+ * OamDmaTest.java
+ * 
+ * @author anewkirk
+ * 
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.tests.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.logging.Level;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.echodrop.gameboy.core.MMU;
+import com.echodrop.gameboy.core.OamDma;
+import com.echodrop.gameboy.core.TailspinGB;
+import com.echodrop.gameboy.exceptions.InstructionNotImplementedException;
+import com.echodrop.gameboy.logging.SimpleConsoleLogger;
+
+public class OamDmaTest {
+
+	/* LD SP,DFF0; CALL FF80; JR -2 */
+	private static final int[] MAIN = { 0x31, 0xF0, 0xDF, 0xCD, 0x80, 0xFF, 0x18, 0xFE };
+
+	/* LD A,C1; LDH (46),A; LD A,28; loop: DEC A; JR NZ,loop; RET */
+	private static final int[] ROUTINE = { 0x3E, 0xC1, 0xE0, 0x46, 0x3E, 0x28, 0x3D, 0x20, 0xFD, 0xC9 };
+
+	/* 0000: INC B; JP FF80, then FF80: LD A,C1; LDH (46),A; JP 0000 */
+	private static final int[] CACHED = { 0x04, 0xC3, 0x80, 0xFF };
+	private static final int[] RETURN = { 0x3E, 0xC1, 0xE0, 0x46, 0xC3, 0x00, 0x00 };
+
+	/* LD A,C1; LDH (46),A; INC B; INC B */
+	private static final int[] SAME_BLOCK = { 0x3E, 0xC1, 0xE0, 0x46, 0x04, 0x04 };
+
+	private TailspinGB system;
+	private MMU mem;
+
+	@Before
+	public void setUp() {
+		system = new TailspinGB();
+		system.initLogging(Level.OFF, new SimpleConsoleLogger());
+		mem = system.getMem();
+		for (int i = 0; i < OamDma.LENGTH; i++) {
+			mem.writeByte((char) (0xC100 + i), (byte) (i + 1));
+		}
+	}
+
+	@Test
+	public void copyTest() {
+		mem.writeByte(OamDma.DMA, (byte) 0xC1);
+		assertEquals((byte) 0xC1, mem.readByte(OamDma.DMA));
+		for (int i = 0; i < OamDma.LENGTH; i++) {
+			assertEquals((byte) (i + 1), system.getGpu().getOam().getMem((char) (0xFE00 + i)));
+		}
+	}
+
+	@Test
+	public void echoSourceTest() {
+		mem.writeByte((char) 0xFF46, (byte) 0xE1);
+		assertEquals((byte) 0x50, system.getGpu().getOam().getMem((char) 0xFE4F));
+	}
+
+	@Test
+	public void busLockTest() {
+		mem.writeByte((char) 0xC000, (byte) 0x12);
+		mem.writeByte(OamDma.DMA, (byte) 0xC1);
+		assertTrue(system.getDma().isActive());
+
+		// Only I/O and high RAM can be reached
+		assertEquals((byte) 0xFF, mem.readByte((char) 0xC000));
+		assertEquals((byte) 0xFF, mem.readByte((char) 0x0100));
+		mem.writeByte((char) 0xC000, (byte) 0x34);
+		mem.writeByte((char) 0xFF80, (byte) 0x56);
+		assertEquals((byte) 0x56, mem.readByte((char) 0xFF80));
+
+		system.getScheduler().advance(OamDma.CYCLES - 1);
+		assertTrue(system.getDma().isActive());
+		system.getScheduler().advance(1);
+		assertFalse(system.getDma().isActive());
+		assertEquals((byte) 0x12, mem.readByte((char) 0xC000));
+	}
+
+	@Test
+	public void resetTest() {
+		mem.writeByte(OamDma.DMA, (byte) 0xC1);
+		system.reset();
+		assertFalse(system.getDma().isActive());
+		mem.writeByte((char) 0xC000, (byte) 0x12);
+		assertEquals((byte) 0x12, mem.readByte((char) 0xC000));
+	}
+
+	@Test
+	public void routineTest() {
+		// The usual wait loop in high RAM, run by each way of executing code
+		for (int mode = 0; mode < 3; mode++) {
+			setUp();
+			byte[] bootstrap = new byte[0x100];
+			for (int i = 0; i < MAIN.length; i++) {
+				bootstrap[i] = (byte) MAIN[i];
+			}
+			mem.loadBootstrap(bootstrap);
+			for (int i = 0; i < ROUTINE.length; i++) {
+				mem.writeByte((char) (0xFF80 + i), (byte) ROUTINE[i]);
+			}
+			system.getProcessor().setBlockCacheEnabled(mode > 0);
+			system.getProcessor().setJitEnabled(mode > 1);
+
+			system.getProcessor().runFor(2000);
+			assertEquals(0x06, system.getProcessor().getPc());
+			assertFalse(system.getDma().isActive());
+			assertEquals((byte) 0xA0, system.getGpu().getOam().getMem((char) 0xFE9F));
+		}
+	}
+
+	@Test
+	public void cachedBlockTest() {
+		// The block at 0000 has been decoded, but reads 0xFF once the bus locks
+		for (int mode = 0; mode < 3; mode++) {
+			runLocked(CACHED, RETURN, mode);
+			assertEquals(1, system.getProcessor().getB().getValue());
+			assertEquals(0x0001, system.getProcessor().getPc());
+		}
+	}
+
+	@Test
+	public void sameBlockTest() {
+		// Nothing after the write to 0xFF46 runs from the block it's in
+		for (int mode = 0; mode < 3; mode++) {
+			runLocked(SAME_BLOCK, new int[0], mode);
+			assertEquals(0, system.getProcessor().getB().getValue());
+			assertEquals(0x0005, system.getProcessor().getPc());
+		}
+	}
+
+	/**
+	 * Runs a program from the bootstrap until it fetches the 0xFF the locked
+	 * bus reads as, which isn't implemented
+	 */
+	private void runLocked(int[] main, int[] routine, int mode) {
+		setUp();
+		byte[] bootstrap = new byte[0x100];
+		for (int i = 0; i < main.length; i++) {
+			bootstrap[i] = (byte) main[i];
+		}
+		mem.loadBootstrap(bootstrap);
+		for (int i = 0; i < routine.length; i++) {
+			mem.writeByte((char) (0xFF80 + i), (byte) routine[i]);
+		}
+		system.getProcessor().setBlockCacheEnabled(mode > 0);
+		system.getProcessor().setJitEnabled(mode > 1);
+		try {
+			system.getProcessor().runFor(200);
+			fail();
+		} catch (InstructionNotImplementedException e) {
+			assertTrue(system.getDma().isActive());
+		}
+	}
+
+}
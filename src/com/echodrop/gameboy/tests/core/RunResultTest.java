@@ -0,0 +1,90 @@
+/**
+ * RunResultTest.java
+ *
+ * @author anewkirk
+ *
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.tests.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.logging.Level;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.echodrop.gameboy.core.RunResult;
+import com.echodrop.gameboy.core.StopReason;
+import com.echodrop.gameboy.core.TailspinGB;
+import com.echodrop.gameboy.logging.SimpleConsoleLogger;
+
+public class RunResultTest {
+
+	/* Cycles in one full frame: 154 lines of 456 cycles */
+	private static final int FRAME_CYCLES = 70224;
+
+	private TailspinGB system;
+
+	@Before
+	public void setUp() {
+		system = new TailspinGB();
+		system.initLogging(Level.OFF, new SimpleConsoleLogger());
+
+		// INC A, then JR -3 back to it, forever
+		byte[] program = { 0x3C, 0x18, (byte) 0xFD };
+		system.getMem().loadBootstrap(program);
+	}
+
+	@Test
+	public void runForTest() {
+		RunResult result = system.getProcessor().runFor(1000);
+		assertEquals(StopReason.CYCLES, result.getReason());
+		assertTrue(result.getCycles() >= 1000);
+		assertTrue(result.getCycles() < 1000 + 16);
+		assertEquals(result.getCycles(), system.getScheduler().getCycles());
+	}
+
+	@Test
+	public void runFrameTest() {
+		system.getProcessor().runFrame();
+		long frameStart = system.getScheduler().getCycles();
+
+		RunResult result = system.getProcessor().runFrame();
+		assertEquals(StopReason.FRAME, result.getReason());
+		assertEquals(2, system.getGpu().getFrameCount());
+		assertTrue(Math.abs(system.getScheduler().getCycles() - frameStart - FRAME_CYCLES) < 16);
+	}
+
+	@Test
+	public void cycleCounterTest() {
+		system.getProcessor().runFor(FRAME_CYCLES * 10L);
+		assertTrue(system.getCycles() >= FRAME_CYCLES * 10L);
+		assertEquals(system.getCycles() / 4, system.getMachineCycles());
+		assertTrue(system.getCyclesPerSecond() > 0);
+
+		system.reset();
+		assertEquals(0, system.getCycles());
+		assertEquals(0, system.getCyclesPerSecond(), 0);
+	}
+
+	@Test
+	public void conditionalTimeTest() {
+		// INC A, then JR Z,0 which isn't taken
+		system.getMem().loadBootstrap(new byte[] { 0x3C, 0x28, 0x00 });
+		system.getProcessor().step();
+		system.getProcessor().step();
+		assertEquals(4 + 8, system.getCycles());
+	}
+
+	@Test
+	public void stopConditionTest() {
+		RunResult result = system.getProcessor().runFor(Long.MAX_VALUE,
+				p -> p.getA().getValue() == 10);
+		assertEquals(StopReason.CONDITION, result.getReason());
+		assertEquals(19, result.getInstructions());
+	}
+
+}
@@ -0,0 +1,71 @@
+/**
+ * SchedulerTest.java
+ *
+ * @author anewkirk
+ *
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.tests.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.echodrop.gameboy.core.Scheduler;
+
+public class SchedulerTest {
+
+	@Test
+	public void eventsFireInTimeOrderTest() {
+		Scheduler scheduler = new Scheduler();
+		List<String> fired = new ArrayList<String>();
+		int a = scheduler.addEvent("a", () -> fired.add("a@" + scheduler.getCycles()));
+		int b = scheduler.addEvent("b", () -> fired.add("b@" + scheduler.getCycles()));
+
+		scheduler.schedule(a, 20);
+		scheduler.schedule(b, 10);
+		scheduler.advance(8);
+		assertEquals(0, fired.size());
+
+		// Both come due in the same advance
+		scheduler.advance(16);
+		assertEquals("[b@24, a@24]", fired.toString());
+		assertEquals(Scheduler.NEVER, scheduler.getNextEventTime());
+	}
+
+	@Test
+	public void rescheduleFromHandlerTest() {
+		Scheduler scheduler = new Scheduler();
+		int[] count = new int[1];
+		int[] event = new int[1];
+		event[0] = scheduler.addEvent("periodic", () -> {
+			count[0]++;
+			scheduler.schedule(event[0], (count[0] + 1) * 100);
+		});
+		scheduler.schedule(event[0], 100);
+
+		// One big step still fires every period it covers
+		scheduler.advance(450);
+		assertEquals(4, count[0]);
+		assertEquals(500, scheduler.getNextEventTime());
+	}
+
+	@Test
+	public void resetTest() {
+		Scheduler scheduler = new Scheduler();
+		int event = scheduler.addEvent("event", () -> {
+		});
+		scheduler.schedule(event, 100);
+		scheduler.advance(50);
+		scheduler.reset();
+
+		assertEquals(0, scheduler.getCycles());
+		assertEquals(Scheduler.NEVER, scheduler.getEventTime(event));
+		assertEquals(1, scheduler.getEventCount());
+	}
+
+}
@@ -0,0 +1,136 @@
+/**
+ * TimerTest.java
+ * 
+ * @author anewkirk
+ * 
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.tests.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.logging.Level;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.echodrop.gameboy.core.Scheduler;
+import com.echodrop.gameboy.core.TailspinGB;
+import com.echodrop.gameboy.core.Timer;
+import com.echodrop.gameboy.logging.SimpleConsoleLogger;
+
+public class TimerTest {
+
+	private TailspinGB system;
+	private Scheduler scheduler;
+	private Timer timer;
+
+	@Before
+	public void setUp() {
+		system = new TailspinGB();
+		system.initLogging(Level.OFF, new SimpleConsoleLogger());
+		scheduler = system.getScheduler();
+		timer = system.getTimer();
+	}
+
+	@Test
+	public void dividerTest() {
+		scheduler.advance(255);
+		assertEquals(0, timer.readByte(Timer.DIV));
+		scheduler.advance(1);
+		assertEquals(1, timer.readByte(Timer.DIV));
+		scheduler.advance(256 * 300);
+		assertEquals((byte) 301, timer.readByte(Timer.DIV));
+
+		// Any write resets it
+		scheduler.advance(100);
+		timer.writeByte(Timer.DIV, (byte) 0x55);
+		assertEquals(0, timer.readByte(Timer.DIV));
+		scheduler.advance(255);
+		assertEquals(0, timer.readByte(Timer.DIV));
+		scheduler.advance(1);
+		assertEquals(1, timer.readByte(Timer.DIV));
+	}
+
+	@Test
+	public void counterTest() {
+		// Stopped
+		timer.writeByte(Timer.TAC, (byte) 0x01);
+		scheduler.advance(1000);
+		assertEquals(0, timer.readByte(Timer.TIMA));
+		assertEquals((byte) 0xF9, timer.readByte(Timer.TAC));
+
+		// Every 16 cycles, in step with the divider
+		timer.writeByte(Timer.TAC, (byte) 0x05);
+		scheduler.advance(8);
+		assertEquals(1, timer.readByte(Timer.TIMA));
+		scheduler.advance(160);
+		assertEquals(11, timer.readByte(Timer.TIMA));
+
+		// Every 1024 cycles
+		timer.writeByte(Timer.TAC, (byte) 0x04);
+		assertEquals(11, timer.readByte(Timer.TIMA));
+		scheduler.advance(2048);
+		assertEquals(13, timer.readByte(Timer.TIMA));
+
+		timer.writeByte(Timer.TAC, (byte) 0x00);
+		scheduler.advance(4096);
+		assertEquals(13, timer.readByte(Timer.TIMA));
+	}
+
+	@Test
+	public void overflowTest() {
+		timer.writeByte(Timer.TMA, (byte) 0xF0);
+		timer.writeByte(Timer.TIMA, (byte) 0xFE);
+		timer.writeByte(Timer.TAC, (byte) 0x05);
+
+		scheduler.advance(31);
+		assertEquals((byte) 0xFF, timer.readByte(Timer.TIMA));
+		assertEquals((byte) 0xE0, system.getMem().readByte((char) 0xFF0F));
+
+		scheduler.advance(1);
+		assertEquals((byte) 0xF0, timer.readByte(Timer.TIMA));
+		assertEquals((byte) 0xE4, system.getMem().readByte((char) 0xFF0F));
+
+		// Overflows again after 16 more ticks, even when passed in one go
+		system.getMem().writeByte((char) 0xFF0F, (byte) 0);
+		scheduler.advance(16 * 16 + 8);
+		assertEquals((byte) 0xF0, timer.readByte(Timer.TIMA));
+		assertEquals((byte) 0xE4, system.getMem().readByte((char) 0xFF0F));
+	}
+
+	@Test
+	public void timerInterruptTest() {
+		// LD SP,DFF0; LD A,4; LD (FFFF),A; LD A,5; LD (FF07),A; EI; loop: HALT; JR loop
+		int[] main = { 0x31, 0xF0, 0xDF, 0x3E, 0x04, 0xEA, 0xFF, 0xFF, 0x3E, 0x05, 0xEA, 0x07, 0xFF, 0xFB, 0x76,
+				0x18, 0xFD };
+		byte[] bootstrap = new byte[0x100];
+		for (int i = 0; i < main.length; i++) {
+			bootstrap[i] = (byte) main[i];
+		}
+		// INC B; RETI
+		bootstrap[0x50] = 0x04;
+		bootstrap[0x51] = (byte) 0xD9;
+		system.getMem().loadBootstrap(bootstrap);
+
+		// TIMA overflows every 256 ticks of 16 cycles, the first a little after the
+		// timer is started
+		system.getProcessor().runFor(4096 * 10 + 100);
+		assertEquals(10, system.getProcessor().getB().getValue());
+	}
+
+	@Test
+	public void resetTest() {
+		timer.writeByte(Timer.TAC, (byte) 0x05);
+		timer.writeByte(Timer.TMA, (byte) 0x12);
+		scheduler.advance(1000);
+		system.reset();
+
+		assertEquals(0, timer.readByte(Timer.DIV));
+		assertEquals(0, timer.readByte(Timer.TIMA));
+		assertEquals(0, timer.readByte(Timer.TMA));
+		assertEquals((byte) 0xF8, timer.readByte(Timer.TAC));
+	}
+
+}
@@ -0,0 +1,125 @@
+/**
+ * GpuTest.java
+ * 
+ * @author anewkirk
+ * 
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.tests.graphics;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.logging.Level;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.echodrop.gameboy.core.MMU;
+import com.echodrop.gameboy.core.TailspinGB;
+import com.echodrop.gameboy.graphics.GPU;
+import com.echodrop.gameboy.logging.SimpleConsoleLogger;
+
+/**
+ * Draws backgrounds a line at a time, changing registers between lines
+ */
+public class GpuTest {
+
+	/* Cycles to the end of mode 3 on line 1, and from one line to the next */
+	private static final int FIRST_LINE = 204 + 80 + 172;
+	private static final int LINE = 456;
+
+	/* Colours 3, 3, 1, 1, 2, 2, 0, 0 */
+	private static final int LOW = 0xF0;
+	private static final int HIGH = 0xCC;
+	private static final int[] COLOURS = { 3, 3, 1, 1, 2, 2, 0, 0 };
+
+	private TailspinGB system;
+	private MMU mem;
+	private GPU gpu;
+
+	@Before
+	public void setUp() {
+		system = new TailspinGB();
+		system.initLogging(Level.OFF, new SimpleConsoleLogger());
+		mem = system.getMem();
+		gpu = system.getGpu();
+
+		// Tile 1 at 0x8000, and tile -1 at 0x9000
+		for (int row = 0; row < 8; row++) {
+			mem.writeByte((char) (0x8010 + row * 2), (byte) LOW);
+			mem.writeByte((char) (0x8011 + row * 2), (byte) HIGH);
+			mem.writeByte((char) (0x8FF0 + row * 2), (byte) HIGH);
+			mem.writeByte((char) (0x8FF1 + row * 2), (byte) LOW);
+		}
+		// Identity palette
+		mem.writeByte((char) 0xFF47, (byte) 0xE4);
+	}
+
+	@Test
+	public void lineTest() {
+		mem.writeByte((char) 0x9800, (byte) 1);
+		mem.writeByte((char) 0xFF40, (byte) 0x10);
+		system.getScheduler().advance(FIRST_LINE);
+		for (int x = 0; x < 8; x++) {
+			assertEquals(COLOURS[x], gpu.getFrameBuffer()[x][1]);
+		}
+		assertEquals(0, gpu.getFrameBuffer()[8][1]);
+		assertEquals(0, gpu.getFrameBuffer()[0][2]);
+	}
+
+	@Test
+	public void signedTileTest() {
+		mem.writeByte((char) 0x9C00, (byte) 0xFF);
+		mem.writeByte((char) 0xFF40, (byte) 0x08);
+		system.getScheduler().advance(FIRST_LINE);
+		for (int x = 0; x < 8; x++) {
+			assertEquals(COLOURS[x] >> 1 | (COLOURS[x] & 1) << 1, gpu.getFrameBuffer()[x][1]);
+		}
+	}
+
+	@Test
+	public void midFrameTest() {
+		mem.writeByte((char) 0x9800, (byte) 1);
+		mem.writeByte((char) 0xFF40, (byte) 0x10);
+		system.getScheduler().advance(FIRST_LINE);
+
+		// Scrolling and the palette only affect the lines after they change
+		mem.writeByte((char) 0xFF43, (byte) 2);
+		mem.writeByte((char) 0xFF47, (byte) 0x1B);
+		system.getScheduler().advance(LINE);
+		for (int x = 0; x < 6; x++) {
+			assertEquals(COLOURS[x], gpu.getFrameBuffer()[x][1]);
+			assertEquals(3 - COLOURS[x + 2], gpu.getFrameBuffer()[x][2]);
+		}
+	}
+
+	@Test
+	public void wrapTest() {
+		// The right edge of the map wraps around to the left
+		mem.writeByte((char) 0x9800, (byte) 1);
+		mem.writeByte((char) 0x981F, (byte) 1);
+		mem.writeByte((char) 0xFF40, (byte) 0x10);
+		mem.writeByte((char) 0xFF43, (byte) 0xFC);
+		mem.writeByte((char) 0xFF42, (byte) 0xFF);
+		system.getScheduler().advance(FIRST_LINE);
+		for (int x = 0; x < 4; x++) {
+			assertEquals(COLOURS[x + 4], gpu.getFrameBuffer()[x][1]);
+			assertEquals(COLOURS[x], gpu.getFrameBuffer()[x + 4][1]);
+		}
+	}
+
+	@Test
+	public void frameTest() {
+		mem.writeByte((char) 0x9800, (byte) 1);
+		mem.writeByte((char) 0xFF40, (byte) 0x10);
+		// Line 0 isn't drawn until the second frame, which starts at mode 2
+		system.getScheduler().advance(2 * 70224);
+		assertEquals(2, gpu.getFrameCount());
+		for (int y = 0; y < 8; y++) {
+			assertEquals(3, gpu.getFrameBuffer()[0][y]);
+		}
+		assertEquals(0, gpu.getFrameBuffer()[0][8]);
+	}
+
+}
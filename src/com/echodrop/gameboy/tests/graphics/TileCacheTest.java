@@ -0,0 +1,107 @@
+/**
+ * TileCacheTest.java
+ * 
+ * @author anewkirk
+ * 
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.tests.graphics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.logging.Level;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.echodrop.gameboy.core.MMU;
+import com.echodrop.gameboy.core.TailspinGB;
+import com.echodrop.gameboy.graphics.TileCache;
+import com.echodrop.gameboy.logging.SimpleConsoleLogger;
+
+public class TileCacheTest {
+
+	private TailspinGB system;
+	private MMU mem;
+	private TileCache tiles;
+
+	@Before
+	public void setUp() {
+		system = new TailspinGB();
+		system.initLogging(Level.OFF, new SimpleConsoleLogger());
+		mem = system.getMem();
+		tiles = system.getGpu().getTileCache();
+	}
+
+	@Test
+	public void decodeTest() {
+		// Row 2 of tile 5: colours 3, 3, 1, 1, 2, 2, 0, 0
+		mem.writeByte((char) 0x8054, (byte) 0xF0);
+		mem.writeByte((char) 0x8055, (byte) 0xCC);
+		int row = tiles.getRow(5, 2);
+		int[] colours = { 3, 3, 1, 1, 2, 2, 0, 0 };
+		for (int i = 0; i < 8; i++) {
+			assertEquals(colours[i], tiles.getPixels()[row + i]);
+		}
+	}
+
+	@Test
+	public void indexTest() {
+		assertEquals(0x80, TileCache.index(true, (byte) 0x80));
+		assertEquals(0x100, TileCache.index(false, (byte) 0x00));
+		assertEquals(0x17F, TileCache.index(false, (byte) 0x7F));
+
+		// Negative numbers share tiles with the other tile data
+		assertEquals(0x80, TileCache.index(false, (byte) 0x80));
+		assertEquals(0xFF, TileCache.index(false, (byte) 0xFF));
+	}
+
+	@Test
+	public void dirtyTest() {
+		tiles.getRow(0x17F, 0);
+		tiles.getRow(0x17F, 7);
+		assertEquals(1, tiles.getMisses());
+		assertEquals(1, tiles.getHits());
+
+		// The last byte of tile 0x17F, then the first byte of the tile maps
+		mem.writeByte((char) 0x97FF, (byte) 0x01);
+		assertTrue(tiles.isDirty(0x17F));
+		tiles.getRow(0x17F, 7);
+		assertEquals(2, tiles.getMisses());
+		assertEquals(2, tiles.getPixels()[0x17F * 64 + 63]);
+		mem.writeByte((char) 0x9800, (byte) 0x01);
+		assertFalse(tiles.isDirty(0x17F));
+
+		tiles.resetCounters();
+		assertEquals(0, tiles.getMisses());
+		assertEquals(0, tiles.getHits());
+	}
+
+	@Test
+	public void writeBlockTest() {
+		for (int tile = 0; tile < 3; tile++) {
+			tiles.getRow(tile, 0);
+		}
+		mem.writeBlock((char) 0x800F, new byte[] { 1, 2 }, 0, 2);
+		assertTrue(tiles.isDirty(0));
+		assertTrue(tiles.isDirty(1));
+		assertFalse(tiles.isDirty(2));
+	}
+
+	@Test
+	public void renderTest() {
+		// Two frames of the same background only decode the tile once
+		mem.writeByte((char) 0x8010, (byte) 0xFF);
+		mem.writeByte((char) 0x9800, (byte) 0x01);
+		mem.writeByte((char) 0xFF40, (byte) 0x10);
+		system.getScheduler().advance(70224);
+		long misses = tiles.getMisses();
+		assertTrue(tiles.getHits() > 0);
+		system.getScheduler().advance(70224);
+		assertEquals(misses, tiles.getMisses());
+	}
+
+}
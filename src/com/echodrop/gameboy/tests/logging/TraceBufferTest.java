@@ -0,0 +1,57 @@
+/**
+ * TraceBufferTest.java
+ *
+ * @author anewkirk
+ *
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.tests.logging;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.echodrop.gameboy.core.Scheduler;
+import com.echodrop.gameboy.logging.TraceBuffer;
+
+public class TraceBufferTest {
+
+	@Test
+	public void decodeTest() {
+		Scheduler scheduler = new Scheduler();
+		TraceBuffer trace = new TraceBuffer(scheduler, 8);
+		trace.record(TraceBuffer.INSTRUCTION, 0xC000, 0xCB7C);
+		scheduler.advance(8);
+		trace.record(TraceBuffer.JUMP, 0xFFFE, 0x8000);
+		trace.record(TraceBuffer.GPU_READ, 0xFF44, 0x90);
+
+		assertEquals("0 INSTRUCTION 0xC000: 0xcb7c\n" + "8 JUMP 0xFFFE -> 0x8000\n" + "8 GPU_READ 0xFF44 = 0x90\n",
+				trace.decode());
+	}
+
+	@Test
+	public void wrapAroundTest() {
+		Scheduler scheduler = new Scheduler();
+		TraceBuffer trace = new TraceBuffer(scheduler, 3);
+		for (int i = 0; i < 10; i++) {
+			trace.record(TraceBuffer.RET, i, 0);
+		}
+
+		// Capacity is rounded up to 4, and only the newest 4 are kept
+		assertEquals(4, trace.size());
+		assertEquals("0 RET 0x0006\n0 RET 0x0007\n0 RET 0x0008\n0 RET 0x0009\n", trace.decode());
+
+		trace.clear();
+		assertEquals(0, trace.size());
+	}
+
+	@Test
+	public void zeroCapacityTest() {
+		TraceBuffer trace = new TraceBuffer(new Scheduler(), 0);
+		trace.record(TraceBuffer.RET, 1, 0);
+		assertEquals(0, trace.size());
+		assertEquals("", trace.decode());
+	}
+
+}
@@ -0,0 +1,203 @@
+/**
+ * MapperTest.java
+ * 
+ * @author anewkirk
+ * 
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.tests.rom;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.logging.Level;
+
+import org.junit.Test;
+
+import com.echodrop.gameboy.core.MMU;
+import com.echodrop.gameboy.core.TailspinGB;
+import com.echodrop.gameboy.exceptions.MapperNotImplementedException;
+import com.echodrop.gameboy.logging.SimpleConsoleLogger;
+import com.echodrop.gameboy.rom.RomFile;
+
+/**
+ * Loads ROMs whose banks are each filled with their own bank number, and
+ * checks what the MBCs map in as their registers are written
+ */
+public class MapperTest {
+
+	@Test
+	public void romOnlyTest() throws MapperNotImplementedException {
+		MMU mem = load(0x00, 2, 0);
+		assertEquals(0, mem.readByte((char) 0x3FFF));
+		assertEquals(1, mem.readByte((char) 0x4000));
+
+		// The ROM can't be written
+		mem.writeByte((char) 0x4000, (byte) 0x55);
+		assertEquals(1, mem.readByte((char) 0x4000));
+
+		// No RAM
+		assertEquals((byte) 0xFF, mem.readByte((char) 0xA000));
+	}
+
+	@Test
+	public void zeroCopyTest() throws MapperNotImplementedException {
+		MMU mem = load(0x19, 4, 0);
+		RomFile rom = mem.getLoadedRomFile();
+		mem.writeByte((char) 0x2000, (byte) 3);
+		rom.romData[3 * RomFile.ROM_BANK_SIZE + 0x123] = 0x77;
+		assertEquals(0x77, mem.readByte((char) 0x4123));
+	}
+
+	@Test
+	public void mbc1Test() throws MapperNotImplementedException {
+		// 2MB, with 32KB of RAM
+		MMU mem = load(0x03, 128, 3);
+		mem.writeByte((char) 0x2000, (byte) 0x05);
+		assertEquals(5, mem.readByte((char) 0x4000));
+
+		// Bank 0 is read as bank 1
+		mem.writeByte((char) 0x2000, (byte) 0x00);
+		assertEquals(1, mem.readByte((char) 0x7FFF));
+
+		// Upper bits
+		mem.writeByte((char) 0x2000, (byte) 0x03);
+		mem.writeByte((char) 0x4000, (byte) 0x02);
+		assertEquals(0x43, mem.readByte((char) 0x4000));
+		assertEquals(0, mem.readByte((char) 0x0000));
+
+		// Mode 1 switches bank 0 and the RAM bank too
+		mem.writeByte((char) 0x6000, (byte) 0x01);
+		assertEquals(0x40, mem.readByte((char) 0x0000));
+
+		// RAM is disabled until 0A is written to 0000-1FFF
+		mem.writeByte((char) 0xA000, (byte) 0x12);
+		assertEquals((byte) 0xFF, mem.readByte((char) 0xA000));
+		mem.writeByte((char) 0x0000, (byte) 0x0A);
+		mem.writeByte((char) 0xA000, (byte) 0x12);
+		assertEquals(0x12, mem.readByte((char) 0xA000));
+		assertEquals(0x12, mem.getLoadedRomFile().ram[2 * RomFile.RAM_BANK_SIZE]);
+		mem.writeByte((char) 0x4000, (byte) 0x01);
+		assertEquals(0, mem.readByte((char) 0xA000));
+
+		mem.writeByte((char) 0x0000, (byte) 0x00);
+		assertEquals((byte) 0xFF, mem.readByte((char) 0xA000));
+	}
+
+	@Test
+	public void mbc2Test() throws MapperNotImplementedException {
+		MMU mem = load(0x06, 16, 0);
+		mem.writeByte((char) 0x2100, (byte) 0x0F);
+		assertEquals(15, mem.readByte((char) 0x4000));
+
+		// Bit 8 clear is the RAM enable, not the ROM bank
+		mem.writeByte((char) 0x2000, (byte) 0x0A);
+		assertEquals(15, mem.readByte((char) 0x4000));
+
+		// 4-bit RAM, repeated every 512 bytes
+		mem.writeByte((char) 0xA005, (byte) 0x3C);
+		assertEquals((byte) 0xFC, mem.readByte((char) 0xA005));
+		assertEquals((byte) 0xFC, mem.readByte((char) 0xBE05));
+	}
+
+	@Test
+	public void mbc3Test() throws MapperNotImplementedException {
+		MMU mem = load(0x10, 128, 3);
+		mem.writeByte((char) 0x2000, (byte) 0x7F);
+		assertEquals(0x7F, mem.readByte((char) 0x4000));
+
+		mem.writeByte((char) 0x0000, (byte) 0x0A);
+		mem.writeByte((char) 0x4000, (byte) 0x03);
+		mem.writeByte((char) 0xBFFF, (byte) 0x33);
+		assertEquals(0x33, mem.getLoadedRomFile().ram[4 * RomFile.RAM_BANK_SIZE - 1]);
+
+		// Clock registers only read back once latched
+		mem.writeByte((char) 0x4000, (byte) 0x09);
+		mem.writeByte((char) 0xA000, (byte) 0x2A);
+		assertEquals(0, mem.readByte((char) 0xA000));
+		mem.writeByte((char) 0x6000, (byte) 0x00);
+		mem.writeByte((char) 0x6000, (byte) 0x01);
+		assertEquals(0x2A, mem.readByte((char) 0xA000));
+
+		mem.writeByte((char) 0x4000, (byte) 0x03);
+		assertEquals(0x33, mem.readByte((char) 0xBFFF));
+	}
+
+	@Test
+	public void mbc5Test() throws MapperNotImplementedException {
+		// 8MB, with 128KB of RAM
+		MMU mem = load(0x1B, 512, 4);
+		mem.writeByte((char) 0x2000, (byte) 0xFF);
+		mem.writeByte((char) 0x3000, (byte) 0x01);
+		assertEquals(0x1FF, bank(mem, 0x4000));
+
+		// Bank 0 can be mapped at 0x4000
+		mem.writeByte((char) 0x2000, (byte) 0x00);
+		mem.writeByte((char) 0x3000, (byte) 0x00);
+		assertEquals(0, bank(mem, 0x4000));
+
+		mem.writeByte((char) 0x0000, (byte) 0x0A);
+		mem.writeByte((char) 0x4000, (byte) 0x0F);
+		mem.writeByte((char) 0xA100, (byte) 0x5A);
+		assertEquals(0x5A, mem.getLoadedRomFile().ram[15 * RomFile.RAM_BANK_SIZE + 0x100]);
+	}
+
+	@Test
+	public void bankedCodeTest() throws MapperNotImplementedException {
+		// LD SP,DFF0; LD A,1; LD (2000),A; CALL 4000; LD A,2; LD (2000),A; CALL 4000; JR -2
+		byte[] bios = { 0x31, (byte) 0xF0, (byte) 0xDF, 0x3E, 0x01, (byte) 0xEA, 0x00, 0x20, (byte) 0xCD, 0x00, 0x40,
+				0x3E, 0x02, (byte) 0xEA, 0x00, 0x20, (byte) 0xCD, 0x00, 0x40, 0x18, (byte) 0xFE };
+		byte[] rom = createRom(0x01, 4, 0);
+		// Bank 1: LD C,11; RET. Bank 2: LD D,22; RET
+		System.arraycopy(new byte[] { 0x0E, 0x11, (byte) 0xC9 }, 0, rom, RomFile.ROM_BANK_SIZE, 3);
+		System.arraycopy(new byte[] { 0x16, 0x22, (byte) 0xC9 }, 0, rom, 2 * RomFile.ROM_BANK_SIZE, 3);
+
+		TailspinGB system = createSystem();
+		system.getMem().loadBootstrap(bios);
+		system.getMem().loadRom(rom);
+		system.getProcessor().setBlockCacheEnabled(true);
+		system.getProcessor().runFor(1000);
+		assertEquals(0x11, system.getProcessor().getC().getValue());
+		assertEquals(0x22, system.getProcessor().getD().getValue());
+	}
+
+	@Test(expected = MapperNotImplementedException.class)
+	public void unsupportedMapperTest() throws MapperNotImplementedException {
+		// HuC1
+		load(0xFF, 2, 0);
+	}
+
+	private static int bank(MMU mem, int address) {
+		return (mem.readByte((char) address) & 0xFF) | (mem.readByte((char) (address + 1)) & 0xFF) << 8;
+	}
+
+	private static MMU load(int type, int banks, int ramSize) throws MapperNotImplementedException {
+		TailspinGB system = createSystem();
+		system.getMem().writeByte((char) 0xFF50, (byte) 1);
+		system.getMem().loadRom(createRom(type, banks, ramSize));
+		return system.getMem();
+	}
+
+	/**
+	 * @return a ROM with the given header, and each bank starting with its
+	 *         bank number, low byte first
+	 */
+	private static byte[] createRom(int type, int banks, int ramSize) {
+		byte[] rom = new byte[banks * RomFile.ROM_BANK_SIZE];
+		for (int bank = 0; bank < banks; bank++) {
+			rom[bank * RomFile.ROM_BANK_SIZE] = (byte) bank;
+			rom[bank * RomFile.ROM_BANK_SIZE + 1] = (byte) (bank >>> 8);
+			rom[bank * RomFile.ROM_BANK_SIZE + RomFile.ROM_BANK_SIZE - 1] = (byte) bank;
+		}
+		rom[0x147] = (byte) type;
+		rom[0x149] = (byte) ramSize;
+		return rom;
+	}
+
+	private static TailspinGB createSystem() {
+		TailspinGB system = new TailspinGB();
+		system.initLogging(Level.OFF, new SimpleConsoleLogger());
+		return system;
+	}
+
+}
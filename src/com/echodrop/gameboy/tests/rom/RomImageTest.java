@@ -0,0 +1,149 @@
+/**
+ * RomImageTest.java
+ * 
+ * @author anewkirk
+ * 
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.tests.rom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.logging.Level;
+
+import org.junit.Test;
+
+import com.echodrop.gameboy.core.MMU;
+import com.echodrop.gameboy.core.TailspinGB;
+import com.echodrop.gameboy.exceptions.MapperNotImplementedException;
+import com.echodrop.gameboy.logging.SimpleConsoleLogger;
+import com.echodrop.gameboy.rom.RomFile;
+import com.echodrop.gameboy.rom.RomImage;
+
+/**
+ * Loads ROM files through a mapping, checking that banks are only read once
+ * they're switched to and that instances running the same file share them
+ */
+public class RomImageTest {
+
+	@Test
+	public void headerTest() throws IOException, MapperNotImplementedException {
+		Path file = createFile(8);
+		try {
+			RomFile rom = RomFile.load(RomImage.open(file));
+			assertEquals("TAILSPIN", rom.title.trim());
+			assertEquals(0x19, rom.cartridgeType);
+
+			// Reading the header doesn't load bank 0
+			for (int bank = 0; bank < 8; bank++) {
+				assertFalse(rom.getImage().isBankLoaded(bank));
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void lazyLoadTest() throws IOException, MapperNotImplementedException {
+		Path file = createFile(8);
+		try {
+			MMU mem = load(file);
+			RomImage image = mem.getLoadedRomFile().getImage();
+			assertTrue(image.isBankLoaded(0));
+			assertTrue(image.isBankLoaded(1));
+			assertFalse(image.isBankLoaded(5));
+
+			mem.writeByte((char) 0x2000, (byte) 5);
+			assertTrue(image.isBankLoaded(5));
+			assertEquals(5, mem.readByte((char) 0x4000));
+			assertEquals(5, mem.readByte((char) 0x7FFF));
+			assertFalse(image.isBankLoaded(7));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void sharedTest() throws IOException, MapperNotImplementedException {
+		Path file = createFile(8);
+		try {
+			MMU first = load(file);
+			MMU second = load(file);
+			assertSame(first.getLoadedRomFile().getImage(), second.getLoadedRomFile().getImage());
+			assertSame(first.getLoadedRomFile().romData, second.getLoadedRomFile().romData);
+
+			// A bank loaded by one instance is there for the other
+			first.writeByte((char) 0x2000, (byte) 6);
+			assertTrue(second.getLoadedRomFile().getImage().isBankLoaded(6));
+			second.writeByte((char) 0x2000, (byte) 6);
+			assertEquals(6, second.readByte((char) 0x4000));
+
+			// Each still has its own bank registers
+			assertEquals(6, first.readByte((char) 0x4000));
+			second.writeByte((char) 0x2000, (byte) 2);
+			assertEquals(6, first.readByte((char) 0x4000));
+			assertEquals(2, second.readByte((char) 0x4000));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void shortFileTest() throws IOException, MapperNotImplementedException {
+		// Half a bank, which is padded out to two
+		Path file = Files.createTempFile("tailspin", ".gb");
+		try {
+			byte[] rom = new byte[RomFile.ROM_BANK_SIZE / 2];
+			rom[0x100] = 0x42;
+			rom[rom.length - 1] = 0x24;
+			Files.write(file, rom);
+			MMU mem = load(file);
+			assertEquals(2, mem.getLoadedRomFile().getImage().getBanks());
+			assertEquals(0x42, mem.readByte((char) 0x0100));
+			assertEquals(0x24, mem.readByte((char) (rom.length - 1)));
+			assertEquals(0, mem.readByte((char) rom.length));
+			assertEquals(0, mem.readByte((char) 0x4000));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	private static MMU load(Path file) throws IOException, MapperNotImplementedException {
+		TailspinGB system = new TailspinGB();
+		system.initLogging(Level.OFF, new SimpleConsoleLogger());
+		system.getMem().writeByte((char) 0xFF50, (byte) 1);
+		system.getMem().loadRom(file);
+		return system.getMem();
+	}
+
+	/**
+	 * @return a temporary MBC5 ROM file, with each bank filled with its bank
+	 *         number
+	 */
+	private static Path createFile(int banks) throws IOException {
+		byte[] rom = new byte[banks * RomFile.ROM_BANK_SIZE];
+		for (int bank = 0; bank < banks; bank++) {
+			for (int i = 0; i < RomFile.ROM_BANK_SIZE; i++) {
+				rom[bank * RomFile.ROM_BANK_SIZE + i] = (byte) bank;
+			}
+		}
+		byte[] title = "TAILSPIN".getBytes();
+		System.arraycopy(title, 0, rom, 0x134, title.length);
+		for (int i = 0x134 + title.length; i < 0x143; i++) {
+			rom[i] = ' ';
+		}
+		rom[0x147] = 0x19;
+		rom[0x149] = 0;
+		Path file = Files.createTempFile("tailspin", ".gb");
+		Files.write(file, rom);
+		return file;
+	}
+
+}
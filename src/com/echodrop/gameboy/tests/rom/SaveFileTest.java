@@ -0,0 +1,174 @@
+/**
+ * SaveFileTest.java
+ * 
+ * @author anewkirk
+ * 
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.tests.rom;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.logging.Level;
+
+import org.junit.Test;
+
+import com.echodrop.gameboy.core.MMU;
+import com.echodrop.gameboy.core.TailspinGB;
+import com.echodrop.gameboy.exceptions.MapperNotImplementedException;
+import com.echodrop.gameboy.logging.SimpleConsoleLogger;
+import com.echodrop.gameboy.rom.RomFile;
+import com.echodrop.gameboy.rom.SaveFile;
+
+/**
+ * Runs battery-backed cartridges from temporary files, checking what ends up
+ * in their save files
+ */
+public class SaveFileTest {
+
+	@Test
+	public void syncTest() throws IOException, MapperNotImplementedException {
+		// MBC5+RAM+BATTERY, 32KB
+		Path rom = createFile(0x1B, 3);
+		Path save = MMU.getSavePath(rom);
+		try {
+			TailspinGB system = load(rom);
+			MMU mem = system.getMem();
+			assertEquals(0x8000, Files.size(save));
+
+			mem.writeByte((char) 0x0000, (byte) 0x0A);
+			mem.writeByte((char) 0x4000, (byte) 2);
+			mem.writeByte((char) 0xA123, (byte) 0x5A);
+			SaveFile saveFile = mem.getSaveFile();
+			assertTrue(saveFile.isDirty());
+
+			// Handed to the save file once the interval is up
+			system.getScheduler().advance(TailspinGB.CLOCK_SPEED / 10 + 1);
+			assertFalse(saveFile.isDirty());
+
+			mem.closeSave();
+			assertNull(mem.getSaveFile());
+			assertEquals(0x5A, Files.readAllBytes(save)[2 * RomFile.RAM_BANK_SIZE + 0x123]);
+		} finally {
+			Files.deleteIfExists(save);
+			Files.delete(rom);
+		}
+	}
+
+	@Test
+	public void reloadTest() throws IOException, MapperNotImplementedException {
+		// MBC1+RAM+BATTERY, 8KB
+		Path rom = createFile(0x03, 2);
+		Path save = MMU.getSavePath(rom);
+		try {
+			MMU mem = load(rom).getMem();
+			mem.writeByte((char) 0x0000, (byte) 0x0A);
+			for (int i = 0; i < RomFile.RAM_BANK_SIZE; i++) {
+				mem.writeByte((char) (0xA000 + i), (byte) i);
+			}
+			mem.initialize();
+
+			mem = load(rom).getMem();
+			mem.writeByte((char) 0x0000, (byte) 0x0A);
+			for (int i = 0; i < RomFile.RAM_BANK_SIZE; i++) {
+				assertEquals((byte) i, mem.readByte((char) (0xA000 + i)));
+			}
+			mem.closeSave();
+		} finally {
+			Files.deleteIfExists(save);
+			Files.delete(rom);
+		}
+	}
+
+	@Test
+	public void mbc2Test() throws IOException, MapperNotImplementedException {
+		// MBC2+BATTERY, whose 512 nibbles go through the slow path
+		Path rom = createFile(0x06, 0);
+		Path save = MMU.getSavePath(rom);
+		try {
+			MMU mem = load(rom).getMem();
+			mem.writeByte((char) 0x0000, (byte) 0x0A);
+			mem.writeByte((char) 0xA7FF, (byte) 0x0C);
+			assertTrue(mem.getSaveFile().isDirty());
+			mem.closeSave();
+
+			byte[] saved = Files.readAllBytes(save);
+			assertEquals(0x200, saved.length);
+			assertEquals(0x0C, saved[0x1FF]);
+		} finally {
+			Files.deleteIfExists(save);
+			Files.delete(rom);
+		}
+	}
+
+	@Test
+	public void noBatteryTest() throws IOException, MapperNotImplementedException {
+		// MBC5+RAM, with nothing to save
+		Path rom = createFile(0x1A, 3);
+		try {
+			MMU mem = load(rom).getMem();
+			mem.writeByte((char) 0xA000, (byte) 1);
+			assertNull(mem.getSaveFile());
+			assertFalse(Files.exists(MMU.getSavePath(rom)));
+		} finally {
+			Files.delete(rom);
+		}
+	}
+
+	@Test
+	public void savePathTest() {
+		Path rom = Path.of("roms", "game.gb");
+		assertEquals(Path.of("roms", "game.sav"), MMU.getSavePath(rom));
+		assertEquals(Path.of("roms", "game.sav"), MMU.getSavePath(Path.of("roms", "game")));
+	}
+
+	@Test
+	public void existingSaveTest() throws IOException {
+		Path file = Files.createTempFile("tailspin", ".sav");
+		try {
+			// A save shorter than the RAM is loaded as far as it goes
+			Files.write(file, new byte[] { 1, 2, 3 });
+			byte[] ram = new byte[0x800];
+			ram[0x10] = 9;
+			SaveFile saveFile = SaveFile.open(file, ram);
+			assertArrayEquals(new byte[] { 1, 2, 3, 0 }, Arrays.copyOf(ram, 4));
+			assertEquals(9, ram[0x10]);
+			saveFile.close();
+			assertEquals(0x800, Files.size(file));
+			assertEquals(9, Files.readAllBytes(file)[0x10]);
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	private static TailspinGB load(Path rom) throws IOException, MapperNotImplementedException {
+		TailspinGB system = new TailspinGB();
+		system.initLogging(Level.OFF, new SimpleConsoleLogger());
+		system.getMem().setSaveInterval(100);
+		system.getMem().writeByte((char) 0xFF50, (byte) 1);
+		system.getMem().loadRom(rom);
+		return system;
+	}
+
+	/**
+	 * @return a temporary two bank ROM file with the given header
+	 */
+	private static Path createFile(int type, int ramSize) throws IOException {
+		byte[] rom = new byte[2 * RomFile.ROM_BANK_SIZE];
+		rom[0x147] = (byte) type;
+		rom[0x149] = (byte) ramSize;
+		Path file = Files.createTempFile("tailspin", ".gb");
+		Files.write(file, rom);
+		return file;
+	}
+
+}
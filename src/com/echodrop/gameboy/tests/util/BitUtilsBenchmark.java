@@ -0,0 +1,92 @@
+/**
+ * BitUtilsBenchmark.java
+ *
+ * @author anewkirk
+ *
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.tests.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.echodrop.gameboy.core.Register;
+import com.echodrop.gameboy.util.NumberUtils;
+import com.echodrop.gameboy.util.RegisterUtils;
+
+/**
+ * JMH microbenchmarks for the bit and word helpers the CPU calls on every
+ * 16-bit read, rotate and swap. Each benchmark runs over all 256 byte values
+ * so no single input gets constant folded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BitUtilsBenchmark {
+
+	private byte[] values;
+	private Register register;
+
+	@Setup
+	public void setup() {
+		values = new byte[256];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = (byte) i;
+		}
+		register = new Register((byte) 0, "benchmark");
+	}
+
+	@Benchmark
+	public void bytesToWord(Blackhole bh) {
+		for (int i = 0; i < values.length; i++) {
+			bh.consume(NumberUtils.bytesToWord(values[i], values[255 - i]));
+		}
+	}
+
+	@Benchmark
+	public void swapNibbles(Blackhole bh) {
+		for (int i = 0; i < values.length; i++) {
+			bh.consume(NumberUtils.swapNibbles(values[i]));
+		}
+	}
+
+	@Benchmark
+	public void leftRotate(Blackhole bh) {
+		for (int i = 0; i < values.length; i++) {
+			register.setValue(values[i]);
+			bh.consume(RegisterUtils.leftRotate(register));
+		}
+	}
+
+	@Benchmark
+	public void leftRotateThroughCarry(Blackhole bh) {
+		boolean carry = false;
+		for (int i = 0; i < values.length; i++) {
+			register.setValue(values[i]);
+			carry = RegisterUtils.leftRotateThroughCarry(register, carry);
+		}
+		bh.consume(carry);
+		bh.consume(register.getValue());
+	}
+
+	@Benchmark
+	public void rightRotateThroughCarry(Blackhole bh) {
+		boolean carry = false;
+		for (int i = 0; i < values.length; i++) {
+			register.setValue(values[i]);
+			carry = RegisterUtils.rightRotateThroughCarry(register, carry ^ (i & 1) == 0);
+		}
+		bh.consume(carry);
+		bh.consume(register.getValue());
+	}
+
+}
@@ -31,7 +31,28 @@ public class NumberUtilsTest {
 	
 	@Test
 	public void BytesToWordTest() {
-		
+		assertEquals(0xFFFE, NumberUtils.bytesToWord((byte) 0xFE, (byte) 0xFF));
+		assertEquals(0x0100, NumberUtils.bytesToWord((byte) 0x00, (byte) 0x01));
+
+		for (int high = 0; high < 256; high++) {
+			for (int low = 0; low < 256; low++) {
+				assertEquals(legacyBytesToWord((byte) low, (byte) high),
+						NumberUtils.bytesToWord((byte) low, (byte) high));
+			}
+		}
+	}
+
+	@Test
+	public void SwapNibblesTest() {
+		assertEquals((byte) 0x1F, NumberUtils.swapNibbles((byte) 0xF1));
+		assertEquals((byte) 0x00, NumberUtils.swapNibbles((byte) 0x00));
+
+		for (int i = 0; i < 256; i++) {
+			byte swapped = NumberUtils.swapNibbles((byte) i);
+			assertEquals((i & 0x0F), (swapped & 0xF0) >> 4);
+			assertEquals((i & 0xF0) >> 4, swapped & 0x0F);
+			assertEquals((byte) i, NumberUtils.swapNibbles(swapped));
+		}
 	}
 	
 	@Test
@@ -41,4 +62,22 @@ public class NumberUtilsTest {
 //		assertEquals(b[0], 0xFE);
 	}
 
+	/**
+	 * The original string based implementation, kept to check the
+	 * arithmetic one against
+	 */
+	private static char legacyBytesToWord(byte b1, byte b2) {
+		String hex1 = Integer.toHexString(b2 & 0xFF);
+
+		if (hex1.length() < 2) {
+			hex1 = "0" + hex1;
+		}
+		String hex2 = Integer.toHexString(b1 & 0xFF);
+
+		if (hex2.length() < 2) {
+			hex2 = "0" + hex2;
+		}
+		return (char) Integer.parseInt(hex1 + hex2, 16);
+	}
+
 }
@@ -1,11 +1,13 @@
 package com.echodrop.gameboy.tests.util;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 
 import com.echodrop.gameboy.core.Register;
 import com.echodrop.gameboy.util.RegisterUtils;
+import com.echodrop.gameboy.util.StringUtils;
 
 public class RegisterUtilsTests {
 
@@ -25,4 +27,63 @@ public class RegisterUtilsTests {
 		
 	}
 
+	@Test
+	public void leftRotateTest() {
+		for (int i = 0; i < 256; i++) {
+			Register r = new Register((byte) i, "test_input");
+			assertEquals(legacyLeftRotate(r), RegisterUtils.leftRotate(r));
+		}
+	}
+
+	@Test
+	public void leftRotateThroughCarryTest() {
+		for (int i = 0; i < 512; i++) {
+			boolean carry = (i & 0x100) != 0;
+			Register expected = new Register((byte) i, "expected");
+			Register actual = new Register((byte) i, "actual");
+			assertEquals(legacyLeftRotateThroughCarry(expected, carry),
+					RegisterUtils.leftRotateThroughCarry(actual, carry));
+			assertEquals(expected.getValue(), actual.getValue());
+		}
+	}
+
+	@Test
+	public void rightRotateThroughCarryTest() {
+		for (int i = 0; i < 512; i++) {
+			boolean carry = (i & 0x100) != 0;
+			Register expected = new Register((byte) i, "expected");
+			Register actual = new Register((byte) i, "actual");
+			assertEquals(legacyRightRotateThroughCarry(expected, carry),
+					RegisterUtils.rightRotateThroughCarry(actual, carry));
+			assertEquals(expected.getValue(), actual.getValue());
+		}
+	}
+
+	/*
+	 * The original string based implementations, kept to check the arithmetic
+	 * ones against
+	 */
+
+	private static byte legacyLeftRotate(Register r) {
+		String bin = StringUtils.zeroLeftPad(Integer.toBinaryString(r.getValue() & 0xFF), 8);
+		String shifted = bin.substring(1) + bin.charAt(0);
+		return (byte) Integer.parseInt(shifted, 2);
+	}
+
+	private static boolean legacyLeftRotateThroughCarry(Register toRotate, boolean carryFlag) {
+		String bin = StringUtils.zeroLeftPad(Integer.toBinaryString(toRotate.getValue() & 0xFF), 8)
+				+ (carryFlag ? '1' : '0');
+		String shifted = bin.substring(1) + bin.charAt(0);
+		toRotate.setValue(Integer.parseInt(shifted.substring(0, 8), 2));
+		return shifted.charAt(8) == '1';
+	}
+
+	private static boolean legacyRightRotateThroughCarry(Register toRotate, boolean carryFlag) {
+		String bin = StringUtils.zeroLeftPad(Integer.toBinaryString(toRotate.getValue() & 0xFF), 8)
+				+ (carryFlag ? '1' : '0');
+		String shifted = bin.charAt(bin.length() - 1) + bin.substring(0, bin.length() - 2);
+		toRotate.setValue(Integer.parseInt(shifted.substring(0, 8), 2));
+		return shifted.charAt(0) == '1';
+	}
+
 }
@@ -9,6 +9,7 @@
 package com.echodrop.gameboy.ui.cli;
 
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Scanner;
 import java.util.logging.Level;
@@ -26,6 +27,7 @@ import com.echodrop.gameboy.debugger.TailspinDebugger;
 import com.echodrop.gameboy.exceptions.MapperNotImplementedException;
 import com.echodrop.gameboy.graphics.GPU;
 import com.echodrop.gameboy.logging.SimpleConsoleLogger;
+import com.echodrop.gameboy.logging.TraceBuffer;
 import com.echodrop.gameboy.util.FileUtils;
 import com.echodrop.gameboy.util.GraphicsUtils;
 import com.echodrop.gameboy.util.StringUtils;
@@ -92,14 +94,8 @@ public class DebuggerCLI {
 			System.out.println("[!] Breakpoint added at 0x" + Integer.toHexString(bp & 0xFFFF).toUpperCase());
 			break;
 		case CONTINUE:
-			if (tdb.atBreakPoint()) {
-				tdb.getSystem().getProcessor().step();
-			}
 			long start = System.currentTimeMillis();
-
-			while (!tdb.atBreakPoint()) {
-				tdb.getSystem().getProcessor().step();
-			}
+			tdb.continueToBreakpoint();
 			char breakpoint = system.getProcessor().getPc();
 			System.out.println("[!] Reached breakpoint: 0x" + Integer.toHexString(breakpoint & 0xFFFF).toUpperCase()
 					+ " in " + (System.currentTimeMillis() - start) / 1000f + " seconds.");
@@ -132,10 +128,8 @@ public class DebuggerCLI {
 			System.out.println("[~] Log level: Info");
 			break;
 		case LOADROM:
-			byte[] rom;
 			try {
-				rom = FileUtils.readBytes(readFilename());
-				tdb.getSystem().getMem().loadRom(rom);
+				tdb.getSystem().getMem().loadRom(Paths.get(readFilename()));
 			} catch (IOException e) {
 				tdb.getSystem().getLogger().severe("[!] Unable to load rom: " + e.getMessage());
 			} catch (MapperNotImplementedException me) {
@@ -179,10 +173,14 @@ public class DebuggerCLI {
 		case RENDER:
 			tdb.getSystem().getGpu().renderFrame();
 			break;
+		case TRACEDMP:
+			traceDump();
+			break;
 		case HELP:
 			showHelp();
 			break;
 		case EXIT:
+			tdb.getSystem().getMem().closeSave();
 			System.exit(0);
 			break;
 		default:
@@ -190,6 +188,17 @@ public class DebuggerCLI {
 		}
 	}
 
+	/**
+	 * Prints the trace buffer, oldest record first
+	 */
+	private static void traceDump() {
+		if (!TraceBuffer.ENABLED) {
+			System.out.println("[!] Tracing is off, restart with -Dtailspin.trace=true to enable it");
+			return;
+		}
+		System.out.print(tdb.getSystem().getTrace().decode());
+	}
+
 	/**
 	 * Dumps the contents of the framebuffer in text mode to the console.
 	 */
@@ -241,8 +250,10 @@ public class DebuggerCLI {
 		System.out.println("E: " + StringUtils.byteToReadableHex(p.getE().getValue()));
 		System.out.println("H: " + StringUtils.byteToReadableHex(p.getH().getValue()));
 		System.out.println("L: " + StringUtils.byteToReadableHex(p.getL().getValue()));
-		System.out.println("T clock: " + StringUtils.byteToReadableHex(p.getClockT().getValue()));
-		System.out.println("M clock: " + StringUtils.byteToReadableHex(p.getClockM().getValue()));
+		System.out.println("T cycles: " + tdb.getSystem().getCycles());
+		System.out.println("M cycles: " + tdb.getSystem().getMachineCycles());
+		System.out.println("Speed: " + (long) tdb.getSystem().getCyclesPerSecond() + " cycles/s ("
+				+ Math.round(tdb.getSystem().getSpeedRatio() * 100) + "%)");
 		System.out.println("Zero flag: " + p.isZeroFlag());
 		System.out.println("Operation flag: " + p.isOperationFlag());
 		System.out.println("Half Carry flag: " + p.isHalfCarryFlag());
@@ -488,6 +499,7 @@ public class DebuggerCLI {
 		System.out.println("vtiledmp: render tileset to framebuffer");
 		System.out.println("video: enable video mode");
 		System.out.println("render: draw framebuffer to screen");
+		System.out.println("tracedmp: display the trace buffer (run with -Dtailspin.trace=true)");
 	}
 
 }
@@ -0,0 +1,90 @@
+/**
+ * HeadlessRunner.java
+ * 
+ * @author anewkirk
+ * 
+ * Licensing information can be found in the root directory of the project.
+ */
+
+package com.echodrop.gameboy.ui.cli;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.logging.Level;
+
+import com.echodrop.gameboy.core.OpcodeProfiler;
+import com.echodrop.gameboy.core.RunResult;
+import com.echodrop.gameboy.core.TailspinGB;
+import com.echodrop.gameboy.exceptions.MapperNotImplementedException;
+import com.echodrop.gameboy.logging.SimpleConsoleLogger;
+import com.echodrop.gameboy.util.FileUtils;
+
+/**
+ * Runs a ROM for a number of frames with no display attached, then prints
+ * how long it took. Useful for testing and timing the core on its own.
+ * 
+ * Usage: HeadlessRunner bios.gb rom.gb [frames] [blocks|fused|jit|profile]
+ * 
+ * Passing "blocks" runs from the decoded block cache instead of the plain
+ * interpreter, "fused" also runs common instruction sequences as one, and
+ * "jit" compiles blocks that run often to bytecode. "profile" runs the plain
+ * interpreter and prints the opcode pairs and triples it ran most.
+ */
+public class HeadlessRunner {
+
+	private static final int DEFAULT_FRAMES = 600;
+	private static final int PROFILE_TOP = 20;
+
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.out.println("Usage: HeadlessRunner <bios> <rom> [frames] [blocks|fused|jit|profile]");
+			return;
+		}
+		int frames = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_FRAMES;
+		String mode = args.length > 3 ? args[3] : "";
+
+		TailspinGB system = new TailspinGB();
+		system.initLogging(Level.OFF, new SimpleConsoleLogger());
+		system.getProcessor().setBlockCacheEnabled(
+				mode.equalsIgnoreCase("blocks") || mode.equalsIgnoreCase("fused") || mode.equalsIgnoreCase("jit"));
+		system.getProcessor().setFusionEnabled(mode.equalsIgnoreCase("fused"));
+		system.getProcessor().setJitEnabled(mode.equalsIgnoreCase("jit"));
+		if (mode.equalsIgnoreCase("profile")) {
+			system.getProcessor().setProfiler(new OpcodeProfiler());
+		}
+
+		try {
+			system.getMem().loadBootstrap(FileUtils.readBytes(args[0]));
+			system.getMem().loadRom(Paths.get(args[1]));
+		} catch (IOException e) {
+			System.err.println("[!] Unable to load file: " + e.getMessage());
+			return;
+		} catch (MapperNotImplementedException e) {
+			System.err.println("[!] ROM uses an unsupported mapper.");
+			return;
+		}
+
+		long cycles = 0;
+		long instructions = 0;
+		long start = System.nanoTime();
+
+		for (int i = 0; i < frames; i++) {
+			RunResult result = system.getProcessor().runFrame();
+			cycles += result.getCycles();
+			instructions += result.getInstructions();
+		}
+		system.getMem().closeSave();
+
+		float seconds = (System.nanoTime() - start) / 1e9f;
+		System.out.println("[~] Ran " + frames + " frames (" + instructions + " instructions, " + cycles + " cycles) in "
+				+ seconds + " seconds, " + frames / seconds + " fps");
+		System.out.println("[~] Fast-forwarded " + system.getProcessor().getFastForwardCycles() + " idle cycles");
+		if (system.getProcessor().isJitEnabled()) {
+			System.out.println("[~] Compiled " + system.getProcessor().getCompiledBlockCount() + " blocks");
+		}
+		if (system.getProcessor().getProfiler() != null) {
+			System.out.print(system.getProcessor().getProfiler().report(system.getProcessor(), PROFILE_TOP));
+		}
+	}
+
+}
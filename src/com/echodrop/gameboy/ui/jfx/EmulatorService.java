@@ -18,12 +18,28 @@ public class EmulatorService extends Service<Void> {
 		return new Task<Void>() {
 			@Override
 			protected Void call() throws Exception {
+				// Cancellation is only checked between frames
 				while(!isCancelled()) {
-					tdb.getSystem().getProcessor().step();
+					synchronized (tdb.getSystem()) {
+						if (!isCancelled()) {
+							tdb.getSystem().getProcessor().runFrame();
+						}
+					}
 				}
 				return null;
 			}
 		};
 	}
 
+	/**
+	 * Stops the emulator, waiting for the frame it's running to finish, and
+	 * writes out any battery-backed RAM. Called before the UI exits.
+	 */
+	public void shutdown() {
+		cancel();
+		synchronized (tdb.getSystem()) {
+			tdb.getSystem().getMem().closeSave();
+		}
+	}
+
 }
@@ -19,6 +19,7 @@ import javafx.stage.WindowEvent;
 public class JfxUi extends Application {
 
 	private TailspinDebugger tdb;
+	private EmulatorService es;
 	private final String MAIN_FXML_PATH = "layout/UiLayout.fxml";
 	private final String DEBUGGER_FXML_PATH = "layout/DebuggerLayout.fxml";
 	private final String WINDOW_TITLE = "TailspinDMG 0.2";
@@ -38,6 +39,9 @@ public class JfxUi extends Application {
 		primaryStage.setOnCloseRequest(new EventHandler<WindowEvent>() {
 			@Override
 			public void handle(WindowEvent arg0) {
+				if (es != null) {
+					es.shutdown();
+				}
 				Platform.exit();
 			}
 		});
@@ -59,7 +63,7 @@ public class JfxUi extends Application {
 		tsuic.setTdb(tdb);
 		dbgc.setTdb(tdb);
 
-		EmulatorService es = new EmulatorService(tdb);
+		es = new EmulatorService(tdb);
 		tsuic.setEmuService(es);
 		dbgc.setEs(es);
 
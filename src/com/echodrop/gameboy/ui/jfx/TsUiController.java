@@ -129,13 +129,11 @@ public class TsUiController implements Initializable, IGraphicsObserver {
 				File rom = fileChooser.showOpenDialog(null);
 				tdb.getSystem().getLogger().setLevel(Level.ALL);
 				if (rom != null) {
-					String filepath = rom.getPath();
 					try {
-						byte[] romData = FileUtils.readBytes(filepath);
 						tdb.getSystem().reset();
 						readBootstrap();
 						registerWithGpu();
-						tdb.getSystem().getMem().loadRom(romData);
+						tdb.getSystem().getMem().loadRom(rom.toPath());
 					} catch (IOException e) {
 						ioErrorAlert();
 					} catch (MapperNotImplementedException e) {
@@ -172,6 +170,7 @@ public class TsUiController implements Initializable, IGraphicsObserver {
 		closeMenuItem.setOnAction(new EventHandler<ActionEvent>() {
 			@Override
 			public void handle(ActionEvent arg0) {
+				es.shutdown();
 				Platform.exit();
 			}
 		});
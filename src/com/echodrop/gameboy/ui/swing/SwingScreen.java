@@ -22,7 +22,7 @@ public class SwingScreen extends JFrame {
 	private TailspinScreenPanel tsp;
 
 	public SwingScreen(TailspinGB system) {
-		tsp = new TailspinScreenPanel(system.getGpu());
+		tsp = new TailspinScreenPanel(system);
 		setDefaultCloseOperation(JFrame.HIDE_ON_CLOSE);
 		add(tsp);
 		setLocationRelativeTo(null);
@@ -16,12 +16,14 @@ import java.awt.Graphics2D;
 
 import javax.swing.JPanel;
 
+import com.echodrop.gameboy.core.TailspinGB;
 import com.echodrop.gameboy.graphics.GPU;
 import com.echodrop.gameboy.interfaces.IGraphicsObserver;
 
 public class TailspinScreenPanel extends JPanel implements IGraphicsObserver {
 
 	private static final long serialVersionUID = -7955256380603121144L;
+	private TailspinGB system;
 	private GPU gpu;
 	private byte[][] screen;
 	private int pixelSize = 4;
@@ -29,8 +31,9 @@ public class TailspinScreenPanel extends JPanel implements IGraphicsObserver {
 	private long startMillis;
 	private int frameCount = 0;
 
-	public TailspinScreenPanel(GPU gpu) {
-		this.gpu = gpu;
+	public TailspinScreenPanel(TailspinGB system) {
+		this.system = system;
+		this.gpu = system.getGpu();
 		gpu.registerObserver(this);
 		screen = gpu.getFrameBuffer();
 		this.setBackground(Color.WHITE);
@@ -66,11 +69,13 @@ public class TailspinScreenPanel extends JPanel implements IGraphicsObserver {
 				}
 			}
 		}
-		if (frameCount > 0) {
+		long elapsed = System.currentTimeMillis() - startMillis;
+		if (fpsDisplay && frameCount > 0 && elapsed > 0) {
 			Graphics2D g2d = (Graphics2D) g;
 			g2d.setColor(Color.RED);
 			g2d.setFont(new Font("Arial", Font.BOLD, 10));
-			g2d.drawString("FPS: " + frameCount / (System.currentTimeMillis() - startMillis), 30, 30);
+			g2d.drawString("FPS: " + frameCount * 1000 / elapsed, 30, 30);
+			g2d.drawString("Speed: " + Math.round(system.getSpeedRatio() * 100) + "%", 30, 42);
 		}
 
 	}
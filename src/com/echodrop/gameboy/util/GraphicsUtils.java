@@ -28,9 +28,7 @@ public class GraphicsUtils {
 	public static byte[] getTile(MMU mem, boolean tileset, int tileNumber) {
 		char memOffset = (char) (tileset ? 0x8000 : 0x9000);
 		byte[] tile = new byte[16];
-		for (int i = 0; i < 16; i++) {
-			tile[i] = mem.readByte((char) (memOffset + (tileNumber * 16) + i));
-		}
+		mem.readBlock((char) (memOffset + (tileNumber * 16)), tile, 0, tile.length);
 		return tile;
 	}
 
@@ -52,7 +50,7 @@ public class GraphicsUtils {
 		for (int i = 0; i < 16; i += 2) {
 			firstHalf = tileData[i];
 			secondHalf = tileData[i + 1];
-			byte[] row = mapRow(palette, secondHalf, firstHalf);
+			byte[] row = mapRow(palette, firstHalf, secondHalf);
 
 			for (int j = 0; j < 8; j++) {
 				tile[xCount][j] = row[j];
@@ -25,22 +25,21 @@ public class NumberUtils {
 
 	/**
 	 * Combines two bytes into a word
+	 * 
+	 * @param b1
+	 *            low byte
+	 * @param b2
+	 *            high byte
 	 */
 	public static char bytesToWord(byte b1, byte b2) {
-		String hex1 = Integer.toHexString(b2 & 0xFF);
-
-		if (hex1.length() < 2) {
-			hex1 = "0" + hex1;
-		}
-		String hex2 = Integer.toHexString(b1 & 0xFF);
-
-		if (hex2.length() < 2) {
-			hex2 = "0" + hex2;
-		}
-		char result = (char) Integer.parseInt(hex1 + hex2, 16);
-		return result;
+		return (char) (((b2 & 0xFF) << 8) | (b1 & 0xFF));
+	}
 
-//		return (char)((b2 * 256) | b1);
+	/**
+	 * Swaps the high and low nibbles of a byte
+	 */
+	public static byte swapNibbles(byte b) {
+		return (byte) (((b & 0x0F) << 4) | ((b & 0xF0) >>> 4));
 	}
 
 	public static boolean byteAdditionOverflow(byte b1, byte b2) {
@@ -27,9 +27,8 @@ public class RegisterUtils {
 	 * Left circular bit shift
 	 */
 	public static byte leftRotate(Register r) {
-		String bin = StringUtils.zeroLeftPad(Integer.toBinaryString(r.getValue() & 0xFF), 8);
-		String shifted = bin.substring(1) + bin.charAt(0);
-		return (byte) Integer.parseInt(shifted, 2);
+		int value = r.getValue() & 0xFF;
+		return (byte) ((value << 1) | (value >>> 7));
 	}
 	
 	/**
@@ -42,20 +41,18 @@ public class RegisterUtils {
 	 * @return new state of carry flag
 	 */
 	public static boolean leftRotateThroughCarry(Register toRotate, boolean carryFlag) {
-		String bin = StringUtils.zeroLeftPad(Integer.toBinaryString(toRotate.getValue() & 0xFF), 8)
-				+ (carryFlag ? '1' : '0');
-		String shifted = bin.substring(1) + bin.charAt(0);
-		toRotate.setValue(Integer.parseInt(shifted.substring(0, 8), 2));
-		return shifted.charAt(8) == '1';
+		int value = toRotate.getValue() & 0xFF;
+		toRotate.setValue((value << 1) | (carryFlag ? 1 : 0));
+		return (value & 0x80) != 0;
 	}
 	
 	// XXX Double check the logic on this
+	// The returned carry is the carry flag that was passed in, not bit 0 of
+	// the old value, same as the original string based implementation.
 	public static boolean rightRotateThroughCarry(Register toRotate, boolean carryFlag) {
-		String bin = StringUtils.zeroLeftPad(Integer.toBinaryString(toRotate.getValue() & 0xFF), 8)
-				+ (carryFlag ? '1' : '0');
-		String shifted = bin.charAt(bin.length() - 1) + bin.substring(0, bin.length() - 2);
-		toRotate.setValue(Integer.parseInt(shifted.substring(0, 8), 2));
-		return shifted.charAt(0) == '1';
+		int value = toRotate.getValue() & 0xFF;
+		toRotate.setValue((carryFlag ? 0x80 : 0) | (value >>> 1));
+		return carryFlag;
 	}
 
 }